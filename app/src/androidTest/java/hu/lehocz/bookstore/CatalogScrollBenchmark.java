@@ -0,0 +1,131 @@
+package hu.lehocz.bookstore;
+
+import android.app.Instrumentation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Flings through a catalog of a few thousand books and reports the percentiles of the frame
+ * times seen meanwhile to logcat. The books are removed at the end.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogScrollBenchmark {
+
+    private static final String LOG_TAG = CatalogScrollBenchmark.class.getSimpleName();
+
+    private static final String NAME_PREFIX = "ScrollBenchmark ";
+
+    private static final int BOOK_COUNT = 2000;
+
+    private static final int FLING_COUNT = 10;
+
+    private static final int MAX_FRAMES = 2000;
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private final long[] mFrameTimes = new long[MAX_FRAMES];
+    private int mFrameCount;
+    private long mLastFrameTimeNanos;
+    private boolean mRecording;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRecording) {
+                return;
+            }
+            if (mLastFrameTimeNanos != 0 && mFrameCount < MAX_FRAMES) {
+                mFrameTimes[mFrameCount++] = frameTimeNanos - mLastFrameTimeNanos;
+            }
+            mLastFrameTimeNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    @Before
+    public void insertBooks() {
+        ContentValues[] books = new ContentValues[BOOK_COUNT];
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            books[i] = new ContentValues();
+            books[i].put(BookEntry.COLUMN_NAME, NAME_PREFIX + i);
+            books[i].put(BookEntry.COLUMN_PRICE, i % 100);
+            books[i].put(BookEntry.COLUMN_QUANTITY, i % 10);
+            books[i].put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier " + (i % 50));
+            books[i].put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "0036201111111");
+        }
+        mContext.getContentResolver().bulkInsert(BookEntry.CONTENT_URI, books);
+    }
+
+    @After
+    public void deleteBooks() {
+        mContext.getContentResolver().delete(BookEntry.CONTENT_URI,
+                BookEntry.COLUMN_NAME + " LIKE ?", new String[]{NAME_PREFIX + "%"});
+    }
+
+    @Test
+    public void flingFrameTimes() {
+        Intent intent = new Intent(mContext, CatalogActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        CatalogActivity activity = (CatalogActivity) mInstrumentation.startActivitySync(intent);
+        mInstrumentation.waitForIdleSync();
+        final RecyclerView list = activity.findViewById(R.id.list);
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRecording = true;
+                Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            }
+        });
+        for (int i = 0; i < FLING_COUNT; i++) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    list.fling(0, list.getMaxFlingVelocity());
+                }
+            });
+            SystemClock.sleep(1000);
+        }
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRecording = false;
+            }
+        });
+        activity.finish();
+
+        long[] frameTimes = Arrays.copyOf(mFrameTimes, mFrameCount);
+        Arrays.sort(frameTimes);
+        Log.i(LOG_TAG, "frames=" + frameTimes.length
+                + " p50=" + percentileMillis(frameTimes, 50) + "ms"
+                + " p90=" + percentileMillis(frameTimes, 90) + "ms"
+                + " p95=" + percentileMillis(frameTimes, 95) + "ms"
+                + " p99=" + percentileMillis(frameTimes, 99) + "ms");
+        assertTrue(frameTimes.length > 0);
+    }
+
+    private static double percentileMillis(long[] sortedNanos, int percentile) {
+        int index = Math.max(0, (sortedNanos.length * percentile + 99) / 100 - 1);
+        return sortedNanos[index] / 1e6;
+    }
+}
@@ -0,0 +1,134 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+import hu.lehocz.bookstore.data.BookContract.SupplierEntry;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how long a catalog read takes while another thread keeps selling books, once with the
+ * rollback journal and once with write-ahead logging. Results are written to logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookDbHelperConcurrencyBenchmark {
+
+    private static final String LOG_TAG = BookDbHelperConcurrencyBenchmark.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "concurrency_benchmark.db";
+
+    private static final int BOOK_COUNT = 2000;
+
+    private static final int READ_COUNT = 200;
+
+    @Test
+    public void readLatencyWhileWriting() throws Exception {
+        long[] rollbackJournal = measureReadLatency(false);
+        long[] writeAheadLog = measureReadLatency(true);
+
+        Log.i(LOG_TAG, "rollback journal: " + describe(rollbackJournal));
+        Log.i(LOG_TAG, "write-ahead log:  " + describe(writeAheadLog));
+        assertTrue(writeAheadLog.length == READ_COUNT && rollbackJournal.length == READ_COUNT);
+    }
+
+    /**
+     * Read the whole catalog READ_COUNT times while a writer thread updates quantities in a loop.
+     *
+     * @return the sorted read latencies in microseconds
+     */
+    private long[] measureReadLatency(boolean writeAheadLogging) throws InterruptedException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+
+        BookDbHelper.Options options = new BookDbHelper.Options();
+        options.writeAheadLogging = writeAheadLogging;
+        BookDbHelper helper = new BookDbHelper(context, DATABASE_NAME, options);
+        final SQLiteDatabase database = helper.getWritableDatabase();
+
+        database.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            long[] supplierIds = new long[50];
+            for (int i = 0; i < supplierIds.length; i++) {
+                values.put(SupplierEntry.COLUMN_NAME, "Supplier " + i);
+                values.put(SupplierEntry.COLUMN_PHONE_NUMBER, "0036201111111");
+                supplierIds[i] = database.insert(SupplierEntry.TABLE_NAME, null, values);
+            }
+            values.clear();
+            for (int i = 0; i < BOOK_COUNT; i++) {
+                values.put(BookEntry.COLUMN_NAME, "Book " + i);
+                values.put(BookEntry.COLUMN_PRICE, i % 100);
+                values.put(BookEntry.COLUMN_QUANTITY, 1000);
+                values.put(BookEntry.COLUMN_SUPPLIER_ID, supplierIds[i % supplierIds.length]);
+                database.insert(BookEntry.TABLE_NAME, null, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long id = 1;
+                while (running.get()) {
+                    database.execSQL("UPDATE " + BookEntry.TABLE_NAME + " SET "
+                            + BookEntry.COLUMN_QUANTITY + " = " + BookEntry.COLUMN_QUANTITY + " - 1"
+                            + " WHERE " + BookEntry._ID + " = ?", new Object[]{id});
+                    id = id % BOOK_COUNT + 1;
+                }
+            }
+        });
+        writer.start();
+
+        long[] latencies = new long[READ_COUNT];
+        try {
+            for (int i = 0; i < READ_COUNT; i++) {
+                long start = System.nanoTime();
+                Cursor cursor = database.query(BookDbHelper.VIEW_BOOKS, null, null, null, null, null, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        cursor.getInt(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                latencies[i] = (System.nanoTime() - start) / 1000;
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+            helper.close();
+            context.deleteDatabase(DATABASE_NAME);
+        }
+
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static String describe(long[] sortedLatencies) {
+        return "p50=" + percentile(sortedLatencies, 50) + "us"
+                + " p90=" + percentile(sortedLatencies, 90) + "us"
+                + " p99=" + percentile(sortedLatencies, 99) + "us"
+                + " max=" + sortedLatencies[sortedLatencies.length - 1] + "us";
+    }
+
+    private static long percentile(long[] sortedValues, int percentile) {
+        int index = (sortedValues.length * percentile + 99) / 100 - 1;
+        return sortedValues[Math.max(0, index)];
+    }
+}
@@ -0,0 +1,316 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+import hu.lehocz.bookstore.data.BookContract.LedgerEntry;
+import hu.lehocz.bookstore.data.BookContract.StatsEntry;
+import hu.lehocz.bookstore.data.BookContract.SupplierEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a database of every past version is upgraded to the same schema a new install gets,
+ * without losing its books, that the catalog queries are served by the indexes and that the
+ * inventory statistics and the sales ledger stay in line with the books, and that the suppliers
+ * are split off the books without duplicates.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookDbHelperMigrationTest {
+
+    private static final String DATABASE_NAME = "migration_test.db";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromEveryPastVersion() {
+        BookDbHelper freshHelper = new BookDbHelper(mContext, DATABASE_NAME, new BookDbHelper.Options());
+        String expectedSchema = schema(freshHelper.getReadableDatabase());
+        freshHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+
+        for (int version = 1; version < BookDbHelper.DATABASE_VERSION; version++) {
+            createDatabaseAtVersion(version);
+
+            BookDbHelper helper = new BookDbHelper(mContext, DATABASE_NAME, new BookDbHelper.Options());
+            SQLiteDatabase database = helper.getWritableDatabase();
+            assertEquals(BookDbHelper.DATABASE_VERSION, database.getVersion());
+            assertEquals("Schema after upgrade from version " + version, expectedSchema, schema(database));
+
+            Cursor cursor = database.query(BookDbHelper.VIEW_BOOKS, new String[]{BookEntry.COLUMN_NAME,
+                    BookEntry.COLUMN_SUPPLIER_NAME}, null, null, null, null, null);
+            try {
+                assertEquals(1, cursor.getCount());
+                cursor.moveToFirst();
+                assertEquals("Star Wars", cursor.getString(0));
+                assertEquals("HVG", cursor.getString(1));
+            } finally {
+                cursor.close();
+            }
+            assertStatsMatchBooks(database);
+            assertLedgerMatchesBooks(database);
+
+            helper.close();
+            mContext.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    @Test
+    public void suppliersAreMergedAndIdsKept() {
+        File path = mContext.getDatabasePath(DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(path, null);
+        try {
+            BookDbHelper.createAtVersion(database, 5);
+            String[][] books = {
+                    {"Star Wars", "HVG", "0036201111111"},
+                    {"Dune", "HVG", "0036201111111"},
+                    {"Emma", "Libri", "0036202222222"},
+                    {"Gone", "HVG", "0036209999999"}};
+            for (String[] book : books) {
+                ContentValues values = new ContentValues();
+                values.put(BookEntry.COLUMN_NAME, book[0]);
+                values.put(BookEntry.COLUMN_SUPPLIER_NAME, book[1]);
+                values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, book[2]);
+                database.insertOrThrow(BookEntry.TABLE_NAME, null, values);
+            }
+            // The last book had the highest _ID, which a new book must not get again
+            database.delete(BookEntry.TABLE_NAME, BookEntry.COLUMN_NAME + " = 'Gone'", null);
+
+            BookDbHelper.migrate(database, 5, 6);
+
+            assertEquals(2, DatabaseUtils.queryNumEntries(database, SupplierEntry.TABLE_NAME));
+            assertEquals("Star Wars HVG|Dune HVG|Emma Libri|", booksWithSuppliers(database));
+            assertEquals(2, DatabaseUtils.longForQuery(database, "SELECT COUNT(DISTINCT "
+                    + BookEntry.COLUMN_SUPPLIER_ID + ") FROM " + BookEntry.TABLE_NAME, null));
+
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_NAME, "New");
+            values.put(BookEntry.COLUMN_SUPPLIER_ID, 1);
+            assertEquals(5, database.insertOrThrow(BookEntry.TABLE_NAME, null, values));
+            assertStatsMatchBooks(database);
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    public void catalogQueriesUseIndexes() {
+        BookDbHelper helper = new BookDbHelper(mContext, DATABASE_NAME, new BookDbHelper.Options());
+        SQLiteDatabase database = helper.getReadableDatabase();
+
+        assertUsesIndex(database, BookDbHelper.INDEX_BOOKS_NAME,
+                null, BookEntry.COLUMN_NAME);
+        // Read from the index alone, without looking up every book
+        assertUsesIndex(database, "COVERING INDEX " + BookDbHelper.INDEX_BOOKS_SUPPLIER,
+                BookEntry.COLUMN_SUPPLIER_NAME + " = 'HVG'", null);
+        assertUsesIndex(database, BookDbHelper.INDEX_BOOKS_QUANTITY,
+                BookEntry.COLUMN_QUANTITY + " < 5", null);
+        assertUsesIndex(database, BookDbHelper.INDEX_BOOKS_PRICE,
+                null, BookEntry.COLUMN_PRICE + ", " + BookEntry._ID);
+
+        helper.close();
+    }
+
+    @Test
+    public void statsAndLedgerFollowWrites() {
+        BookDbHelper helper = new BookDbHelper(mContext, DATABASE_NAME, new BookDbHelper.Options());
+        SQLiteDatabase database = helper.getWritableDatabase();
+        assertStatsMatchBooks(database);
+
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_NAME, "HVG");
+        supplier.put(SupplierEntry.COLUMN_PHONE_NUMBER, "0036201111111");
+        long supplierId = database.insertOrThrow(SupplierEntry.TABLE_NAME, null, supplier);
+
+        long[] ids = new long[4];
+        for (int i = 0; i < ids.length; i++) {
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_NAME, "Book " + i);
+            values.put(BookEntry.COLUMN_PRICE, 10 * (i + 1));
+            values.put(BookEntry.COLUMN_QUANTITY, i * 3);
+            values.put(BookEntry.COLUMN_SUPPLIER_ID, supplierId);
+            ids[i] = database.insertOrThrow(BookEntry.TABLE_NAME, null, values);
+        }
+        assertStatsMatchBooks(database);
+
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_QUANTITY, 0);
+        database.update(BookEntry.TABLE_NAME, values, BookEntry._ID + " = " + ids[3], null);
+        values.clear();
+        values.put(BookEntry.COLUMN_PRICE, 7);
+        values.put(BookEntry.COLUMN_QUANTITY, 2);
+        database.update(BookEntry.TABLE_NAME, values, BookEntry._ID + " = " + ids[0], null);
+        values.clear();
+        values.put(BookEntry.COLUMN_NAME, "Renamed");
+        database.update(BookEntry.TABLE_NAME, values, BookEntry._ID + " = " + ids[1], null);
+        assertStatsMatchBooks(database);
+
+        database.delete(BookEntry.TABLE_NAME, BookEntry._ID + " = " + ids[2], null);
+        assertStatsMatchBooks(database);
+        assertLedgerMatchesBooks(database);
+        database.delete(BookEntry.TABLE_NAME, null, null);
+        assertStatsMatchBooks(database);
+        // The supplier went away with its last book
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, SupplierEntry.TABLE_NAME));
+
+        helper.close();
+    }
+
+    /**
+     * @return the name and supplier name of every book in _ID order, each followed by a |
+     */
+    private static String booksWithSuppliers(SQLiteDatabase database) {
+        Cursor cursor = database.query(BookDbHelper.VIEW_BOOKS, new String[]{BookEntry.COLUMN_NAME,
+                BookEntry.COLUMN_SUPPLIER_NAME}, null, null, null, null, BookEntry._ID);
+        StringBuilder books = new StringBuilder();
+        try {
+            while (cursor.moveToNext()) {
+                books.append(cursor.getString(0)).append(' ').append(cursor.getString(1)).append('|');
+            }
+        } finally {
+            cursor.close();
+        }
+        return books.toString();
+    }
+
+    /**
+     * Assert that the quantity of every book equals the sum of its ledger entries.
+     */
+    private static void assertLedgerMatchesBooks(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery("SELECT b." + BookEntry._ID + ", b." + BookEntry.COLUMN_QUANTITY
+                + ", (SELECT IFNULL(SUM(" + LedgerEntry.COLUMN_DELTA + "), 0) FROM " + LedgerEntry.TABLE_NAME
+                + " WHERE " + LedgerEntry.COLUMN_BOOK_ID + " = b." + BookEntry._ID + ")"
+                + " FROM " + BookEntry.TABLE_NAME + " AS b", null);
+        try {
+            while (cursor.moveToNext()) {
+                assertEquals("Ledger of book " + cursor.getLong(0), cursor.getLong(1), cursor.getLong(2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Assert that the statistics row holds what a scan of the books table computes.
+     */
+    private static void assertStatsMatchBooks(SQLiteDatabase database) {
+        Cursor expected = database.rawQuery("SELECT COUNT(*), "
+                + "IFNULL(SUM(" + BookEntry.COLUMN_QUANTITY + "), 0), "
+                + "IFNULL(SUM(" + BookEntry.COLUMN_PRICE + " * " + BookEntry.COLUMN_QUANTITY + "), 0), "
+                + "IFNULL(SUM(" + BookEntry.COLUMN_QUANTITY + " = 0), 0), "
+                + "IFNULL(SUM(" + BookEntry.COLUMN_QUANTITY + " BETWEEN 1 AND "
+                + StatsEntry.LOW_STOCK_THRESHOLD + "), 0)"
+                + " FROM " + BookEntry.TABLE_NAME, null);
+        Cursor actual = database.query(StatsEntry.TABLE_NAME, new String[]{
+                StatsEntry.COLUMN_TITLE_COUNT,
+                StatsEntry.COLUMN_TOTAL_QUANTITY,
+                StatsEntry.COLUMN_TOTAL_VALUE,
+                StatsEntry.COLUMN_OUT_OF_STOCK_COUNT,
+                StatsEntry.COLUMN_LOW_STOCK_COUNT}, null, null, null, null, null);
+        try {
+            assertTrue(expected.moveToFirst());
+            assertEquals(1, actual.getCount());
+            actual.moveToFirst();
+            for (int i = 0; i < actual.getColumnCount(); i++) {
+                assertEquals(actual.getColumnName(i), expected.getLong(i), actual.getLong(i));
+            }
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    /**
+     * Create the database file as an install of the given version would have left it, with a
+     * single book that was inserted while the database was at version 1.
+     */
+    private void createDatabaseAtVersion(int version) {
+        File path = mContext.getDatabasePath(DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(path, null);
+        try {
+            BookDbHelper.createAtVersion(database, 1);
+
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_NAME, "Star Wars");
+            values.put(BookEntry.COLUMN_PRICE, 10);
+            values.put(BookEntry.COLUMN_QUANTITY, 1);
+            values.put(BookEntry.COLUMN_SUPPLIER_NAME, "HVG");
+            values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "0036201111111");
+            database.insertOrThrow(BookEntry.TABLE_NAME, null, values);
+
+            BookDbHelper.migrate(database, 1, version);
+            database.setVersion(version);
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * @return every table, index, view and trigger definition of the database, sorted by name
+     */
+    private static String schema(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' AND name <> 'android_metadata' ORDER BY name", null);
+        StringBuilder schema = new StringBuilder();
+        try {
+            while (cursor.moveToNext()) {
+                schema.append(cursor.getString(0)).append(' ')
+                        .append(cursor.getString(1)).append(": ")
+                        .append(cursor.getString(2)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema.toString();
+    }
+
+    /**
+     * Assert that the query the provider builds for a books selection and sort order is planned
+     * with the given index.
+     */
+    private static void assertUsesIndex(SQLiteDatabase database, String index, String selection,
+                                        String sortOrder) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, BookDbHelper.VIEW_BOOKS, null,
+                selection, null, null, sortOrder, null);
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        StringBuilder plan = new StringBuilder();
+        try {
+            int detailColumnIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detailColumnIndex)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        assertTrue(sql + " should use " + index + " but plan was " + plan,
+                plan.toString().contains(index));
+    }
+}
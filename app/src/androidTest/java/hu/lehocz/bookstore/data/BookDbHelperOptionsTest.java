@@ -0,0 +1,69 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the connection settings reach the connections of the database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookDbHelperOptionsTest {
+
+    private static final String DATABASE_NAME = "options_test.db";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void everyOpenSetsTheCacheSize() {
+        BookDbHelper.Options options = new BookDbHelper.Options();
+        options.cacheSizeKb = 1024;
+        BookDbHelper helper = new BookDbHelper(mContext, DATABASE_NAME, options);
+        try {
+            assertEquals(1024, cacheSizeKb(helper.getWritableDatabase()));
+        } finally {
+            helper.close();
+        }
+
+        // Nothing is stored in the database file, opened again it takes the new size
+        options.cacheSizeKb = 512;
+        helper = new BookDbHelper(mContext, DATABASE_NAME, options);
+        try {
+            assertEquals(512, cacheSizeKb(helper.getReadableDatabase()));
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * @return the page cache size of the connection the query runs on, in kilobytes
+     */
+    private static long cacheSizeKb(SQLiteDatabase database) {
+        long cacheSize = DatabaseUtils.longForQuery(database, "PRAGMA cache_size", null);
+        if (cacheSize < 0) {
+            // A negative size is in kilobytes
+            return -cacheSize;
+        }
+        return cacheSize * DatabaseUtils.longForQuery(database, "PRAGMA page_size", null) / 1024;
+    }
+}
@@ -0,0 +1,112 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Imports books from CSV, exports them as JSON and imports that again, checking the values,
+ * the rejected records and the counts on the way. Works on books of a dedicated supplier, which
+ * are removed at the end.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookImporterTest {
+
+    private static final String SUPPLIER = "BookImporterTest";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ContentResolver mContentResolver =
+            InstrumentationRegistry.getTargetContext().getContentResolver();
+
+    private final ArrayList<String> mRejected = new ArrayList<>();
+
+    private final BookImporter.Listener mListener = new BookImporter.Listener() {
+        @Override
+        public void onProgress(long recordsRead, long booksImported) {
+        }
+
+        @Override
+        public void onRecordRejected(long position, String reason) {
+            mRejected.add(position + ": " + reason);
+        }
+    };
+
+    @Before
+    @After
+    public void deleteBooks() {
+        mContentResolver.delete(BookEntry.CONTENT_URI, BookEntry.COLUMN_SUPPLIER_NAME + " = ?",
+                new String[]{SUPPLIER});
+    }
+
+    @Test
+    public void csvToJsonRoundTrip() throws IOException {
+        String csv = "extra,product_name,product_price,product_quantity,supplier_name,supplier_phone\r\n"
+                + "x,Plain,10,1," + SUPPLIER + ",1\r\n"
+                + "x,\"Comma, quote \"\"and\"\"\nline break\",20,2," + SUPPLIER + ",2\n"
+                + "\n"
+                + "x,Bad price,ten,1," + SUPPLIER + ",3\n"
+                + "x,Negative,10,-1," + SUPPLIER + ",4\n"
+                + "x,Short row\n"
+                + "x,Last,30,3," + SUPPLIER + ",5";
+        BookImporter importer = new BookImporter(mContentResolver, 1);
+        BookImporter.Result result = importer.importCsv(
+                new ByteArrayInputStream(csv.getBytes(UTF_8)), mListener);
+
+        assertEquals(6, result.recordsRead);
+        assertEquals(3, result.booksImported);
+        assertEquals(3, result.recordsRejected);
+        assertEquals("[6: Invalid product_price: ten, 7: Book requires valid quantity, "
+                + "8: Missing product_price]", mRejected.toString());
+        assertEquals("Plain|Comma, quote \"and\"\nline break|Last|", names());
+
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        Cursor cursor = queryBooks();
+        try {
+            assertEquals(3, BookExporter.writeJson(cursor, json));
+        } finally {
+            cursor.close();
+        }
+        deleteBooks();
+
+        result = new BookImporter(mContentResolver).importJson(
+                new ByteArrayInputStream(json.toByteArray()), mListener);
+        assertEquals(3, result.booksImported);
+        assertEquals(0, result.recordsRejected);
+        assertEquals("Plain|Comma, quote \"and\"\nline break|Last|", names());
+    }
+
+    private Cursor queryBooks() {
+        return mContentResolver.query(BookEntry.CONTENT_URI, BookExporter.COLUMNS,
+                BookEntry.COLUMN_SUPPLIER_NAME + " = ?", new String[]{SUPPLIER}, BookEntry._ID);
+    }
+
+    private String names() {
+        StringBuilder names = new StringBuilder();
+        Cursor cursor = queryBooks();
+        try {
+            while (cursor.moveToNext()) {
+                names.append(cursor.getString(0)).append('|');
+            }
+        } finally {
+            cursor.close();
+        }
+        return names.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Pages through the catalog in every sort order and with range filters, checking that the pages
+ * join up without gaps or repeats. Works on books of dedicated suppliers, which are removed at
+ * the end.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookProviderSortTest {
+
+    private static final String SUPPLIER = "BookProviderSortTest";
+
+    private static final String SELECTION = BookEntry.COLUMN_SUPPLIER_NAME + " LIKE ?";
+
+    private static final String[] SELECTION_ARGS = {SUPPLIER + "%"};
+
+    private final ContentResolver mContentResolver =
+            InstrumentationRegistry.getTargetContext().getContentResolver();
+
+    @Before
+    public void insertBooks() {
+        deleteBooks();
+        // name, price, quantity, supplier suffix
+        Object[][] books = {
+                {"C", 30, 0, "B"},
+                {"A", 10, 5, "C"},
+                {"B", 10, 2, "A"},
+                {"E", 50, 5, "A"},
+                {"D", 20, 9, "B"}};
+        ContentValues[] values = new ContentValues[books.length];
+        for (int i = 0; i < books.length; i++) {
+            values[i] = new ContentValues();
+            values[i].put(BookEntry.COLUMN_NAME, (String) books[i][0]);
+            values[i].put(BookEntry.COLUMN_PRICE, (Integer) books[i][1]);
+            values[i].put(BookEntry.COLUMN_QUANTITY, (Integer) books[i][2]);
+            values[i].put(BookEntry.COLUMN_SUPPLIER_NAME, SUPPLIER + books[i][3]);
+            values[i].put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "0036201111111");
+        }
+        mContentResolver.bulkInsert(BookEntry.CONTENT_URI, values);
+    }
+
+    @After
+    public void deleteBooks() {
+        mContentResolver.delete(BookEntry.CONTENT_URI, SELECTION, SELECTION_ARGS);
+    }
+
+    @Test
+    public void pagesInEverySortOrder() {
+        assertEquals("ABCDE", pageThrough(BookContract.SORT_NAME, BookEntry.COLUMN_NAME));
+        // Equal prices keep the insertion (_ID) order
+        assertEquals("ABDCE", pageThrough(BookContract.SORT_PRICE, BookEntry.COLUMN_PRICE));
+        assertEquals("CBAED", pageThrough(BookContract.SORT_QUANTITY, BookEntry.COLUMN_QUANTITY));
+        assertEquals("BECDA", pageThrough(BookContract.SORT_SUPPLIER, BookEntry.COLUMN_SUPPLIER_NAME));
+    }
+
+    @Test
+    public void filtersByPriceAndQuantity() {
+        String[] filter = {
+                BookContract.QUERY_PARAMETER_MIN_PRICE, "10",
+                BookContract.QUERY_PARAMETER_MAX_PRICE, "30",
+                BookContract.QUERY_PARAMETER_MIN_QUANTITY, "1"};
+        assertEquals("ABD", pageThrough(BookContract.SORT_NAME, BookEntry.COLUMN_NAME, filter));
+        assertEquals("BAD", pageThrough(BookContract.SORT_QUANTITY, BookEntry.COLUMN_QUANTITY, filter));
+    }
+
+    @Test
+    public void rejectsInvalidParameters() {
+        assertRejected(BookEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_SORT, "product_name; DROP TABLE books")
+                .build());
+        assertRejected(BookEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_MIN_PRICE, "-1")
+                .build());
+        assertRejected(BookEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_LIMIT, "2")
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_SORT, BookContract.SORT_PRICE)
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_AFTER_VALUE, "ten")
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_AFTER_ID, "1")
+                .build());
+    }
+
+    /**
+     * Read the books page by page, two at a time, in the given order.
+     *
+     * @param filter names and values of query parameters to add to every page
+     * @return the names of the books in the order read
+     */
+    private String pageThrough(String sort, String sortColumn, String... filter) {
+        StringBuilder names = new StringBuilder();
+        String afterValue = null;
+        long afterId = 0;
+        while (true) {
+            Uri.Builder builder = BookEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(BookContract.QUERY_PARAMETER_LIMIT, "2")
+                    .appendQueryParameter(BookContract.QUERY_PARAMETER_SORT, sort);
+            for (int i = 0; i < filter.length; i += 2) {
+                builder.appendQueryParameter(filter[i], filter[i + 1]);
+            }
+            if (afterValue != null) {
+                builder.appendQueryParameter(BookContract.QUERY_PARAMETER_AFTER_VALUE, afterValue)
+                        .appendQueryParameter(BookContract.QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            }
+            Cursor cursor = mContentResolver.query(builder.build(),
+                    new String[]{BookEntry._ID, BookEntry.COLUMN_NAME, sortColumn},
+                    SELECTION, SELECTION_ARGS, null);
+            try {
+                while (cursor.moveToNext()) {
+                    names.append(cursor.getString(1));
+                    afterId = cursor.getLong(0);
+                    afterValue = cursor.getString(2);
+                }
+                if (cursor.getCount() < 2) {
+                    return names.toString();
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    private void assertRejected(Uri uri) {
+        try {
+            mContentResolver.query(uri, null, null, null, null).close();
+            fail("Query of " + uri + " should have been rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.StrictMode;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs every kind of write through {@link BookWriter} from the main thread with a StrictMode
+ * policy that kills the process on a disk write, so the test run fails if any of them touches
+ * the disk on the main thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookWriterStrictModeTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private Uri mBookUri;
+    private int mQuantity;
+    private int mRowsUpdated;
+    private int mRowsDeleted;
+
+    @Test
+    public void writesNeverTouchTheDiskOnTheMainThread() throws InterruptedException {
+        final CountDownLatch inserted = new CountDownLatch(1);
+        runOnMainThreadWithStrictMode(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues values = new ContentValues();
+                values.put(BookEntry.COLUMN_NAME, "StrictMode");
+                values.put(BookEntry.COLUMN_PRICE, 10);
+                values.put(BookEntry.COLUMN_QUANTITY, 1);
+                values.put(BookEntry.COLUMN_SUPPLIER_NAME, "HVG");
+                values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "0036201111111");
+                BookWriter.getInstance(mContext).insert(BookEntry.CONTENT_URI, values,
+                        new TestCallback<Uri>(inserted) {
+                            @Override
+                            public void onSuccess(Uri result) {
+                                mBookUri = result;
+                                super.onSuccess(result);
+                            }
+                        });
+            }
+        });
+        assertTrue(inserted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNotNull(mBookUri);
+
+        final CountDownLatch adjustedAndUpdated = new CountDownLatch(2);
+        runOnMainThreadWithStrictMode(new Runnable() {
+            @Override
+            public void run() {
+                BookWriter writer = BookWriter.getInstance(mContext);
+                writer.adjustQuantity(ContentUris.parseId(mBookUri), 2,
+                        new TestCallback<Integer>(adjustedAndUpdated) {
+                            @Override
+                            public void onSuccess(Integer result) {
+                                mQuantity = result;
+                                super.onSuccess(result);
+                            }
+                        });
+
+                ContentValues values = new ContentValues();
+                values.put(BookEntry.COLUMN_PRICE, 20);
+                writer.update(mBookUri, values, new TestCallback<Integer>(adjustedAndUpdated) {
+                    @Override
+                    public void onSuccess(Integer result) {
+                        mRowsUpdated = result;
+                        super.onSuccess(result);
+                    }
+                });
+            }
+        });
+        assertTrue(adjustedAndUpdated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(3, mQuantity);
+        assertEquals(1, mRowsUpdated);
+
+        final CountDownLatch deleted = new CountDownLatch(1);
+        runOnMainThreadWithStrictMode(new Runnable() {
+            @Override
+            public void run() {
+                BookWriter.getInstance(mContext).delete(mBookUri, new TestCallback<Integer>(deleted) {
+                    @Override
+                    public void onSuccess(Integer result) {
+                        mRowsDeleted = result;
+                        super.onSuccess(result);
+                    }
+                });
+            }
+        });
+        assertTrue(deleted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, mRowsDeleted);
+    }
+
+    /**
+     * Run the action on the main thread with disk writes forbidden, restoring the previous
+     * policy afterwards.
+     */
+    private static void runOnMainThreadWithStrictMode(final Runnable action) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                StrictMode.ThreadPolicy oldPolicy = StrictMode.getThreadPolicy();
+                StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                        .detectDiskWrites()
+                        .penaltyLog()
+                        .penaltyDeath()
+                        .build());
+                try {
+                    action.run();
+                } finally {
+                    StrictMode.setThreadPolicy(oldPolicy);
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts down the latch when the write succeeds and fails the test when it doesn't.
+     */
+    private static class TestCallback<T> implements BookWriter.Callback<T> {
+
+        private final CountDownLatch mLatch;
+
+        TestCallback(CountDownLatch latch) {
+            mLatch = latch;
+        }
+
+        @Override
+        public void onSuccess(T result) {
+            mLatch.countDown();
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
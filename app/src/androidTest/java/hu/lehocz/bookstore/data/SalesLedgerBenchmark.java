@@ -0,0 +1,109 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+import hu.lehocz.bookstore.data.BookContract.LedgerEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sells copies of a single book from many threads at once through the provider, checks that
+ * every sale has been applied and recorded in the ledger, and reports the rate of sales to
+ * logcat. The book is removed at the end, its ledger entries stay as they would in the app.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SalesLedgerBenchmark {
+
+    private static final String LOG_TAG = SalesLedgerBenchmark.class.getSimpleName();
+
+    private static final int THREAD_COUNT = 8;
+
+    private static final int SALES_PER_THREAD = 500;
+
+    private final ContentResolver mContentResolver =
+            InstrumentationRegistry.getTargetContext().getContentResolver();
+
+    private long mBookId;
+
+    @Before
+    public void insertBook() {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_NAME, "SalesLedgerBenchmark");
+        values.put(BookEntry.COLUMN_PRICE, 10);
+        values.put(BookEntry.COLUMN_QUANTITY, THREAD_COUNT * SALES_PER_THREAD);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "HVG");
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "0036201111111");
+        mBookId = ContentUris.parseId(mContentResolver.insert(BookEntry.CONTENT_URI, values));
+    }
+
+    @After
+    public void deleteBook() {
+        mContentResolver.delete(ContentUris.withAppendedId(BookEntry.CONTENT_URI, mBookId), null, null);
+    }
+
+    @Test
+    public void concurrentSales() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(THREAD_COUNT);
+        final AtomicInteger refused = new AtomicInteger();
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    Bundle extras = new Bundle();
+                    extras.putLong(BookContract.EXTRA_BOOK_ID, mBookId);
+                    extras.putInt(BookContract.EXTRA_DELTA, -1);
+                    for (int sale = 0; sale < SALES_PER_THREAD; sale++) {
+                        Bundle result = mContentResolver.call(BookEntry.CONTENT_URI,
+                                BookContract.METHOD_ADJUST_QUANTITY, null, extras);
+                        if (result.getInt(BookContract.EXTRA_QUANTITY) == -1) {
+                            refused.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+        int sales = THREAD_COUNT * SALES_PER_THREAD;
+        Log.i(LOG_TAG, sales + " sales in " + elapsed + "ms, " + (sales * 1000L / elapsed) + " sales/s");
+
+        assertEquals(0, refused.get());
+        assertEquals(0, queryLong(ContentUris.withAppendedId(BookEntry.CONTENT_URI, mBookId),
+                BookEntry.COLUMN_QUANTITY, null));
+        assertEquals(-sales, queryLong(LedgerEntry.CONTENT_URI,
+                "SUM(" + LedgerEntry.COLUMN_DELTA + ")",
+                LedgerEntry.COLUMN_BOOK_ID + " = " + mBookId + " AND "
+                        + LedgerEntry.COLUMN_REASON + " = " + LedgerEntry.REASON_CHANGE));
+    }
+
+    private long queryLong(Uri uri, String column, String selection) {
+        Cursor cursor = mContentResolver.query(uri, new String[]{column}, selection, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
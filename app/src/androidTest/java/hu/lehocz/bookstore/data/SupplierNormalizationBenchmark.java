@@ -0,0 +1,171 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fills a database of version 5, where every book holds its supplier's name and phone number,
+ * then migrates it to the current version, with a suppliers table since version 6 and the index
+ * covering the books of a supplier since version 9, and compares the size of the database
+ * and the time of the supplier and catalog queries before and after. Results are written to
+ * logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SupplierNormalizationBenchmark {
+
+    private static final String LOG_TAG = SupplierNormalizationBenchmark.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "supplier_benchmark.db";
+
+    private static final int BOOK_COUNT = 50000;
+
+    private static final int SUPPLIER_COUNT = 200;
+
+    private static final int QUERY_COUNT = 200;
+
+    private Context mContext;
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        File path = mContext.getDatabasePath(DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        mDatabase = SQLiteDatabase.openOrCreateDatabase(path, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void sizeAndQueryTimeBeforeAndAfter() {
+        BookDbHelper.createAtVersion(mDatabase, 5);
+        mDatabase.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < BOOK_COUNT; i++) {
+                int supplier = i % SUPPLIER_COUNT;
+                values.put(BookEntry.COLUMN_NAME, "Book " + i);
+                values.put(BookEntry.COLUMN_PRICE, i % 100);
+                values.put(BookEntry.COLUMN_QUANTITY, i % 20);
+                values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier Publishing House " + supplier);
+                values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "+36 20 " + (1000000 + supplier));
+                mDatabase.insertOrThrow(BookEntry.TABLE_NAME, null, values);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        mDatabase.execSQL("VACUUM");
+        long sizeBefore = databaseSize();
+        long supplierQueryBefore = timeSupplierQueries(BookEntry.TABLE_NAME);
+        long catalogQueryBefore = timeCatalogQuery(BookEntry.TABLE_NAME);
+
+        mDatabase.beginTransaction();
+        try {
+            BookDbHelper.migrate(mDatabase, 5, BookDbHelper.DATABASE_VERSION);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        mDatabase.execSQL("VACUUM");
+        long sizeAfter = databaseSize();
+        long supplierQueryAfter = timeSupplierQueries(BookDbHelper.VIEW_BOOKS);
+        long catalogQueryAfter = timeCatalogQuery(BookDbHelper.VIEW_BOOKS);
+
+        Log.i(LOG_TAG, BOOK_COUNT + " books of " + SUPPLIER_COUNT + " suppliers");
+        Log.i(LOG_TAG, "database size:  " + sizeBefore / 1024 + "KB -> " + sizeAfter / 1024 + "KB");
+        Log.i(LOG_TAG, "supplier query: " + supplierQueryBefore + "us -> " + supplierQueryAfter + "us");
+        Log.i(LOG_TAG, "catalog query:  " + catalogQueryBefore + "us -> " + catalogQueryAfter + "us");
+
+        assertEquals(SUPPLIER_COUNT, DatabaseUtils.queryNumEntries(mDatabase,
+                BookContract.SupplierEntry.TABLE_NAME));
+        assertTrue("Database grew from " + sizeBefore + " to " + sizeAfter, sizeAfter < sizeBefore);
+    }
+
+    /**
+     * @return the size of the database file in bytes, from its page count
+     */
+    private long databaseSize() {
+        return DatabaseUtils.longForQuery(mDatabase, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(mDatabase, "PRAGMA page_size", null);
+    }
+
+    /**
+     * Read every book of QUERY_COUNT suppliers by supplier name.
+     *
+     * @return the median time of a query in microseconds
+     */
+    private long timeSupplierQueries(String table) {
+        long[] times = new long[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            String supplier = "Supplier Publishing House " + (i % SUPPLIER_COUNT);
+            long start = System.nanoTime();
+            Cursor cursor = mDatabase.query(table, null, BookEntry.COLUMN_SUPPLIER_NAME + " = ?",
+                    new String[]{supplier}, null, null, null);
+            try {
+                assertEquals(BOOK_COUNT / SUPPLIER_COUNT, count(cursor));
+            } finally {
+                cursor.close();
+            }
+            times[i] = (System.nanoTime() - start) / 1000;
+        }
+        Arrays.sort(times);
+        return times[QUERY_COUNT / 2];
+    }
+
+    /**
+     * Read the first 1000 books of the catalog, ordered by name, with every column of a book.
+     *
+     * @return the median time of a read in microseconds
+     */
+    private long timeCatalogQuery(String table) {
+        long[] times = new long[QUERY_COUNT / 10];
+        for (int i = 0; i < times.length; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mDatabase.query(table, null, null, null, null, null,
+                    BookEntry.COLUMN_NAME + ", " + BookEntry._ID, "1000");
+            try {
+                assertEquals(1000, count(cursor));
+            } finally {
+                cursor.close();
+            }
+            times[i] = (System.nanoTime() - start) / 1000;
+        }
+        Arrays.sort(times);
+        return times[times.length / 2];
+    }
+
+    private static int count(Cursor cursor) {
+        int count = 0;
+        while (cursor.moveToNext()) {
+            cursor.getString(cursor.getColumnCount() - 1);
+            count++;
+        }
+        return count;
+    }
+}
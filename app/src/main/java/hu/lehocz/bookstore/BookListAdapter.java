@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package hu.lehocz.bookstore;
+
+import android.content.Context;
+import android.support.v4.util.LongSparseArray;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import java.util.Collections;
+import java.util.List;
+
+import hu.lehocz.bookstore.data.Book;
+
+/**
+ * {@link BookListAdapter} is an adapter for a {@link RecyclerView}
+ * that uses an immutable list of {@link Book}s as its data source. This adapter knows
+ * how to create list items for each book of the list.
+ * <p>
+ * Views are looked up once per holder and numbers are written into per holder buffers, so
+ * scrolling doesn't allocate. When the list changes, only the rows of the books inserted,
+ * removed or changed are redrawn. A single click listener is shared by every row; it finds the
+ * book through the stable ID of the row's holder. Sales are shown at once and written behind by
+ * a {@link SaleCoalescer}.
+ */
+public class BookListAdapter extends RecyclerView.Adapter<BookListAdapter.BookViewHolder> {
+
+    /**
+     * Listener for clicks on a book of the list.
+     */
+    public interface OnBookClickListener {
+
+        /**
+         * Called when the user clicks on the row of a book (outside of its sale button).
+         *
+         * @param id of the book
+         */
+        void onBookClick(long id);
+    }
+
+    private final OnBookClickListener mOnBookClickListener;
+
+    /**
+     * The books shown
+     */
+    private List<Book> mBooks = Collections.emptyList();
+
+    /**
+     * Up to date values of books that changed since the list was loaded, by book ID
+     */
+    private final LongSparseArray<Book> mPatchedBooks = new LongSparseArray<>();
+
+    /**
+     * Sales made with the sale buttons that aren't in the cursor yet
+     */
+    private final SaleCoalescer mSales;
+
+    /**
+     * Shared by every row: sells a copy of the book when its sale button is clicked, and opens
+     * the book when anything else in the row is clicked.
+     */
+    private final View.OnClickListener mOnClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            BookViewHolder holder = (BookViewHolder) view.getTag();
+            long bookId = holder.getItemId();
+            if (bookId == RecyclerView.NO_ID) {
+                // The row is being removed
+                return;
+            }
+
+            /* Sale Button
+             * In the Main Activity that displays a list of all available inventory,
+             * each List Item contains a Sale Button which reduces the available quantity
+             * for that particular product by one (include logic so
+             * that no negative quantities are displayed).
+             */
+            if (view == holder.saleButton) {
+                // Show the sale at once, the coalescer writes the sales of quick taps as a
+                // single decrement, which the provider refuses if it would go below zero
+                mSales.sell(bookId, holder.shownQuantity);
+            } else {
+                mOnBookClickListener.onBookClick(bookId);
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link BookListAdapter}.
+     *
+     * @param context             of the app
+     * @param onBookClickListener is notified when a book is clicked
+     */
+    public BookListAdapter(Context context, OnBookClickListener onBookClickListener) {
+        mOnBookClickListener = onBookClickListener;
+        mSales = new SaleCoalescer(context, new SaleCoalescer.Listener() {
+            @Override
+            public void onOverlayChanged(long id) {
+                notifyBookChanged(id);
+            }
+
+            @Override
+            public void onSaleCommitted(long id, int quantity) {
+                patchQuantity(id, quantity);
+            }
+        });
+        setHasStableIds(true);
+    }
+
+    /**
+     * Write the sales collected from the sale buttons now.
+     */
+    public void flushSales() {
+        mSales.flush();
+    }
+
+    /**
+     * Write the sales collected from the sale buttons now, and stop showing the results of the
+     * sales being written. Called when the list goes away.
+     */
+    public void releaseSales() {
+        mSales.release();
+    }
+
+    /**
+     * Show the given books, redrawing every row.
+     */
+    public void setBooks(List<Book> books) {
+        dropReplacedPatches(books);
+        mBooks = books;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Show the given books, which are the ones shown followed by more.
+     */
+    public void addBooks(List<Book> books) {
+        int count = mBooks.size();
+        dropReplacedPatches(books);
+        mBooks = books;
+        notifyItemRangeInserted(count, books.size() - count);
+    }
+
+    /**
+     * Show the given books, which differ from the ones shown in the range starting at the given
+     * position by the diff, only redrawing the rows that the diff changes.
+     */
+    public void setBooks(List<Book> books, DiffUtil.DiffResult diff, final int offset) {
+        dropReplacedPatches(books);
+        mBooks = books;
+        diff.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(offset + position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(offset + position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                notifyItemMoved(offset + fromPosition, offset + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                notifyItemRangeChanged(offset + position, count, payload);
+            }
+        });
+    }
+
+    /**
+     * Show the given values for a book instead of the ones in the list, without querying the
+     * whole list again. The patch is dropped once the list is set with other values for the
+     * book than the ones it had.
+     *
+     * @param book the current values of the book's columns shown in the list
+     */
+    public void patchBook(Book book) {
+        mPatchedBooks.put(book.id, book);
+        notifyBookChanged(book.id);
+    }
+
+    /**
+     * Show the given quantity for a book, keeping its other values.
+     */
+    private void patchQuantity(long id, int quantity) {
+        Book book = mPatchedBooks.get(id);
+        if (book == null) {
+            int position = findPosition(id);
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            book = mBooks.get(position);
+        }
+        patchBook(book.withQuantity(quantity));
+    }
+
+    /**
+     * Drop the patches of the books the given list has other values for than the shown one,
+     * or doesn't have, as those values have been loaded since. The patches of the other books
+     * stay, as most of the list, like the pages that weren't loaded again, is the same.
+     */
+    private void dropReplacedPatches(List<Book> books) {
+        for (int i = mPatchedBooks.size() - 1; i >= 0; i--) {
+            long id = mPatchedBooks.keyAt(i);
+            Book book = find(books, id);
+            if (book == null || !book.equals(find(mBooks, id))) {
+                mPatchedBooks.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * @return the book with the given ID in the list, or null
+     */
+    private static Book find(List<Book> books, long id) {
+        for (int position = 0; position < books.size(); position++) {
+            if (books.get(position).id == id) {
+                return books.get(position);
+            }
+        }
+        return null;
+    }
+
+    private void notifyBookChanged(long id) {
+        int position = findPosition(id);
+        if (position != RecyclerView.NO_POSITION) {
+            notifyItemChanged(position);
+        }
+    }
+
+    /**
+     * @return the position of the given book, or NO_POSITION if it isn't in the list
+     */
+    private int findPosition(long id) {
+        for (int position = 0; position < mBooks.size(); position++) {
+            if (mBooks.get(position).id == id) {
+                return position;
+            }
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mBooks.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mBooks.get(position).id;
+    }
+
+    /**
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     *
+     * @param parent   The parent to which the new view is attached to
+     * @param viewType The view type of the new view
+     * @return the holder of the newly created list item view.
+     */
+    @Override
+    public BookViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        // Inflate a list item view using the layout specified in list_item.xml
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        BookViewHolder holder = new BookViewHolder(view);
+        view.setOnClickListener(mOnClickListener);
+        holder.saleButton.setOnClickListener(mOnClickListener);
+        return holder;
+    }
+
+    /**
+     * This method binds the book data (at the given position of the list) to the
+     * given list item holder. For example, the name for the current book can be set on the name
+     * TextView in the list item layout.
+     *
+     * @param holder   Existing holder, returned earlier by onCreateViewHolder() method
+     * @param position The position of the book in the list
+     */
+    @Override
+    public void onBindViewHolder(BookViewHolder holder, int position) {
+        // Read the book attributes from the patched values or the list for the current book
+        // and update the TextViews with them
+        Book book = mBooks.get(position);
+        Book patch = mPatchedBooks.get(book.id);
+        if (patch != null) {
+            book = patch;
+        }
+        holder.nameTextView.setText(book.name);
+        holder.priceText.setNumber(book.price);
+        // Include the sales that haven't reached the database yet
+        int bookQuantity = book.quantity + mSales.getDelta(book.id);
+        holder.shownQuantity = bookQuantity;
+        holder.quantityText.setNumber(bookQuantity);
+
+        // If the book name is empty, then use some default text, so the TextView isn't blank.
+        if (holder.nameTextView.length() == 0) {
+            holder.nameTextView.setText(R.string.unknown_book);
+        }
+
+        if (bookQuantity > 0) {
+            holder.quantityLayout.setVisibility(View.VISIBLE);
+            holder.saleButton.setVisibility(View.VISIBLE);
+            holder.outOfStockView.setVisibility(View.GONE);
+        } else {
+            holder.saleButton.setVisibility(View.GONE);
+            holder.quantityLayout.setVisibility(View.GONE);
+            holder.outOfStockView.setVisibility(View.VISIBLE);
+        }
+    }
+
+    /**
+     * Holds the views of a list item.
+     */
+    static class BookViewHolder extends RecyclerView.ViewHolder {
+
+        final TextView nameTextView;
+        final NumberText priceText;
+        final NumberText quantityText;
+        final LinearLayout quantityLayout;
+        final Button saleButton;
+        final TextView outOfStockView;
+
+        /**
+         * Quantity of the book currently shown, sales not written yet included
+         */
+        int shownQuantity;
+
+        BookViewHolder(View view) {
+            super(view);
+            // Find individual views that we want to modify in the list item layout
+            nameTextView = view.findViewById(R.id.name);
+            priceText = new NumberText((TextView) view.findViewById(R.id.price));
+            quantityText = new NumberText((TextView) view.findViewById(R.id.quantity));
+            quantityLayout = view.findViewById(R.id.quantity_layout);
+            saleButton = view.findViewById(R.id.sale_button);
+            outOfStockView = view.findViewById(R.id.out_of_stock);
+
+            // Lets the shared click listener find the holder of the clicked view
+            view.setTag(this);
+            saleButton.setTag(this);
+        }
+    }
+
+    /**
+     * Shows an int in a TextView by writing its digits into a reused buffer, instead of creating
+     * a new String for every bind like Integer.toString() does.
+     */
+    static class NumberText {
+
+        private final TextView mTextView;
+
+        /**
+         * Room for the digits and the sign of any int
+         */
+        private final char[] mBuffer = new char[11];
+
+        NumberText(TextView textView) {
+            mTextView = textView;
+        }
+
+        void setNumber(int number) {
+            int start = mBuffer.length;
+            long value = Math.abs((long) number);
+            do {
+                mBuffer[--start] = (char) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+            if (number < 0) {
+                mBuffer[--start] = '-';
+            }
+            mTextView.setText(mBuffer, start, mBuffer.length - start);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package hu.lehocz.bookstore;
+
+import android.app.Application;
+
+import hu.lehocz.bookstore.data.BookQueries;
+
+/**
+ * Starts opening the database and loading the first page of the catalog on a background
+ * thread as soon as the process starts, while the catalog is still being created, so its first
+ * frame doesn't wait for the database to be opened, created or migrated.
+ */
+public class BookStoreApplication extends Application {
+
+    /**
+     * Time the prefetched first page is kept for the catalog to pick it up
+     */
+    private static final long PREFETCH_KEEP_MILLIS = 10000;
+
+    public BookStoreApplication() {
+        StartupTrace.onProcessStart();
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        BookQueries queries = BookQueries.getInstance(this);
+        queries.warmUp();
+        queries.prefetch(CatalogActivity.firstPageQuery(), PREFETCH_KEEP_MILLIS);
+    }
+}
@@ -15,38 +15,209 @@
  */
 package hu.lehocz.bookstore;
 
-import android.app.LoaderManager;
+import android.app.AlertDialog;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
-import android.database.Cursor;
+import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.util.LongSparseArray;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.EditText;
+import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import hu.lehocz.bookstore.data.Book;
+import hu.lehocz.bookstore.data.BookContract;
 import hu.lehocz.bookstore.data.BookContract.BookEntry;
+import hu.lehocz.bookstore.data.BookQueries;
+import hu.lehocz.bookstore.data.BookQuery;
+import hu.lehocz.bookstore.data.BookSearch;
+import hu.lehocz.bookstore.data.BookWriter;
+import hu.lehocz.bookstore.data.InventoryStats;
 
 /**
  * Displays list of books that were entered and stored in the app.
  */
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class CatalogActivity extends AppCompatActivity {
+
+    /**
+     * Number of books loaded at once. Further pages are loaded as the user scrolls.
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Time to wait for further keystrokes before searching for the typed terms. Keystrokes
+     * narrowing down the shown search results don't wait, as those are filtered in memory.
+     */
+    private static final long SEARCH_DELAY_MILLIS = 100;
+
+    /**
+     * Columns of the books shown in the list, and the supplier name the list may be sorted by
+     */
+    private static final String[] CATALOG_PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_NAME,
+            BookEntry.COLUMN_PRICE,
+            BookEntry.COLUMN_QUANTITY,
+            BookEntry.COLUMN_SUPPLIER_NAME};
+
+    /**
+     * Keys of the sort mode and the range filters in the saved instance state
+     */
+    private static final String STATE_SORT = "sort";
+    private static final String STATE_FILTER = "filter";
+
+    /**
+     * Query parameters of the range filters, in the order of their fields in the filter dialog
+     */
+    private static final String[] FILTER_PARAMETERS = {
+            BookContract.QUERY_PARAMETER_MIN_PRICE,
+            BookContract.QUERY_PARAMETER_MAX_PRICE,
+            BookContract.QUERY_PARAMETER_MIN_QUANTITY,
+            BookContract.QUERY_PARAMETER_MAX_QUANTITY};
+
+    private static final int[] FILTER_FIELDS = {
+            R.id.filter_min_price,
+            R.id.filter_max_price,
+            R.id.filter_min_quantity,
+            R.id.filter_max_quantity};
+
+    BookListAdapter mAdapter;
+
+    /**
+     * Header showing the inventory statistics
+     */
+    private TextView mStatsView;
+
+    /**
+     * Subscription to the inventory statistics shown in the header. They are a single row
+     * maintained by the database, so they're cheap to load again on every change.
+     */
+    private BookQueries.Subscription mStatsSubscription;
+
+    /**
+     * Reads of the single books whose rows are being patched, by _ID
+     */
+    private final LongSparseArray<BookQueries.Read> mRowReads = new LongSparseArray<>();
+
+    /**
+     * Patches the rows of books that changed in place (a sale for instance), instead of
+     * loading the whole list again.
+     */
+    private final Handler mHandler = new Handler();
 
-    private static final int BOOK_LOADER = 0;
-    BookCursorAdapter mCursorAdapter;
+    private final ContentObserver mRowObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            // No URI before Jelly Bean, so there's no telling which book changed
+            reloadPages();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            if (uri == null) {
+                reloadPages();
+            } else if (uri.getPathSegments().size() == 2) {
+                patchRow(ContentUris.parseId(uri));
+            }
+            // Changes of every book come with a change of the list, which reloads it anyway
+        }
+    };
+
+    /**
+     * A page of the catalog, a live query of the books following a key.
+     */
+    private static class Page {
+
+        /**
+         * Key of the book the page starts after (see {@link #pageArgsAfter}), null for the
+         * first page
+         */
+        final Bundle args;
+
+        BookQueries.Subscription subscription;
+
+        /**
+         * Books of the page, null while loading
+         */
+        List<Book> books;
+
+        /**
+         * Search terms the search results of the query are narrowed down to, null to show them
+         * as they are
+         */
+        String narrowedTerms;
+
+        Page(Bundle args) {
+            this.args = args;
+        }
+    }
+
+    /**
+     * The pages in order
+     */
+    private final ArrayList<Page> mPages = new ArrayList<>();
+
+    /**
+     * Number of pages the adapter shows, the loaded ones up to the first that is still loading,
+     * -1 while the adapter still shows a catalog that is being replaced
+     */
+    private int mShownPageCount;
+
+    /**
+     * Search terms of the shown books, null or empty to list every book
+     */
+    private String mSearchTerms;
+
+    /**
+     * Search terms typed into the search box that are waiting to be searched for
+     */
+    private String mPendingSearchTerms;
+
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mSearchTerms = mPendingSearchTerms;
+            reloadCatalog();
+        }
+    };
+
+    /**
+     * Order of the catalog, one of the BookContract.SORT_ constants
+     */
+    private String mSort = BookContract.SORT_NAME;
+
+    /**
+     * Range filters of the catalog, the bound of each filter that is set by its query parameter
+     */
+    private Bundle mFilter = new Bundle();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
+        if (savedInstanceState != null) {
+            mSort = savedInstanceState.getString(STATE_SORT, BookContract.SORT_NAME);
+            mFilter = savedInstanceState.getBundle(STATE_FILTER);
+        }
+
         /* Add Product Button
          * The Main Activity contains an Add Product Button prompts the user for product
          * information and supplier information which are then properly stored in the table.
@@ -61,20 +232,21 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         });
 
         /*
-         * ListView Population
-         * The Main Activity displaying the list of current inventory contains a ListView
+         * List Population
+         * The Main Activity displaying the list of current inventory contains a RecyclerView
          * that populates with the current products stored in the table.
          */
 
-        final ListView bookListView = findViewById(R.id.list);
+        mStatsView = findViewById(R.id.stats);
+
+        RecyclerView bookListView = findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        bookListView.setLayoutManager(layoutManager);
+        bookListView.setHasFixedSize(true);
 
-        View emptyView = (findViewById(R.id.empty_View));
-        bookListView.setEmptyView(emptyView);
-        mCursorAdapter = new BookCursorAdapter(this, null);
-        bookListView.setAdapter(mCursorAdapter);
-        bookListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mAdapter = new BookListAdapter(this, new BookListAdapter.OnBookClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onBookClick(long id) {
 
                 /* Detail View Intent
                  * When a user clicks on a List Item from the Main Activity,
@@ -86,9 +258,376 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 startActivity(intent);
             }
         });
+        bookListView.setAdapter(mAdapter);
+
+        // Show the empty view instead of the list while there are no books
+        final View emptyView = findViewById(R.id.empty_View);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                emptyView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                onChanged();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                onChanged();
+            }
+        });
 
-        //Kick off the loader
-        getLoaderManager().initLoader(BOOK_LOADER, null, this);
+        // Load the next page when the user gets close to the end of the loaded ones
+        bookListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (layoutManager.findLastVisibleItemPosition()
+                        >= mAdapter.getItemCount() - PAGE_SIZE / 2) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        // Follow the changes of single books
+        getContentResolver().registerContentObserver(BookEntry.ROW_CHANGES_URI, true, mRowObserver);
+
+        // Kick off the query of the first page
+        subscribePage(0, null);
+        mStatsSubscription = BookQueries.getInstance(this).subscribeStats(new BookQueries.StatsObserver() {
+            @Override
+            public void onStatsChanged(InventoryStats stats) {
+                if (stats == null) {
+                    mStatsView.setText(null);
+                    return;
+                }
+                mStatsView.setText(getString(R.string.catalog_stats, stats.titleCount,
+                        stats.totalQuantity, stats.totalValue, stats.outOfStockCount,
+                        stats.lowStockCount));
+            }
+        });
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT, mSort);
+        outState.putBundle(STATE_FILTER, mFilter);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Don't keep the sales of the last taps waiting while the user is elsewhere
+        mAdapter.flushSales();
+    }
+
+    @Override
+    protected void onDestroy() {
+        // The results of the sales still being written must not reach the rows of this list
+        mAdapter.releaseSales();
+        getContentResolver().unregisterContentObserver(mRowObserver);
+        mHandler.removeCallbacks(mSearchRunnable);
+        dropPagesAfter(-1);
+        mStatsSubscription.unsubscribe();
+        for (int i = 0; i < mRowReads.size(); i++) {
+            mRowReads.valueAt(i).cancel();
+        }
+        mRowReads.clear();
+        super.onDestroy();
+    }
+
+    /**
+     * Read the current values of a single book in the background and show them in its row, or
+     * load the pages again if the change may move the book in the catalog.
+     */
+    private void patchRow(final long id) {
+        // Only the latest values of the book matter
+        BookQueries.Read pending = mRowReads.get(id);
+        if (pending != null) {
+            pending.cancel();
+        }
+        mRowReads.put(id, BookQueries.getInstance(this).read(
+                new BookQuery(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id), CATALOG_PROJECTION),
+                new BookQueries.Observer() {
+                    @Override
+                    public void onBooksChanged(List<Book> books, DiffUtil.DiffResult diff) {
+                        mRowReads.remove(id);
+                        // Empty if deleted, the list is reloaded for that anyway
+                        if (!books.isEmpty()) {
+                            onRowChanged(books.get(0));
+                        }
+                    }
+                }));
+    }
+
+    private void onRowChanged(Book book) {
+        // Search results are ordered by relevance and not filtered by range
+        if (TextUtils.isEmpty(mSearchTerms)
+                && movesInCatalog(mSort, mFilter, findBook(book.id), book)) {
+            // Patching the row would leave it out of order, and the keys of the
+            // following pages would start after its old value
+            reloadPages();
+        } else {
+            mAdapter.patchBook(book);
+        }
+    }
+
+    /**
+     * Tell if a change of a book can be shown by patching its row.
+     *
+     * @param shown the book as the catalog shows it, null if it isn't on the loaded pages
+     * @return whether the changed book may have to move to another place in the catalog, or
+     * into or out of it, because the catalog is sorted or filtered by a value that changed
+     */
+    static boolean movesInCatalog(String sort, Bundle filter, Book shown, Book changed) {
+        boolean byPrice = BookContract.SORT_PRICE.equals(sort)
+                || filter.containsKey(BookContract.QUERY_PARAMETER_MIN_PRICE)
+                || filter.containsKey(BookContract.QUERY_PARAMETER_MAX_PRICE);
+        boolean byQuantity = BookContract.SORT_QUANTITY.equals(sort)
+                || filter.containsKey(BookContract.QUERY_PARAMETER_MIN_QUANTITY)
+                || filter.containsKey(BookContract.QUERY_PARAMETER_MAX_QUANTITY);
+        if (shown == null) {
+            // May move onto the loaded pages
+            return byPrice || byQuantity;
+        }
+        return (byPrice && shown.price != changed.price)
+                || (byQuantity && shown.quantity != changed.quantity);
+    }
+
+    /**
+     * @return the book with the given _ID on the loaded pages, or null
+     */
+    private Book findBook(long id) {
+        for (Page page : mPages) {
+            if (page.books == null) {
+                continue;
+            }
+            for (Book book : page.books) {
+                if (book.id == id) {
+                    return book;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Load every page again.
+     */
+    private void reloadPages() {
+        for (Page page : mPages) {
+            page.subscription.reload();
+        }
+    }
+
+    /**
+     * Start loading the page after the last one, unless a page is still loading or the last
+     * page wasn't full.
+     */
+    private void loadNextPage() {
+        Page lastPage = mPages.get(mPages.size() - 1);
+        if (lastPage.books == null) {
+            return;
+        }
+        Bundle args = pageArgsAfter(lastPage.books);
+        if (args != null) {
+            subscribePage(mPages.size(), args);
+        }
+    }
+
+    /**
+     * @return the key of the page following the given books, or null if the books don't fill
+     * a page, so there's nothing after them
+     */
+    private Bundle pageArgsAfter(List<Book> books) {
+        if (books.size() < PAGE_SIZE) {
+            return null;
+        }
+        Book book = books.get(books.size() - 1);
+        Bundle args = new Bundle();
+        args.putString(BookContract.QUERY_PARAMETER_AFTER_VALUE, sortValue(book));
+        args.putLong(BookContract.QUERY_PARAMETER_AFTER_ID, book.id);
+        if (book.searchRank != -1) {
+            args.putInt(BookContract.QUERY_PARAMETER_AFTER_RANK, book.searchRank);
+        }
+        return args;
+    }
+
+    /**
+     * @return the value of the book in the column the catalog is sorted by, which the page
+     * keys hold. Search results of the same rank are ordered by name.
+     */
+    private String sortValue(Book book) {
+        if (!TextUtils.isEmpty(mSearchTerms)) {
+            return book.name;
+        }
+        switch (mSort) {
+            case BookContract.SORT_PRICE:
+                return String.valueOf(book.price);
+            case BookContract.SORT_QUANTITY:
+                return String.valueOf(book.quantity);
+            case BookContract.SORT_SUPPLIER:
+                return book.supplierName;
+            default:
+                return book.name;
+        }
+    }
+
+    /**
+     * Forget the pages after the given one and stop their queries.
+     */
+    private void dropPagesAfter(int page) {
+        while (mPages.size() > page + 1) {
+            mPages.remove(mPages.size() - 1).subscription.unsubscribe();
+        }
+    }
+
+    /**
+     * Subscribe to the query of a page, which is added at the given position, after the other
+     * pages.
+     *
+     * @param args key of the book the page starts after, null for the first page
+     */
+    private void subscribePage(int position, Bundle args) {
+        final Page page = new Page(args);
+        mPages.add(position, page);
+        page.subscription = BookQueries.getInstance(this).subscribe(
+                pageQuery(mSearchTerms, mSort, mFilter, args),
+                new BookQueries.Observer() {
+                    @Override
+                    public void onBooksChanged(List<Book> books, DiffUtil.DiffResult diff) {
+                        onPageChanged(page, books, diff);
+                    }
+                });
+    }
+
+    /**
+     * @return the query of the first page of the catalog as it's shown when the app starts,
+     * unfiltered and sorted by name
+     */
+    static BookQuery firstPageQuery() {
+        return pageQuery(null, BookContract.SORT_NAME, new Bundle(), null);
+    }
+
+    /**
+     * @return the query of the page starting after the given key, among the search results if
+     * there are search terms
+     */
+    private static BookQuery pageQuery(String searchTerms, String sort, Bundle filter, Bundle args) {
+        // Use the full-text search URI while there is something in the search box,
+        // otherwise query the requested page of the catalog
+        Uri.Builder builder;
+        if (!TextUtils.isEmpty(searchTerms)) {
+            builder = BookEntry.SEARCH_URI.buildUpon()
+                    .appendQueryParameter(BookContract.QUERY_PARAMETER_SEARCH, searchTerms);
+        } else {
+            builder = BookEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(BookContract.QUERY_PARAMETER_SORT, sort);
+            for (String parameter : FILTER_PARAMETERS) {
+                if (filter.containsKey(parameter)) {
+                    builder.appendQueryParameter(parameter, String.valueOf(filter.getInt(parameter)));
+                }
+            }
+        }
+        builder.appendQueryParameter(BookContract.QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE));
+        if (args != null) {
+            builder.appendQueryParameter(BookContract.QUERY_PARAMETER_AFTER_VALUE,
+                    args.getString(BookContract.QUERY_PARAMETER_AFTER_VALUE));
+            builder.appendQueryParameter(BookContract.QUERY_PARAMETER_AFTER_ID,
+                    String.valueOf(args.getLong(BookContract.QUERY_PARAMETER_AFTER_ID)));
+            if (args.containsKey(BookContract.QUERY_PARAMETER_AFTER_RANK)) {
+                builder.appendQueryParameter(BookContract.QUERY_PARAMETER_AFTER_RANK,
+                        String.valueOf(args.getInt(BookContract.QUERY_PARAMETER_AFTER_RANK)));
+            }
+        }
+        return new BookQuery(builder.build(), CATALOG_PROJECTION);
+    }
+
+    /**
+     * Show the books of a page that has been loaded or has changed.
+     *
+     * @param diff from the previous books of the page, null if it's the first time
+     */
+    private void onPageChanged(final Page page, List<Book> books, DiffUtil.DiffResult diff) {
+        int index = mPages.indexOf(page);
+        if (page.narrowedTerms != null) {
+            if (books.size() >= PAGE_SIZE) {
+                // The results of the broader terms no longer fit a page, so the narrowed results
+                // may miss books that weren't loaded: search for the terms themselves
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mPages.indexOf(page) == 0) {
+                            reloadCatalog();
+                        }
+                    }
+                });
+            }
+            books = BookSearch.filter(books, page.narrowedTerms);
+            diff = null;
+        }
+        page.books = books;
+
+        // A changed page may now end with a different book, in which case the following
+        // pages have to start after that one instead
+        if (index + 1 < mPages.size()) {
+            Bundle nextArgs = pageArgsAfter(books);
+            if (nextArgs == null) {
+                dropPagesAfter(index);
+            } else if (!samePageKey(nextArgs, mPages.get(index + 1).args)) {
+                dropPagesAfter(index);
+                subscribePage(index + 1, nextArgs);
+            }
+        }
+        showPages(index, diff);
+        if (index == 0) {
+            StartupTrace.onCatalogShown(this, findViewById(R.id.list), books.size());
+        }
+    }
+
+    private static boolean samePageKey(Bundle first, Bundle second) {
+        return first.getLong(BookContract.QUERY_PARAMETER_AFTER_ID)
+                == second.getLong(BookContract.QUERY_PARAMETER_AFTER_ID)
+                && TextUtils.equals(first.getString(BookContract.QUERY_PARAMETER_AFTER_VALUE),
+                second.getString(BookContract.QUERY_PARAMETER_AFTER_VALUE))
+                && first.getInt(BookContract.QUERY_PARAMETER_AFTER_RANK, -1)
+                == second.getInt(BookContract.QUERY_PARAMETER_AFTER_RANK, -1);
+    }
+
+    /**
+     * Show the loaded pages, up to the first one that is still loading, as a single list.
+     * Only the rows that changed are redrawn when a single shown page has changed or pages
+     * have been added at the end.
+     *
+     * @param changedPage index of the page that has changed
+     * @param diff        from the previous books of that page, or null
+     */
+    private void showPages(int changedPage, DiffUtil.DiffResult diff) {
+        ArrayList<Book> books = new ArrayList<>();
+        int offset = 0;
+        int shownPageCount = 0;
+        for (Page page : mPages) {
+            if (page.books == null) {
+                break;
+            }
+            if (shownPageCount == changedPage) {
+                offset = books.size();
+            }
+            books.addAll(page.books);
+            shownPageCount++;
+        }
+        List<Book> shownBooks = Collections.unmodifiableList(books);
+        if (diff != null && changedPage < shownPageCount && shownPageCount == mShownPageCount) {
+            mAdapter.setBooks(shownBooks, diff, offset);
+        } else if (mShownPageCount >= 0 && changedPage == mShownPageCount
+                && shownPageCount > mShownPageCount) {
+            mAdapter.addBooks(shownBooks);
+        } else {
+            mAdapter.setBooks(shownBooks);
+        }
+        mShownPageCount = shownPageCount;
     }
 
     /**
@@ -105,7 +644,7 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         values.put(BookEntry.COLUMN_SUPPLIER_NAME, "HVG");
         values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "0036201111111");
 
-        getContentResolver().insert(BookEntry.CONTENT_URI, values);
+        BookWriter.getInstance(this).insert(BookEntry.CONTENT_URI, values, null);
     }
 
     @Override
@@ -113,9 +652,157 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Search the books by title or supplier as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query, true);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText, false);
+                return true;
+            }
+        });
+
+        menu.findItem(sortMenuItemId(mSort)).setChecked(true);
         return true;
     }
 
+    private static int sortMenuItemId(String sort) {
+        switch (sort) {
+            case BookContract.SORT_PRICE:
+                return R.id.sort_price;
+            case BookContract.SORT_QUANTITY:
+                return R.id.sort_quantity;
+            case BookContract.SORT_SUPPLIER:
+                return R.id.sort_supplier;
+            default:
+                return R.id.sort_name;
+        }
+    }
+
+    private static String sortOfMenuItem(int itemId) {
+        switch (itemId) {
+            case R.id.sort_price:
+                return BookContract.SORT_PRICE;
+            case R.id.sort_quantity:
+                return BookContract.SORT_QUANTITY;
+            case R.id.sort_supplier:
+                return BookContract.SORT_SUPPLIER;
+            default:
+                return BookContract.SORT_NAME;
+        }
+    }
+
+    /**
+     * Reload the catalog in the given order. The books already shown stay on screen until the
+     * first page in the new order arrives, which the provider reads through the index of the
+     * sort column, so the switch takes the same time however many books there are.
+     */
+    private void sort(String sort) {
+        if (sort.equals(mSort)) {
+            return;
+        }
+        mSort = sort;
+        reloadCatalog();
+    }
+
+    /**
+     * Show a dialog to edit the price and stock ranges the catalog is filtered by.
+     */
+    private void showFilterDialog() {
+        final View view = getLayoutInflater().inflate(R.layout.dialog_filter, null);
+        for (int i = 0; i < FILTER_PARAMETERS.length; i++) {
+            if (mFilter.containsKey(FILTER_PARAMETERS[i])) {
+                ((EditText) view.findViewById(FILTER_FIELDS[i]))
+                        .setText(String.valueOf(mFilter.getInt(FILTER_PARAMETERS[i])));
+            }
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_filter)
+                .setView(view)
+                .setPositiveButton(R.string.filter_apply, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Bundle filter = new Bundle();
+                        for (int i = 0; i < FILTER_PARAMETERS.length; i++) {
+                            String text = ((EditText) view.findViewById(FILTER_FIELDS[i])).getText()
+                                    .toString().trim();
+                            try {
+                                filter.putInt(FILTER_PARAMETERS[i], Integer.parseInt(text));
+                            } catch (NumberFormatException e) {
+                                // Empty or too long, no bound
+                            }
+                        }
+                        filter(filter);
+                    }
+                })
+                .setNeutralButton(R.string.filter_clear, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        filter(new Bundle());
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Reload the catalog with the given range filters.
+     */
+    private void filter(Bundle filter) {
+        mFilter = filter;
+        reloadCatalog();
+    }
+
+    /**
+     * Load the catalog again from its first page, after its search terms, order or filters
+     * changed.
+     */
+    private void reloadCatalog() {
+        dropPagesAfter(-1);
+        mShownPageCount = -1;
+        subscribePage(0, null);
+    }
+
+    /**
+     * Show the books matching the given search terms. Terms narrowing down the ones of the shown
+     * search results filter those right away, if all of them fit the first page. Other terms
+     * are searched for once no more have been typed for {@link #SEARCH_DELAY_MILLIS}, unless
+     * asked to search immediately; the search they replace is canceled by releasing its query.
+     */
+    private void search(String searchTerms, boolean immediately) {
+        mHandler.removeCallbacks(mSearchRunnable);
+        if (TextUtils.equals(searchTerms, mSearchTerms)) {
+            return;
+        }
+        Page page = mPages.get(0);
+        // The books of a search are only all loaded if they don't fill the first page; the
+        // results of narrowed terms are never more than those
+        if (page.books != null && page.books.size() < PAGE_SIZE
+                && BookSearch.narrows(mSearchTerms, searchTerms)) {
+            // The live query of the broader terms keeps the results up to date
+            mSearchTerms = searchTerms;
+            page.narrowedTerms = searchTerms;
+            page.books = BookSearch.filter(page.books, searchTerms);
+            showPages(0, null);
+            return;
+        }
+        mPendingSearchTerms = searchTerms;
+        if (immediately) {
+            mSearchRunnable.run();
+        } else {
+            mHandler.postDelayed(mSearchRunnable, SEARCH_DELAY_MILLIS);
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -128,6 +815,16 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             case R.id.action_delete_all_entries:
                 deleteAllBooks();
                 return true;
+            case R.id.sort_name:
+            case R.id.sort_price:
+            case R.id.sort_quantity:
+            case R.id.sort_supplier:
+                item.setChecked(true);
+                sort(sortOfMenuItem(item.getItemId()));
+                return true;
+            case R.id.action_filter:
+                showFilterDialog();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -136,32 +833,6 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
      * Helper method to delete all books in the database.
      */
     private void deleteAllBooks() {
-        getContentResolver().delete(BookEntry.CONTENT_URI, null, null);
-    }
-
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        String[] projection = {
-                BookEntry._ID,
-                BookEntry.COLUMN_NAME,
-                BookEntry.COLUMN_PRICE,
-                BookEntry.COLUMN_QUANTITY};
-
-        return new CursorLoader(this,
-                BookEntry.CONTENT_URI,
-                projection,
-                null,
-                null,
-                null);
-    }
-
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        mCursorAdapter.swapCursor(cursor);
-    }
-
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mCursorAdapter.swapCursor(null);
+        BookWriter.getInstance(this).delete(BookEntry.CONTENT_URI, null);
     }
 }
@@ -16,17 +16,15 @@
 package hu.lehocz.bookstore;
 
 import android.app.AlertDialog;
-import android.app.LoaderManager;
-import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.ContentUris;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.util.DiffUtil;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -35,24 +33,41 @@ import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.util.List;
+
+import hu.lehocz.bookstore.data.Book;
 import hu.lehocz.bookstore.data.BookContract;
+import hu.lehocz.bookstore.data.BookQueries;
+import hu.lehocz.bookstore.data.BookQuery;
+import hu.lehocz.bookstore.data.BookWriter;
 
 /**
  * Allows user to create a new book or edit an existing one.
  */
 public class DetailsActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+        BookQueries.Observer {
 
     /**
-     * Identifier for the book data loader
+     * Since the screen shows all book attributes, the projection contains all columns of a book
      */
-    private static final int EXISTING_BOOK_LOADER = 0;
+    private static final String[] BOOK_PROJECTION = {
+            BookContract.BookEntry._ID,
+            BookContract.BookEntry.COLUMN_NAME,
+            BookContract.BookEntry.COLUMN_PRICE,
+            BookContract.BookEntry.COLUMN_QUANTITY,
+            BookContract.BookEntry.COLUMN_SUPPLIER_NAME,
+            BookContract.BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
 
     /**
      * Content URI for the existing book (null if it's a new book)
      */
     private Uri mCurrentBookUri;
 
+    /**
+     * Live query of the existing book, null for a new book
+     */
+    private BookQueries.Subscription mBookSubscription;
+
     /**
      * TextView for the book name
      */
@@ -107,9 +122,10 @@ public class DetailsActivity extends AppCompatActivity implements
             // Otherwise this is an existing book, so change app bar to say "Edit Pet"
             setTitle(getString(R.string.details_activity_book_details));
 
-            // Initialize a loader to read the book data from the database
-            // and display the current values in the editor
-            getLoaderManager().initLoader(EXISTING_BOOK_LOADER, null, this);
+            // Subscribe to the book, to read its data from the database in the background
+            // and display the current values whenever they change
+            mBookSubscription = BookQueries.getInstance(this).subscribe(
+                    new BookQuery(mCurrentBookUri, BOOK_PROJECTION), this);
         }
 
         // Find all relevant views that we will need to read user input from
@@ -220,69 +236,29 @@ public class DetailsActivity extends AppCompatActivity implements
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Since the editor shows all book attributes, define a projection that contains
-        // all columns from the book table
-        String[] projection = {
-                BookContract.BookEntry._ID,
-                BookContract.BookEntry.COLUMN_NAME,
-                BookContract.BookEntry.COLUMN_PRICE,
-                BookContract.BookEntry.COLUMN_QUANTITY,
-                BookContract.BookEntry.COLUMN_SUPPLIER_NAME,
-                BookContract.BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                mCurrentBookUri,         // Query the content URI for the current book
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+    protected void onDestroy() {
+        if (mBookSubscription != null) {
+            mBookSubscription.unsubscribe();
+        }
+        super.onDestroy();
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        // Bail early if the cursor is null or there is less than 1 row in the cursor
-        if (cursor == null || cursor.getCount() < 1) {
+    public void onBooksChanged(List<Book> books, DiffUtil.DiffResult diff) {
+        // Bail early if the book doesn't exist (anymore)
+        if (books.isEmpty()) {
             return;
         }
 
-        // Proceed with moving to the first row of the cursor and reading data from it
-        // (This should be the only row in the cursor)
-        if (cursor.moveToFirst()) {
-            // Find the columns of book attributes that we're interested in
-            int nameColumnIndex = cursor.getColumnIndex(BookContract.BookEntry.COLUMN_NAME);
-            int priceColumnIndex = cursor.getColumnIndex(BookContract.BookEntry.COLUMN_PRICE);
-            int quantityColumnIndex = cursor.getColumnIndex(BookContract.BookEntry.COLUMN_QUANTITY);
-            int supplierNameColumnIndex = cursor.getColumnIndex(BookContract.BookEntry.COLUMN_SUPPLIER_NAME);
-            int supplierPhoneNumberColumnIndex = cursor.getColumnIndex(BookContract.BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
-
-            // Extract out the value from the Cursor for the given column index
-            String name = cursor.getString(nameColumnIndex);
-            int price = cursor.getInt(priceColumnIndex);
-            int quantity = cursor.getInt(quantityColumnIndex);
-            String supplierName = cursor.getString(supplierNameColumnIndex);
-            String supplierPhoneNumber = cursor.getString(supplierPhoneNumberColumnIndex);
-
-            // Update the views on the screen with the values from the database
-            mName.setText(name);
-            mPrice.setText(Integer.toString(price));
-            mQuantity.setText(Integer.toString(quantity));
-            mSupplierName.setText(supplierName);
-            mSupplierPhoneNumber.setText(supplierPhoneNumber);
-            mModifyQuantity.setText(R.string.modify_quantity_default);
-        }
-    }
-
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // If the loader is invalidated, clear out all the data from the input fields.
-        mName.setText("");
-        mPrice.setText("");
-        mQuantity.setText("");
-        mSupplierName.setText("");
-        mSupplierPhoneNumber.setText("");
-
+        // Update the views on the screen with the values from the database
+        // (This should be the only book of the query)
+        Book book = books.get(0);
+        mName.setText(book.name);
+        mPrice.setText(Integer.toString(book.price));
+        mQuantity.setText(Integer.toString(book.quantity));
+        mSupplierName.setText(book.supplierName);
+        mSupplierPhoneNumber.setText(book.supplierPhoneNumber);
+        mModifyQuantity.setText(R.string.modify_quantity_default);
     }
 
 
@@ -321,21 +297,30 @@ public class DetailsActivity extends AppCompatActivity implements
     private void deleteBook() {
         // Only perform the delete if this is an existing book.
         if (mCurrentBookUri != null) {
-            // Call the ContentResolver to delete the book at the given content URI.
-            // Pass in null for the selection and selection args because the mCurrentBookUri
-            // content URI already identifies the book that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentBookUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_book_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_book_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Ask the writer to delete the book at the given content URI in the background.
+            // The mCurrentBookUri content URI already identifies the book that we want.
+            final Context context = getApplicationContext();
+            BookWriter.getInstance(this).delete(mCurrentBookUri, new BookWriter.Callback<Integer>() {
+                @Override
+                public void onSuccess(Integer rowsDeleted) {
+                    // Show a toast message depending on whether or not the delete was successful.
+                    if (rowsDeleted == 0) {
+                        // If no rows were deleted, then there was an error with the delete.
+                        Toast.makeText(context, R.string.editor_delete_book_failed,
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the delete was successful and we can display a toast.
+                        Toast.makeText(context, R.string.editor_delete_book_successful,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    Toast.makeText(context, R.string.editor_delete_book_failed,
+                            Toast.LENGTH_SHORT).show();
+                }
+            });
         }
 
         // Close the activity
@@ -349,12 +334,8 @@ public class DetailsActivity extends AppCompatActivity implements
 
     private void increaseQuantity(boolean isIncrease) {
         if (mCurrentBookUri != null) {
-            int quantity;
             int modifyQuantity;
 
-            TextView mQuantityText = findViewById(R.id.quantity);
-            String quantityString = mQuantityText.getText().toString().trim();
-
             /*
              * The student may also add input for how much
              * to increase or decrease the quantity by if not using the default of 1.
@@ -370,36 +351,38 @@ public class DetailsActivity extends AppCompatActivity implements
                 Toast.makeText(this, toastText, Toast.LENGTH_SHORT).show();
             }else {
 
-                quantity = Integer.parseInt(quantityString);
                 modifyQuantity = Integer.parseInt((modifyQuantityString));
-                if (isIncrease) {
-                    quantity += modifyQuantity;
-                } else {
-                    quantity += -modifyQuantity;
-                }
-
 
                 /*
-                 * Add a check in the code to ensure that
-                 * no negative quantities display (zero is the lowest amount).
+                 * The provider adds the delta to the stored quantity in a single statement
+                 * and refuses the change if it would make the quantity negative
+                 * (zero is the lowest amount).
                  */
 
-                if (quantity > -1) {
-                    ContentValues values = new ContentValues();
-                    values.put(BookContract.BookEntry.COLUMN_QUANTITY, quantity);
-                    int rowsUpdated = getContentResolver().update(mCurrentBookUri, values, null, null);
-                    if (rowsUpdated > 0 && modifyQuantity > 0) {
-                        if (isIncrease) {
-                            toastText = getString(R.string.quantity_successfully_increased);
-                        } else {
-                            toastText = getString(R.string.quantity_successfully_decreased);
-                        }
-                        Toast.makeText(this, toastText, Toast.LENGTH_SHORT).show();
-                    }
-                } else {
-                    toastText = getString(R.string.quantity_can_not_be_negative);
-                    Toast.makeText(this, toastText, Toast.LENGTH_SHORT).show();
-                }
+                final Context context = getApplicationContext();
+                final boolean isChanged = modifyQuantity > 0;
+                final int successMessage = isIncrease ? R.string.quantity_successfully_increased
+                        : R.string.quantity_successfully_decreased;
+                BookWriter.getInstance(this).adjustQuantity(ContentUris.parseId(mCurrentBookUri),
+                        isIncrease ? modifyQuantity : -modifyQuantity, new BookWriter.Callback<Integer>() {
+                            @Override
+                            public void onSuccess(Integer quantity) {
+                                if (quantity > -1) {
+                                    if (isChanged) {
+                                        Toast.makeText(context, successMessage, Toast.LENGTH_SHORT).show();
+                                    }
+                                } else {
+                                    Toast.makeText(context, R.string.quantity_can_not_be_negative,
+                                            Toast.LENGTH_SHORT).show();
+                                }
+                            }
+
+                            @Override
+                            public void onFailure(Exception e) {
+                                Toast.makeText(context, R.string.editor_update_book_failed,
+                                        Toast.LENGTH_SHORT).show();
+                            }
+                        });
             }
         }
     }
@@ -16,17 +16,14 @@
 package hu.lehocz.bookstore;
 
 import android.app.AlertDialog;
-import android.app.LoaderManager;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.util.DiffUtil;
 import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -35,24 +32,59 @@ import android.view.View;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import java.util.List;
+
+import hu.lehocz.bookstore.data.Book;
 import hu.lehocz.bookstore.data.BookContract;
+import hu.lehocz.bookstore.data.BookQueries;
+import hu.lehocz.bookstore.data.BookQuery;
+import hu.lehocz.bookstore.data.BookWriter;
 
 /**
  * Allows user to create a new book or edit an existing one.
  */
 public class EditorActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+        BookQueries.Observer {
 
     /**
-     * Identifier for the book data loader
+     * Since the screen shows all book attributes, the projection contains all columns of a book
      */
-    private static final int EXISTING_BOOK_LOADER = 0;
+    private static final String[] BOOK_PROJECTION = {
+            BookContract.BookEntry._ID,
+            BookContract.BookEntry.COLUMN_NAME,
+            BookContract.BookEntry.COLUMN_PRICE,
+            BookContract.BookEntry.COLUMN_QUANTITY,
+            BookContract.BookEntry.COLUMN_SUPPLIER_NAME,
+            BookContract.BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+            BookContract.BookEntry.COLUMN_VERSION};
 
     /**
      * Content URI for the existing book (null if it's a new book)
      */
     private Uri mCurrentBookUri;
 
+    /**
+     * Live query of the existing book, null for a new book
+     */
+    private BookQueries.Subscription mBookSubscription;
+
+    /**
+     * The values of the existing book the edits are based on, whose version is sent with the
+     * update, so it fails rather than overwriting changes made meanwhile, like a sale
+     */
+    private Book mBaseBook;
+
+    /**
+     * The current values of the existing book, null if it doesn't exist (anymore)
+     */
+    private Book mLatestBook;
+
+    /**
+     * Set when an update failed because the book had been changed, until the changes have been
+     * merged into the editor
+     */
+    private boolean mHasConflict = false;
+
     /**
      * EditText field to enter the book name
      */
@@ -118,9 +150,10 @@ public class EditorActivity extends AppCompatActivity implements
             // Otherwise this is an existing book, so change app bar to say "Edit Pet"
             setTitle(getString(R.string.editor_activity_title_edit_book));
 
-            // Initialize a loader to read the book data from the database
-            // and display the current values in the editor
-            getLoaderManager().initLoader(EXISTING_BOOK_LOADER, null, this);
+            // Subscribe to the book, to read its data from the database in the background
+            // and display the current values whenever they change
+            mBookSubscription = BookQueries.getInstance(this).subscribe(
+                    new BookQuery(mCurrentBookUri, BOOK_PROJECTION), this);
         }
 
         // Find all relevant views that we will need to read user input from
@@ -143,6 +176,8 @@ public class EditorActivity extends AppCompatActivity implements
 
     /**
      * Get user input from editor and save book into database.
+     *
+     * @return false if the input is invalid, in which case nothing is saved
      */
     private boolean saveBook() {
 
@@ -229,45 +264,115 @@ public class EditorActivity extends AppCompatActivity implements
             values.put(BookContract.BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, supplierPhoneNumber);
 
 
-            // Determine if this is a new or existing book by checking if mCurrentBookUri is null or not
+            // Determine if this is a new or existing book by checking if mCurrentBookUri is null or not.
+            // The book is written in the background and the editor is closed once it is saved.
             if (mCurrentBookUri == null) {
                 // This is a NEW book, so insert a new book into the provider,
                 // returning the content URI for the new book.
-                Uri newUri = getContentResolver().insert(BookContract.BookEntry.CONTENT_URI, values);
+                BookWriter.getInstance(this).insert(BookContract.BookEntry.CONTENT_URI, values,
+                        new BookWriter.Callback<Uri>() {
+                            @Override
+                            public void onSuccess(Uri newUri) {
+                                // Show a toast message depending on whether or not the insertion was successful.
+                                // If the new content URI is null, then there was an error with insertion.
+                                onBookSaved(newUri != null, R.string.editor_insert_book_successful,
+                                        R.string.editor_insert_book_failed);
+                            }
 
-                // Show a toast message depending on whether or not the insertion was successful.
-                if (newUri == null) {
-                    // If the new content URI is null, then there was an error with insertion.
-                    toastText = getString(R.string.editor_insert_book_failed);
-                    isSaveSuccessful = false;
-                } else {
-                    // Otherwise, the insertion was successful and we can display a toast.
-                    toastText = getString(R.string.editor_insert_book_successful);
-                    isSaveSuccessful = true;
-                }
+                            @Override
+                            public void onFailure(Exception e) {
+                                onBookSaved(false, R.string.editor_insert_book_successful,
+                                        R.string.editor_insert_book_failed);
+                            }
+                        });
             } else {
                 // Otherwise this is an EXISTING book, so update the book with content URI: mCurrentBookUri
-                // and pass in the new ContentValues. Pass in null for the selection and selection args
-                // because mCurrentBookUri will already identify the correct row in the database that
-                // we want to modify.
-                int rowsAffected = getContentResolver().update(mCurrentBookUri, values, null, null);
-
-                // toast message depending on whether or not the update was successful.
-                if (rowsAffected == 0) {
-                    // If no rows were affected, then there was an error with the update.
-                    toastText = getString(R.string.editor_update_book_failed);
-                    isSaveSuccessful = false;
-                } else {
-                    // Otherwise, the update was successful.
-                    toastText = getString(R.string.editor_update_book_successful);
-                    isSaveSuccessful = true;
+                // and pass in the new ContentValues. mCurrentBookUri already identifies the correct
+                // row in the database that we want to modify, as long as it still has the version
+                // the edits are based on.
+                if (mBaseBook != null) {
+                    values.put(BookContract.BookEntry.COLUMN_VERSION, mBaseBook.version);
                 }
+                BookWriter.getInstance(this).update(mCurrentBookUri, values,
+                        new BookWriter.Callback<Integer>() {
+                            @Override
+                            public void onSuccess(Integer rowsAffected) {
+                                // If no rows were affected, then the book has been changed or
+                                // deleted since the editor read it.
+                                if (rowsAffected == 0 && mLatestBook != null) {
+                                    onConflict();
+                                    return;
+                                }
+                                onBookSaved(rowsAffected > 0, R.string.editor_update_book_successful,
+                                        R.string.editor_update_book_failed);
+                            }
+
+                            @Override
+                            public void onFailure(Exception e) {
+                                onBookSaved(false, R.string.editor_update_book_successful,
+                                        R.string.editor_update_book_failed);
+                            }
+                        });
             }
+        } else {
+            Toast.makeText(this, toastText, Toast.LENGTH_SHORT).show();
         }
-        Toast.makeText(this, toastText, Toast.LENGTH_SHORT).show();
         return isSaveSuccessful;
     }
 
+    /**
+     * Called on the UI thread once the book has been written. Shows the outcome and closes the
+     * editor if the book has been saved.
+     */
+    private void onBookSaved(boolean isSaveSuccessful, int successMessage, int failureMessage) {
+        Toast.makeText(getApplicationContext(), isSaveSuccessful ? successMessage : failureMessage,
+                Toast.LENGTH_SHORT).show();
+        if (isSaveSuccessful) {
+            // Exit activity
+            finish();
+        }
+    }
+
+    /**
+     * Called on the UI thread when the update failed because the book had been changed since
+     * the editor read it. The edits are kept and the changes merged into them, so the user can
+     * check the result and save again.
+     */
+    private void onConflict() {
+        mHasConflict = true;
+        mergeLatestBook();
+        Toast.makeText(this, R.string.editor_update_book_conflict, Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Once the editor has got the book as changed, take the new value of every field the user
+     * hasn't edited, and base the edits on the new version.
+     */
+    private void mergeLatestBook() {
+        if (!mHasConflict || mLatestBook == null || mLatestBook.version == mBaseBook.version) {
+            return;
+        }
+        merge(mNameEditText, mBaseBook.name, mLatestBook.name);
+        merge(mPriceEditText, Integer.toString(mBaseBook.price),
+                Integer.toString(mLatestBook.price));
+        merge(mQuantityEditText, Integer.toString(mBaseBook.quantity),
+                Integer.toString(mLatestBook.quantity));
+        merge(mSupplierNameEditText, mBaseBook.supplierName, mLatestBook.supplierName);
+        merge(mSupplierPhoneNumberEditText, mBaseBook.supplierPhoneNumber,
+                mLatestBook.supplierPhoneNumber);
+        mBaseBook = mLatestBook;
+        mHasConflict = false;
+    }
+
+    /**
+     * Set the field to the latest value if it still holds the value the edits are based on.
+     */
+    private static void merge(EditText field, String baseValue, String latestValue) {
+        if (TextUtils.equals(field.getText().toString().trim(), baseValue)) {
+            field.setText(latestValue);
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_editor.xml file.
@@ -295,11 +400,8 @@ public class EditorActivity extends AppCompatActivity implements
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                // Save book to database
-                if (saveBook()) {
-                    // Exit activity
-                    finish();
-                }
+                // Save book to database, the activity is closed once it has been saved
+                saveBook();
                 return true;
             case android.R.id.home:
                 // If the book hasn't changed, continue with navigating up to parent activity
@@ -355,67 +457,37 @@ public class EditorActivity extends AppCompatActivity implements
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Since the editor shows all book attributes, define a projection that contains
-        // all columns from the book table
-        String[] projection = {
-                BookContract.BookEntry._ID,
-                BookContract.BookEntry.COLUMN_NAME,
-                BookContract.BookEntry.COLUMN_PRICE,
-                BookContract.BookEntry.COLUMN_QUANTITY,
-                BookContract.BookEntry.COLUMN_SUPPLIER_NAME,
-                BookContract.BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                mCurrentBookUri,         // Query the content URI for the current book
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+    protected void onDestroy() {
+        if (mBookSubscription != null) {
+            mBookSubscription.unsubscribe();
+        }
+        super.onDestroy();
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        // Bail early if the cursor is null or there is less than 1 row in the cursor
-        if (cursor == null || cursor.getCount() < 1) {
+    public void onBooksChanged(List<Book> books, DiffUtil.DiffResult diff) {
+        // Bail early if the book doesn't exist (anymore)
+        if (books.isEmpty()) {
+            mLatestBook = null;
             return;
         }
 
-        // Proceed with moving to the first row of the cursor and reading data from it
-        // (This should be the only row in the cursor)
-        if (cursor.moveToFirst()) {
-            // Find the columns of book attributes that we're interested in
-            int nameColumnIndex = cursor.getColumnIndex(BookContract.BookEntry.COLUMN_NAME);
-            int priceColumnIndex = cursor.getColumnIndex(BookContract.BookEntry.COLUMN_PRICE);
-            int quantityColumnIndex = cursor.getColumnIndex(BookContract.BookEntry.COLUMN_QUANTITY);
-            int supplierNameColumnIndex = cursor.getColumnIndex(BookContract.BookEntry.COLUMN_SUPPLIER_NAME);
-            int supplierPhoneNumberColumnIndex = cursor.getColumnIndex(BookContract.BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
-
-            // Extract out the value from the Cursor for the given column index
-            String name = cursor.getString(nameColumnIndex);
-            int price = cursor.getInt(priceColumnIndex);
-            int quantity = cursor.getInt(quantityColumnIndex);
-            String supplierName = cursor.getString(supplierNameColumnIndex);
-            String supplierPhoneNumber = cursor.getString(supplierPhoneNumberColumnIndex);
-
-            // Update the views on the screen with the values from the database
-            mNameEditText.setText(name);
-            mPriceEditText.setText(Integer.toString(price));
-            mQuantityEditText.setText(Integer.toString(quantity));
-            mSupplierNameEditText.setText(supplierName);
-            mSupplierPhoneNumberEditText.setText(supplierPhoneNumber);
+        // This should be the only book of the query
+        mLatestBook = books.get(0);
+        if (mBaseBook != null && mBookHasChanged) {
+            // Keep the edits, the update tells if the book has been changed meanwhile
+            mergeLatestBook();
+            return;
         }
-    }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // If the loader is invalidated, clear out all the data from the input fields.
-        mNameEditText.setText("");
-        mPriceEditText.setText("");
-        mQuantityEditText.setText("");
-        mSupplierNameEditText.setText("");
-        mSupplierPhoneNumberEditText.setText("");
+        // Update the views on the screen with the values from the database
+        Book book = mLatestBook;
+        mBaseBook = book;
+        mNameEditText.setText(book.name);
+        mPriceEditText.setText(Integer.toString(book.price));
+        mQuantityEditText.setText(Integer.toString(book.quantity));
+        mSupplierNameEditText.setText(book.supplierName);
+        mSupplierPhoneNumberEditText.setText(book.supplierPhoneNumber);
     }
 
     /**
@@ -0,0 +1,193 @@
+package hu.lehocz.bookstore;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LongSparseArray;
+import android.widget.Toast;
+
+import hu.lehocz.bookstore.data.BookWriter;
+
+/**
+ * Collects the sales of the catalog's sale buttons and writes them behind. A tap is shown at
+ * once through an overlay of quantity deltas per book, while the taps of a book within
+ * {@link #FLUSH_DELAY_MS} are summed, and the sums of every book are written together as a
+ * single adjustment of their quantities.
+ * <p>
+ * A flushed delta stays in the overlay until its write reports the new quantity, which then
+ * replaces the overlay. If the write fails or is refused because the quantity would become
+ * negative, the delta is dropped from the overlay, which rolls the shown quantity back, and the
+ * user is told why.
+ * Used on the UI thread only.
+ */
+class SaleCoalescer {
+
+    /**
+     * How long taps are collected before they're written
+     */
+    static final long FLUSH_DELAY_MS = 400;
+
+    /**
+     * Receives the changes of the overlay.
+     */
+    interface Listener {
+
+        /**
+         * The quantity to show for the book changed.
+         */
+        void onOverlayChanged(long id);
+
+        /**
+         * A sale of the book has been written, and the book now has quantity copies.
+         */
+        void onSaleCommitted(long id, int quantity);
+    }
+
+    private final Context mContext;
+
+    /**
+     * Null once released
+     */
+    private Listener mListener;
+
+    private final BookWriter mWriter;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Deltas of the taps not written yet, by book ID
+     */
+    private final LongSparseArray<Integer> mPending = new LongSparseArray<>();
+
+    /**
+     * Deltas being written, by book ID
+     */
+    private final LongSparseArray<Integer> mInFlight = new LongSparseArray<>();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    SaleCoalescer(Context context, Listener listener) {
+        this(context, listener, BookWriter.getInstance(context));
+    }
+
+    /**
+     * Constructs a coalescer writing the sales with the given writer.
+     */
+    SaleCoalescer(Context context, Listener listener, BookWriter writer) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+        mWriter = writer;
+    }
+
+    /**
+     * Sell a copy of the given book, unless no copies are shown for it anymore.
+     *
+     * @param shownQuantity the quantity shown for the book, overlay included
+     * @return true if the sale has been taken
+     */
+    boolean sell(long id, int shownQuantity) {
+        if (shownQuantity <= 0) {
+            return false;
+        }
+        if (mPending.size() == 0) {
+            mHandler.postDelayed(mFlush, FLUSH_DELAY_MS);
+        }
+        add(mPending, id, -1);
+        onOverlayChanged(id);
+        return true;
+    }
+
+    /**
+     * @return the delta to add to the stored quantity of the book to show its sales
+     */
+    int getDelta(long id) {
+        return get(mPending, id) + get(mInFlight, id);
+    }
+
+    /**
+     * Write the collected taps now, for instance when the catalog is left.
+     */
+    void flush() {
+        mHandler.removeCallbacks(mFlush);
+        if (mPending.size() == 0) {
+            return;
+        }
+        final long[] ids = new long[mPending.size()];
+        final int[] deltas = new int[mPending.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = mPending.keyAt(i);
+            deltas[i] = mPending.valueAt(i);
+            add(mInFlight, ids[i], deltas[i]);
+        }
+        mPending.clear();
+        // The sales of every book are committed in a single transaction
+        mWriter.adjustQuantities(ids, deltas, new BookWriter.Callback<int[]>() {
+            @Override
+            public void onSuccess(int[] quantities) {
+                boolean refused = false;
+                for (int i = 0; i < ids.length; i++) {
+                    add(mInFlight, ids[i], -deltas[i]);
+                    if (quantities[i] == -1) {
+                        // Refused, other sales got to the last copies first
+                        refused = true;
+                        onOverlayChanged(ids[i]);
+                    } else if (mListener != null) {
+                        mListener.onSaleCommitted(ids[i], quantities[i]);
+                    }
+                }
+                if (refused) {
+                    showMessage(R.string.quantity_can_not_be_negative);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                for (int i = 0; i < ids.length; i++) {
+                    add(mInFlight, ids[i], -deltas[i]);
+                    onOverlayChanged(ids[i]);
+                }
+                showMessage(R.string.sale_failed);
+            }
+        });
+    }
+
+    /**
+     * Write the collected taps now and stop reporting to the listener, whose list is going
+     * away. The sales still being written are committed, but only their failures are shown.
+     */
+    void release() {
+        flush();
+        mListener = null;
+    }
+
+    /**
+     * Roll the shown quantity of the book back, if the listener still shows it.
+     */
+    private void onOverlayChanged(long id) {
+        if (mListener != null) {
+            mListener.onOverlayChanged(id);
+        }
+    }
+
+    private void showMessage(int messageId) {
+        Toast.makeText(mContext, messageId, Toast.LENGTH_SHORT).show();
+    }
+
+    private static int get(LongSparseArray<Integer> deltas, long id) {
+        return deltas.get(id, 0);
+    }
+
+    private static void add(LongSparseArray<Integer> deltas, long id, int delta) {
+        int sum = get(deltas, id) + delta;
+        if (sum == 0) {
+            deltas.remove(id);
+        } else {
+            deltas.put(id, sum);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package hu.lehocz.bookstore;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Measures the cold start of the app, from the start of the process to the first frame showing
+ * the first page of the catalog. The time is logged once per process, as
+ * "first_catalog_page_ms=... rows=...", which the coldStartBenchmark Gradle task reads, and
+ * the catalog is reported fully drawn, so the system logs the "Fully drawn" time as well.
+ */
+final class StartupTrace {
+
+    static final String LOG_TAG = "StartupTrace";
+
+    /**
+     * Elapsed realtime of the start of the process, 0 until known
+     */
+    private static long sProcessStartMillis;
+
+    private static boolean sCatalogShown;
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Called as early as the app gets to run code. From Nougat the system tells when the
+     * process was forked, which also covers the time spent before the app was loaded.
+     */
+    static void onProcessStart() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            sProcessStartMillis = Process.getStartElapsedRealtime();
+        } else {
+            sProcessStartMillis = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Called when the catalog has its first page of books to show. The first time in the
+     * process, waits for the frame drawing them to report the time since the process started.
+     */
+    static void onCatalogShown(final Activity activity, final View list, final int rowCount) {
+        if (sCatalogShown) {
+            return;
+        }
+        sCatalogShown = true;
+        list.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                list.getViewTreeObserver().removeOnPreDrawListener(this);
+                if (sProcessStartMillis != 0) {
+                    Log.i(LOG_TAG, "first_catalog_page_ms="
+                            + (SystemClock.elapsedRealtime() - sProcessStartMillis)
+                            + " rows=" + rowCount);
+                }
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    activity.reportFullyDrawn();
+                }
+                return true;
+            }
+        });
+    }
+}
@@ -0,0 +1,97 @@
+package hu.lehocz.bookstore.data;
+
+import android.text.TextUtils;
+
+/**
+ * Immutable values of a book, as read by {@link BookCursor#getBook()}. Columns that weren't in
+ * the projection of the query are null, or -1 for the numbers.
+ */
+public final class Book {
+
+    public final long id;
+    public final String name;
+    public final int price;
+    public final int quantity;
+    public final long supplierId;
+    public final String supplierName;
+    public final String supplierPhoneNumber;
+
+    /**
+     * The {@link BookContract.BookEntry#COLUMN_VERSION} of the row the values were read from
+     */
+    public final long version;
+
+    /**
+     * The {@link BookContract.BookEntry#COLUMN_SEARCH_RANK} of a search result, -1 for a book
+     * that wasn't read from the search URI
+     */
+    public final int searchRank;
+
+    /**
+     * Constructs a book without a version, as if the column wasn't in the projection.
+     */
+    public Book(long id, String name, int price, int quantity, long supplierId,
+                String supplierName, String supplierPhoneNumber) {
+        this(id, name, price, quantity, supplierId, supplierName, supplierPhoneNumber, -1);
+    }
+
+    /**
+     * Constructs a book that isn't a search result.
+     */
+    public Book(long id, String name, int price, int quantity, long supplierId,
+                String supplierName, String supplierPhoneNumber, long version) {
+        this(id, name, price, quantity, supplierId, supplierName, supplierPhoneNumber, version, -1);
+    }
+
+    public Book(long id, String name, int price, int quantity, long supplierId,
+                String supplierName, String supplierPhoneNumber, long version, int searchRank) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.quantity = quantity;
+        this.supplierId = supplierId;
+        this.supplierName = supplierName;
+        this.supplierPhoneNumber = supplierPhoneNumber;
+        this.version = version;
+        this.searchRank = searchRank;
+    }
+
+    /**
+     * @return a copy of this book with the given quantity
+     */
+    public Book withQuantity(int quantity) {
+        return new Book(id, name, price, quantity, supplierId, supplierName, supplierPhoneNumber,
+                version, searchRank);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Book)) {
+            return false;
+        }
+        Book book = (Book) o;
+        return id == book.id
+                && price == book.price
+                && quantity == book.quantity
+                && supplierId == book.supplierId
+                && version == book.version
+                && searchRank == book.searchRank
+                && TextUtils.equals(name, book.name)
+                && TextUtils.equals(supplierName, book.supplierName)
+                && TextUtils.equals(supplierPhoneNumber, book.supplierPhoneNumber);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (name == null ? 0 : name.hashCode());
+        result = 31 * result + price;
+        result = 31 * result + quantity;
+        result = 31 * result + (int) (version ^ (version >>> 32));
+        result = 31 * result + searchRank;
+        return result;
+    }
+}
@@ -36,6 +36,246 @@ public class BookContract {
 
     public static final String PATH_BOOKS = "books";
 
+    /**
+     * Path appended to the books URI for full-text search, for instance
+     * content://hu.lehocz.bookstore/books/search?q=star
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path of the URIs that notify changes of single books, for instance
+     * content://hu.lehocz.bookstore/changes/3 when book 3 changed.
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Path appended to the books URI for the inventory statistics, that is
+     * content://hu.lehocz.bookstore/books/stats
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Path of the sales ledger, that is content://hu.lehocz.bookstore/ledger
+     */
+    public static final String PATH_LEDGER = "ledger";
+
+    /**
+     * Path of the suppliers, that is content://hu.lehocz.bookstore/suppliers
+     */
+    public static final String PATH_SUPPLIERS = "suppliers";
+
+    /**
+     * Query parameter of the search URI holding the search terms. Every word is matched as a
+     * prefix of a word of the book name or the supplier name.
+     */
+    public static final String QUERY_PARAMETER_SEARCH = "q";
+
+    /**
+     * Query parameter of the books URI asking for a single page of at most this many books.
+     * Pages are ordered by the {@link #QUERY_PARAMETER_SORT} column, then by _ID, so the order
+     * is stable even between equal values. The search URI takes it too, its pages are ordered
+     * by the rank of the match, then by name and _ID.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Query parameter of the books URI choosing the order of the books, one of the SORT_
+     * constants. Defaults to {@link #SORT_NAME}. Can't be combined with a sort order argument.
+     */
+    public static final String QUERY_PARAMETER_SORT = "sort";
+
+    /**
+     * Values of {@link #QUERY_PARAMETER_SORT}: by name, by price, by quantity or by supplier
+     * name, always in ascending order. Every one of them is served by an index.
+     */
+    public static final String SORT_NAME = "name";
+    public static final String SORT_PRICE = "price";
+    public static final String SORT_QUANTITY = "quantity";
+    public static final String SORT_SUPPLIER = "supplier";
+
+    /**
+     * Query parameters of the books URI keeping only the books whose price, or quantity, is
+     * at least the minimum or at most the maximum given. The values are non-negative integers,
+     * each of them is optional.
+     */
+    public static final String QUERY_PARAMETER_MIN_PRICE = "min_price";
+    public static final String QUERY_PARAMETER_MAX_PRICE = "max_price";
+    public static final String QUERY_PARAMETER_MIN_QUANTITY = "min_quantity";
+    public static final String QUERY_PARAMETER_MAX_QUANTITY = "max_quantity";
+
+    /**
+     * Query parameter of a page request holding the sort key (the value of the
+     * {@link #QUERY_PARAMETER_SORT} column, or the name on the search URI) of the last book of
+     * the previous page. Must be given together with {@link #QUERY_PARAMETER_AFTER_ID}. The page
+     * starts right after that book, so it costs the same however far the list has been scrolled.
+     */
+    public static final String QUERY_PARAMETER_AFTER_VALUE = "after_value";
+
+    /**
+     * Query parameter of a page request holding the _ID of the last book of the previous page.
+     */
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+    /**
+     * Query parameter of a page request of the search URI holding the
+     * {@link BookEntry#COLUMN_SEARCH_RANK} of the last book of the previous page. Without it
+     * the rank is looked up from the current name of that book, which misses the books still
+     * to come if the book has been renamed since.
+     */
+    public static final String QUERY_PARAMETER_AFTER_RANK = "after_rank";
+
+    /**
+     * Name of the provider method (see {@link ContentResolver#call}) that atomically adds
+     * {@link #EXTRA_DELTA} to the quantity of the book given by {@link #EXTRA_BOOK_ID}.
+     * The adjustment is rejected if it would make the quantity negative. The returned bundle
+     * holds the new quantity in {@link #EXTRA_QUANTITY}, or -1 if the adjustment was rejected.
+     */
+    public static final String METHOD_ADJUST_QUANTITY = "adjust_quantity";
+
+    /**
+     * Extra holding the ID of the book a provider method works on.
+     * <p>
+     * Type: long
+     */
+    public static final String EXTRA_BOOK_ID = "book_id";
+
+    /**
+     * Extra holding the amount to add to the quantity (negative for a sale).
+     * <p>
+     * Type: int
+     */
+    public static final String EXTRA_DELTA = "delta";
+
+    /**
+     * Extra holding the quantity of the book after a provider method has run.
+     * <p>
+     * Type: int
+     */
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    /**
+     * Name of the provider method (see {@link ContentResolver#call}) that works like
+     * {@link #METHOD_ADJUST_QUANTITY} for several books at once: it adds every delta of
+     * {@link #EXTRA_DELTAS} to the quantity of the book at the same index of
+     * {@link #EXTRA_BOOK_IDS}, all of them in a single transaction. Each adjustment is rejected
+     * on its own if it would make the quantity negative. The returned bundle holds the new
+     * quantity of every book in {@link #EXTRA_QUANTITIES}, -1 for those rejected.
+     */
+    public static final String METHOD_ADJUST_QUANTITIES = "adjust_quantities";
+
+    /**
+     * Extra holding the IDs of the books a provider method works on.
+     * <p>
+     * Type: long[]
+     */
+    public static final String EXTRA_BOOK_IDS = "book_ids";
+
+    /**
+     * Extra holding the amounts to add to the quantities, one per book.
+     * <p>
+     * Type: int[]
+     */
+    public static final String EXTRA_DELTAS = "deltas";
+
+    /**
+     * Extra holding the quantities of the books after a provider method has run.
+     * <p>
+     * Type: int[]
+     */
+    public static final String EXTRA_QUANTITIES = "quantities";
+
+    /**
+     * Name of the provider method (see {@link ContentResolver#call}) reporting how well the
+     * provider's cache of single books works. The returned bundle holds
+     * {@link #EXTRA_HIT_COUNT}, {@link #EXTRA_MISS_COUNT}, {@link #EXTRA_SIZE} and
+     * {@link #EXTRA_MAX_SIZE}.
+     */
+    public static final String METHOD_ROW_CACHE_STATS = "row_cache_stats";
+
+    /**
+     * Extra holding the number of lookups served from a cache.
+     * <p>
+     * Type: long
+     */
+    public static final String EXTRA_HIT_COUNT = "hit_count";
+
+    /**
+     * Extra holding the number of lookups a cache couldn't serve.
+     * <p>
+     * Type: long
+     */
+    public static final String EXTRA_MISS_COUNT = "miss_count";
+
+    /**
+     * Extra holding the number of entries in a cache.
+     * <p>
+     * Type: int
+     */
+    public static final String EXTRA_SIZE = "size";
+
+    /**
+     * Extra holding the current size limit of a cache.
+     * <p>
+     * Type: int
+     */
+    public static final String EXTRA_MAX_SIZE = "max_size";
+
+    /**
+     * Name of the provider method (see {@link ContentResolver#call}) reporting how often and
+     * how fast the provider has run its queries, inserts, bulk inserts, updates and deletes
+     * since it started or was last reset. The returned bundle holds a bundle for every
+     * operation and URI seen, keyed like "query/books" or "update/book", with
+     * {@link #EXTRA_OPERATION_COUNT}, {@link #EXTRA_ROW_COUNT}, {@link #EXTRA_TOTAL_NANOS} and
+     * {@link #EXTRA_LATENCY_HISTOGRAM}. If the extras hold {@link #EXTRA_RESET} set to true, the
+     * counters are reset after being read.
+     */
+    public static final String METHOD_PROVIDER_STATS = "stats";
+
+    /**
+     * Extra asking a stats method to reset its counters.
+     * <p>
+     * Type: boolean
+     */
+    public static final String EXTRA_RESET = "reset";
+
+    /**
+     * Extra holding the number of operations run.
+     * <p>
+     * Type: long
+     */
+    public static final String EXTRA_OPERATION_COUNT = "count";
+
+    /**
+     * Extra holding the number of rows returned or changed by the operations.
+     * <p>
+     * Type: long
+     */
+    public static final String EXTRA_ROW_COUNT = "rows";
+
+    /**
+     * Extra holding the time taken by the operations in nanoseconds.
+     * <p>
+     * Type: long
+     */
+    public static final String EXTRA_TOTAL_NANOS = "total_nanos";
+
+    /**
+     * Extra holding the latency histogram of the operations. Element 0 counts the operations
+     * taking less than a microsecond, element i those taking at least 2^(i-1) and less than
+     * 2^i microseconds, the last element also every slower one.
+     * <p>
+     * Type: long[]
+     */
+    public static final String EXTRA_LATENCY_HISTOGRAM = "latency_histogram";
+
+    /**
+     * Name of the provider method (see {@link ContentResolver#call}) that opens the database,
+     * creating or migrating its schema if needed, and reads what the first screen needs, so the
+     * queries that follow don't pay for it. Meant to be called on a background thread when the
+     * process starts. The returned bundle holds the time it took in {@link #EXTRA_TOTAL_NANOS}.
+     */
+    public static final String METHOD_WARM_UP = "warm_up";
+
 
     /**
      * Inner class that defines constant values for the books database table.
@@ -51,6 +291,25 @@ public class BookContract {
          */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_BOOKS);
 
+        /**
+         * The content URI to search the books by name and supplier, see {@link #QUERY_PARAMETER_SEARCH}.
+         * Books whose name matches come first, then they are ordered by name. Takes the page
+         * parameters of the books URI, see {@link #QUERY_PARAMETER_LIMIT}, and the rank of the
+         * page key, see {@link #QUERY_PARAMETER_AFTER_RANK}.
+         */
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * Base of the URIs notified when a single book is inserted, changed or deleted, with the
+         * _ID of the book appended. Register an observer for descendants of this URI to learn
+         * which books changed. Changes that don't move a book in the list (for instance of its
+         * quantity or price) are only notified here, the list itself (notified on
+         * {@link #CONTENT_URI}) doesn't have to be queried again for them. Changes of many books
+         * at once are notified on this URI itself. A cursor of a single book is notified on the
+         * change URI of that book.
+         */
+        public static final Uri ROW_CHANGES_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_CHANGES);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of books.
          */
@@ -97,17 +356,239 @@ public class BookContract {
         public static final String COLUMN_QUANTITY = "product_quantity";
 
         /**
-         * Name of the supplier.
+         * _ID of the supplier, see {@link SupplierEntry}. Set by the provider from the supplier
+         * name and phone number of the book.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SUPPLIER_ID = "supplier_id";
+
+        /**
+         * Name of the supplier. Stored once per supplier, a book reads it from its supplier.
          * <p>
          * Type: TEXT
          */
         public static final String COLUMN_SUPPLIER_NAME = "supplier_name";
 
         /**
-         * Phone number of the supplier.
+         * Phone number of the supplier. Stored once per supplier, a book reads it from its
+         * supplier.
          * <p>
          * Type: TEXT
          */
         public static final String COLUMN_SUPPLIER_PHONE_NUMBER = "supplier_phone";
+
+        /**
+         * Version of the book, 0 for a new book and incremented by the provider with every update
+         * or sale of it, so it can't be set. Updating its supplier through {@link SupplierEntry},
+         * which changes every book of the supplier at once, leaves it alone. An update of a
+         * single book whose values hold the version the caller has read is only applied if the
+         * book still has that version; otherwise no rows are updated, as the book has been
+         * changed (or deleted) since it was read. The version is checked by the update statement
+         * itself, without a read or lock before it.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_VERSION = "version";
+
+        /**
+         * Rank of a search result: 0 if the name of the book matches, 1 if only the name of its
+         * supplier does. Only on the {@link #SEARCH_URI}, where every row has it as its last
+         * column, whatever the projection. It belongs in the page key of the next page, see
+         * {@link BookContract#QUERY_PARAMETER_AFTER_RANK}.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SEARCH_RANK = "search_rank";
+    }
+
+    /**
+     * Inner class that defines constant values for the suppliers database table. Each entry is
+     * a distinct supplier name and phone number pair of the books. Suppliers are added when a
+     * book names a new one and removed with their last book, so they can't be inserted or
+     * deleted through the provider, only read and updated. Updating a supplier changes it for
+     * all of its books at once.
+     */
+    public static final class SupplierEntry implements BaseColumns {
+
+        private SupplierEntry() {
+        }
+
+        /**
+         * The content URI of the suppliers. Cursors are notified on {@link BookEntry#CONTENT_URI}.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single supplier.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /**
+         * Name of database table for suppliers
+         */
+        public static final String TABLE_NAME = "suppliers";
+
+        /**
+         * Name of the supplier, the same column name as {@link BookEntry#COLUMN_SUPPLIER_NAME}.
+         * <p>
+         * Type: TEXT
+         */
+        public static final String COLUMN_NAME = BookEntry.COLUMN_SUPPLIER_NAME;
+
+        /**
+         * Phone number of the supplier, the same column name as
+         * {@link BookEntry#COLUMN_SUPPLIER_PHONE_NUMBER}.
+         * <p>
+         * Type: TEXT
+         */
+        public static final String COLUMN_PHONE_NUMBER = BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER;
+    }
+
+    /**
+     * Inner class that defines constant values for the inventory statistics. They are kept up to
+     * date by the database on every write, so reading them costs the same however many books
+     * there are. The statistics are a single row.
+     */
+    public static final class StatsEntry implements BaseColumns {
+
+        private StatsEntry() {
+        }
+
+        /**
+         * The content URI of the statistics row. Its cursor is notified on
+         * {@link BookEntry#ROW_CHANGES_URI} and its descendants, since every change of the stock
+         * is notified there.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BookEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /**
+         * Name of database table for the statistics
+         */
+        public static final String TABLE_NAME = "book_stats";
+
+        /**
+         * A book is low on stock when it has at least one, but no more than this many copies.
+         */
+        public static final int LOW_STOCK_THRESHOLD = 5;
+
+        /**
+         * Number of books.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TITLE_COUNT = "title_count";
+
+        /**
+         * Number of copies in stock of every book.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TOTAL_QUANTITY = "total_quantity";
+
+        /**
+         * Value of the stock, the sum of price times quantity of every book.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TOTAL_VALUE = "total_value";
+
+        /**
+         * Number of books without any copies in stock.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_OUT_OF_STOCK_COUNT = "out_of_stock_count";
+
+        /**
+         * Number of books low on stock, see {@link #LOW_STOCK_THRESHOLD}.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_LOW_STOCK_COUNT = "low_stock_count";
+    }
+
+    /**
+     * Inner class that defines constant values for the sales ledger, an append-only audit trail
+     * of every change of the quantity of a book. The database records the entries itself, the
+     * current quantity of a book always equals the sum of the deltas of its entries. Entries
+     * are kept after their book is deleted.
+     */
+    public static final class LedgerEntry implements BaseColumns {
+
+        private LedgerEntry() {
+        }
+
+        /**
+         * The content URI of the ledger entries, read only. Cursors are notified on
+         * {@link BookEntry#ROW_CHANGES_URI} and its descendants.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_LEDGER);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LEDGER;
+
+        /**
+         * Name of database table for the ledger
+         */
+        public static final String TABLE_NAME = "sales_ledger";
+
+        /**
+         * _ID of the book whose quantity changed.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_BOOK_ID = "book_id";
+
+        /**
+         * Change of the quantity, negative for a sale.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DELTA = "delta";
+
+        /**
+         * Price of the book at the time of the change.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_PRICE = "price";
+
+        /**
+         * Time of the change in milliseconds since the epoch.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TIMESTAMP = "timestamp";
+
+        /**
+         * Why the quantity changed, one of the REASON_ constants.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_REASON = "reason";
+
+        /**
+         * Possible values for the reason of an entry.
+         */
+        public static final int REASON_OPENING_BALANCE = 0;
+        public static final int REASON_CHANGE = 1;
+        public static final int REASON_CORRECTION = 2;
     }
 }
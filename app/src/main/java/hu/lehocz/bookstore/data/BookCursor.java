@@ -0,0 +1,161 @@
+package hu.lehocz.bookstore.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+/**
+ * Cursor of books with typed getters for their columns. The positions of the columns are
+ * looked up once, when the cursor is wrapped, so reading a row doesn't search the column names.
+ * A cursor may hold any projection of the columns of {@link BookEntry}; reading a column that
+ * isn't in the projection throws {@link IllegalStateException}.
+ * <p>
+ * The resolver wraps the cursors of the provider in its own cursor, so wrap the cursor returned
+ * by a query or a loader with {@link #wrap(Cursor)}. All pages of a list share the projection,
+ * so they can be merged first and wrapped once.
+ */
+public class BookCursor extends CursorWrapper {
+
+    private final int mIdIndex;
+    private final int mNameIndex;
+    private final int mPriceIndex;
+    private final int mQuantityIndex;
+    private final int mSupplierIdIndex;
+    private final int mSupplierNameIndex;
+    private final int mSupplierPhoneNumberIndex;
+    private final int mVersionIndex;
+    private final int mSearchRankIndex;
+
+    /**
+     * Values of a book, to be filled by {@link #copyTo(Holder)}. The text columns are copied
+     * into buffers, which are only reallocated when a value doesn't fit, so a holder reused for
+     * every row doesn't allocate once it has grown to the longest value.
+     */
+    public static class Holder {
+
+        public long id;
+        public final CharArrayBuffer name = new CharArrayBuffer(64);
+        public int price;
+        public int quantity;
+        public long supplierId;
+        public final CharArrayBuffer supplierName = new CharArrayBuffer(64);
+        public final CharArrayBuffer supplierPhoneNumber = new CharArrayBuffer(32);
+    }
+
+    public BookCursor(Cursor cursor) {
+        super(cursor);
+        mIdIndex = cursor.getColumnIndex(BookEntry._ID);
+        mNameIndex = cursor.getColumnIndex(BookEntry.COLUMN_NAME);
+        mPriceIndex = cursor.getColumnIndex(BookEntry.COLUMN_PRICE);
+        mQuantityIndex = cursor.getColumnIndex(BookEntry.COLUMN_QUANTITY);
+        mSupplierIdIndex = cursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_ID);
+        mSupplierNameIndex = cursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_NAME);
+        mSupplierPhoneNumberIndex = cursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+        mVersionIndex = cursor.getColumnIndex(BookEntry.COLUMN_VERSION);
+        mSearchRankIndex = cursor.getColumnIndex(BookEntry.COLUMN_SEARCH_RANK);
+    }
+
+    /**
+     * @return the given cursor if it's already a BookCursor or null, otherwise the cursor
+     * wrapped in a BookCursor
+     */
+    public static BookCursor wrap(Cursor cursor) {
+        if (cursor == null || cursor instanceof BookCursor) {
+            return (BookCursor) cursor;
+        }
+        return new BookCursor(cursor);
+    }
+
+    public long getId() {
+        return getLong(column(mIdIndex, BookEntry._ID));
+    }
+
+    public String getName() {
+        return getString(column(mNameIndex, BookEntry.COLUMN_NAME));
+    }
+
+    /**
+     * Copy the name into the buffer without allocating a String.
+     */
+    public void copyNameToBuffer(CharArrayBuffer buffer) {
+        copyStringToBuffer(column(mNameIndex, BookEntry.COLUMN_NAME), buffer);
+    }
+
+    public int getPrice() {
+        return getInt(column(mPriceIndex, BookEntry.COLUMN_PRICE));
+    }
+
+    public int getQuantity() {
+        return getInt(column(mQuantityIndex, BookEntry.COLUMN_QUANTITY));
+    }
+
+    public long getSupplierId() {
+        return getLong(column(mSupplierIdIndex, BookEntry.COLUMN_SUPPLIER_ID));
+    }
+
+    public String getSupplierName() {
+        return getString(column(mSupplierNameIndex, BookEntry.COLUMN_SUPPLIER_NAME));
+    }
+
+    public String getSupplierPhoneNumber() {
+        return getString(column(mSupplierPhoneNumberIndex, BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER));
+    }
+
+    public long getVersion() {
+        return getLong(column(mVersionIndex, BookEntry.COLUMN_VERSION));
+    }
+
+    /**
+     * @return the values of the current row. Columns that aren't in the projection are null,
+     * or -1 for the numbers.
+     */
+    public Book getBook() {
+        return new Book(
+                mIdIndex == -1 ? -1 : getLong(mIdIndex),
+                mNameIndex == -1 ? null : getString(mNameIndex),
+                mPriceIndex == -1 ? -1 : getInt(mPriceIndex),
+                mQuantityIndex == -1 ? -1 : getInt(mQuantityIndex),
+                mSupplierIdIndex == -1 ? -1 : getLong(mSupplierIdIndex),
+                mSupplierNameIndex == -1 ? null : getString(mSupplierNameIndex),
+                mSupplierPhoneNumberIndex == -1 ? null : getString(mSupplierPhoneNumberIndex),
+                mVersionIndex == -1 ? -1 : getLong(mVersionIndex),
+                mSearchRankIndex == -1 ? -1 : getInt(mSearchRankIndex));
+    }
+
+    /**
+     * Copy the values of the current row into the holder. Columns that aren't in the projection
+     * are left as they were.
+     */
+    public void copyTo(Holder holder) {
+        if (mIdIndex != -1) {
+            holder.id = getLong(mIdIndex);
+        }
+        if (mNameIndex != -1) {
+            copyStringToBuffer(mNameIndex, holder.name);
+        }
+        if (mPriceIndex != -1) {
+            holder.price = getInt(mPriceIndex);
+        }
+        if (mQuantityIndex != -1) {
+            holder.quantity = getInt(mQuantityIndex);
+        }
+        if (mSupplierIdIndex != -1) {
+            holder.supplierId = getLong(mSupplierIdIndex);
+        }
+        if (mSupplierNameIndex != -1) {
+            copyStringToBuffer(mSupplierNameIndex, holder.supplierName);
+        }
+        if (mSupplierPhoneNumberIndex != -1) {
+            copyStringToBuffer(mSupplierPhoneNumberIndex, holder.supplierPhoneNumber);
+        }
+    }
+
+    private static int column(int index, String column) {
+        if (index == -1) {
+            throw new IllegalStateException("Column " + column + " isn't in the projection");
+        }
+        return index;
+    }
+}
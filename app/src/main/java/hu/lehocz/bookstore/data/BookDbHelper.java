@@ -1,10 +1,16 @@
 package hu.lehocz.bookstore.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 import hu.lehocz.bookstore.data.BookContract.BookEntry;
+import hu.lehocz.bookstore.data.BookContract.LedgerEntry;
+import hu.lehocz.bookstore.data.BookContract.StatsEntry;
+import hu.lehocz.bookstore.data.BookContract.SupplierEntry;
 
 public class BookDbHelper extends SQLiteOpenHelper {
     public static final String LOG_TAG = BookDbHelper.class.getSimpleName();
@@ -15,9 +21,114 @@ public class BookDbHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "bookstore.db";
 
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Database version. If you change the database schema, you must increment the database version
+     * and add the step that brings the previous version up to date to {@link #migrate}.
      */
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 9;
+
+    /**
+     * Index on the book name, used for name lookups and sorting by name.
+     */
+    static final String INDEX_BOOKS_NAME = "books_name_index";
+
+    /**
+     * Index on the supplier of the books, used to group or filter books by supplier. On the
+     * supplier name up to version 5, on the supplier _ID since version 6. Since version 9 it
+     * also holds the other columns of a book the views read, so the books of a supplier are
+     * read from the index alone.
+     */
+    static final String INDEX_BOOKS_SUPPLIER = "books_supplier_index";
+
+    /**
+     * Index on the quantity, used to find the books that are out of or low on stock.
+     */
+    static final String INDEX_BOOKS_QUANTITY = "books_quantity_index";
+
+    /**
+     * Index on the price, used to sort the catalog by price and to filter it by a price range.
+     */
+    static final String INDEX_BOOKS_PRICE = "books_price_index";
+
+    /**
+     * Full-text index of the book and supplier names. The docid of each row is the _ID of the
+     * book, and triggers on the books table keep it in sync.
+     */
+    static final String TABLE_BOOKS_FTS = "books_fts";
+
+    /**
+     * Index on the book of the ledger entries, used to audit a book and to sum its entries.
+     */
+    static final String INDEX_LEDGER_BOOK = "sales_ledger_book_index";
+
+    /**
+     * The books joined with their supplier, with the columns of {@link BookEntry}. Every query
+     * of books reads this view, so callers still see the supplier name and phone number as
+     * columns of a book.
+     */
+    static final String VIEW_BOOKS = "books_with_supplier";
+
+    /**
+     * The same as {@link #VIEW_BOOKS}, but always read supplier by supplier, for the catalog
+     * sorted by supplier. Without statistics SQLite prefers to read the books first and then
+     * sort all of them by supplier name, while going through the suppliers in the order of their
+     * name index only leaves the books of a single supplier name to sort at a time.
+     */
+    static final String VIEW_BOOKS_BY_SUPPLIER = "books_by_supplier";
+
+    /**
+     * SQL expression of the current time in milliseconds since the epoch.
+     */
+    static final String NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /**
+     * Connection settings applied every time the database is opened.
+     */
+    private final Options mOptions;
+
+    /**
+     * Incremented whenever this helper creates or migrates the schema, so compiled statements
+     * know when they have to be compiled again.
+     */
+    private volatile int mSchemaGeneration;
+
+    /**
+     * Tunable connection settings of the database. The defaults suit the app: write-ahead logging,
+     * so a sale doesn't block the catalog from reading and the other way round, with
+     * synchronous=NORMAL, which is durable across app crashes and only risks the last commits
+     * on a power loss.
+     */
+    public static class Options {
+
+        /**
+         * Use write-ahead logging instead of the rollback journal.
+         */
+        public boolean writeAheadLogging = true;
+
+        /**
+         * Value of PRAGMA synchronous: "OFF", "NORMAL" or "FULL".
+         */
+        public String synchronous = "NORMAL";
+
+        /**
+         * Page cache size of the primary connection in kilobytes, 0 leaves it at the default
+         * of SQLite. Set on the connection each time it's opened, like the other pragmas.
+         */
+        public int cacheSizeKb = 2048;
+
+        /**
+         * Maximum number of bytes of the database file to access through memory mapped I/O,
+         * 0 disables it. Ignored by SQLite versions that don't support it. Only set on the
+         * primary connection, which runs the writes and the transactions: SQLite has no stored
+         * default for it, and the framework gives no way to configure its read connections.
+         */
+        public long mmapSize = 0;
+
+        /**
+         * Number of WAL pages after which a commit runs an automatic checkpoint, 0 disables
+         * automatic checkpoints so they only happen through {@link BookDbHelper#checkpoint()}.
+         */
+        public int walAutoCheckpointPages = 1000;
+    }
 
     /**
      * Constructs a new instance of {@link BookDbHelper}.
@@ -25,14 +136,177 @@ public class BookDbHelper extends SQLiteOpenHelper {
      * @param context of the app
      */
     public BookDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, new Options());
+    }
+
+    /**
+     * Constructs a new instance of {@link BookDbHelper} with the given database file and
+     * connection settings.
+     *
+     * @param context of the app
+     * @param name    of the database file, or null for an in-memory database
+     * @param options connection settings
+     */
+    public BookDbHelper(Context context, String name, Options options) {
+        super(context, name, null, DATABASE_VERSION);
+        mOptions = options;
+    }
+
+    /**
+     * This is called when the connection is being configured, before the schema is created or
+     * upgraded. Only available from Jelly Bean, older versions are configured in {@link #onOpen}.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            super.onConfigure(db);
+            db.setWriteAheadLoggingEnabled(mOptions.writeAheadLogging);
+            db.setForeignKeyConstraintsEnabled(true);
+            configure(db);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            if (mOptions.writeAheadLogging) {
+                db.enableWriteAheadLogging();
+            }
+            pragma(db, "foreign_keys = ON");
+            configure(db);
+        }
+    }
+
+    /**
+     * Apply the pragmas of {@link #mOptions}. These are per connection settings; all writes go
+     * through the primary connection configured here. The connections the framework opens for
+     * concurrent reads in WAL mode can't be configured, they keep the defaults of SQLite.
+     */
+    private void configure(SQLiteDatabase db) {
+        pragma(db, "synchronous = " + mOptions.synchronous);
+        if (mOptions.cacheSizeKb > 0) {
+            setCacheSize(db, mOptions.cacheSizeKb);
+        }
+        pragma(db, "mmap_size = " + mOptions.mmapSize);
+        if (mOptions.writeAheadLogging) {
+            pragma(db, "wal_autocheckpoint = " + mOptions.walAutoCheckpointPages);
+        }
+    }
+
+    /**
+     * Set the page cache size of this connection. A negative cache_size is in kilobytes, which
+     * SQLite only supports from 3.7.10, shipped with Jelly Bean; before that it's in pages.
+     */
+    private static void setCacheSize(SQLiteDatabase db, int cacheSizeKb) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            pragma(db, "cache_size = -" + cacheSizeKb);
+        } else {
+            long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+            pragma(db, "cache_size = " + Math.max(1, cacheSizeKb * 1024L / pageSize));
+        }
+    }
+
+    /**
+     * Copy the content of the write-ahead log back into the database file without waiting for
+     * readers. Useful when automatic checkpoints are disabled or the app is going idle.
+     */
+    public void checkpoint() {
+        if (mOptions.writeAheadLogging) {
+            pragma(getWritableDatabase(), "wal_checkpoint(PASSIVE)");
+        }
+    }
+
+    /**
+     * Run a pragma. Some pragmas return a row even when setting a value, which execSQL refuses,
+     * so they're run as queries.
+     */
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
-     * This is called when the database is created for the first time.
+     * This is called when the database is created for the first time. The first version of the
+     * schema is created and then brought up to date by the same migration steps an existing
+     * database goes through, so a new install and an upgraded one always end up identical.
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createVersion1(db);
+        migrate(db, 1, DATABASE_VERSION);
+        mSchemaGeneration++;
+    }
+
+    /**
+     * This is called when the database needs to be upgraded. It runs inside a transaction, so a
+     * failing migration step leaves the database at its old version.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        migrate(db, oldVersion, newVersion);
+        mSchemaGeneration++;
+    }
+
+    /**
+     * @return a number that changes whenever the schema has been created or migrated
+     */
+    int getSchemaGeneration() {
+        return mSchemaGeneration;
+    }
+
+    /**
+     * Create the schema as it was at the given version. Only meant for testing the migrations.
+     */
+    static void createAtVersion(SQLiteDatabase db, int version) {
+        createVersion1(db);
+        migrate(db, 1, version);
+    }
+
+    /**
+     * Run the migration steps from oldVersion to newVersion one by one, in order.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            switch (version) {
+                case 2:
+                    migrateToVersion2(db);
+                    break;
+                case 3:
+                    migrateToVersion3(db);
+                    break;
+                case 4:
+                    migrateToVersion4(db);
+                    break;
+                case 5:
+                    migrateToVersion5(db);
+                    break;
+                case 6:
+                    migrateToVersion6(db);
+                    break;
+                case 7:
+                    migrateToVersion7(db);
+                    break;
+                case 8:
+                    migrateToVersion8(db);
+                    break;
+                case 9:
+                    migrateToVersion9(db);
+                    break;
+                default:
+                    throw new IllegalStateException("No migration to database version " + version);
+            }
+        }
+    }
+
+    /**
+     * Version 1: the books table.
+     */
+    private static void createVersion1(SQLiteDatabase db) {
         // Create a String that contains the SQL statement to create the books table
         String sqlCreateBooksTable = "CREATE TABLE " + BookEntry.TABLE_NAME + " ("
                 + BookEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
@@ -47,10 +321,342 @@ public class BookDbHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * Version 2: indexes for name lookup, supplier grouping and low stock queries, so these
+     * don't have to scan the whole books table.
      */
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+    private static void migrateToVersion2(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_BOOKS_NAME + " ON " + BookEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_NAME + ");");
+        db.execSQL("CREATE INDEX " + INDEX_BOOKS_SUPPLIER + " ON " + BookEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_SUPPLIER_NAME + ");");
+        db.execSQL("CREATE INDEX " + INDEX_BOOKS_QUANTITY + " ON " + BookEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_QUANTITY + ");");
+    }
+
+    /**
+     * Version 3: full-text index of the book and supplier names for the search URI, filled from
+     * the existing books and kept in sync by triggers. Only changes of the indexed columns touch
+     * it, so sales don't pay for it.
+     */
+    private static void migrateToVersion3(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_BOOKS_FTS + " USING fts4("
+                + BookEntry.COLUMN_NAME + ", " + BookEntry.COLUMN_SUPPLIER_NAME + ");");
+        db.execSQL("INSERT INTO " + TABLE_BOOKS_FTS + " (docid, "
+                + BookEntry.COLUMN_NAME + ", " + BookEntry.COLUMN_SUPPLIER_NAME + ")"
+                + " SELECT " + BookEntry._ID + ", " + BookEntry.COLUMN_NAME + ", " + BookEntry.COLUMN_SUPPLIER_NAME
+                + " FROM " + BookEntry.TABLE_NAME + ";");
+
+        db.execSQL("CREATE TRIGGER books_fts_insert AFTER INSERT ON " + BookEntry.TABLE_NAME + " BEGIN"
+                + " INSERT INTO " + TABLE_BOOKS_FTS + " (docid, "
+                + BookEntry.COLUMN_NAME + ", " + BookEntry.COLUMN_SUPPLIER_NAME + ")"
+                + " VALUES (new." + BookEntry._ID + ", new." + BookEntry.COLUMN_NAME
+                + ", new." + BookEntry.COLUMN_SUPPLIER_NAME + ");"
+                + " END;");
+        db.execSQL("CREATE TRIGGER books_fts_update AFTER UPDATE OF "
+                + BookEntry.COLUMN_NAME + ", " + BookEntry.COLUMN_SUPPLIER_NAME
+                + " ON " + BookEntry.TABLE_NAME + " BEGIN"
+                + " UPDATE " + TABLE_BOOKS_FTS + " SET "
+                + BookEntry.COLUMN_NAME + " = new." + BookEntry.COLUMN_NAME + ", "
+                + BookEntry.COLUMN_SUPPLIER_NAME + " = new." + BookEntry.COLUMN_SUPPLIER_NAME
+                + " WHERE docid = new." + BookEntry._ID + ";"
+                + " END;");
+        db.execSQL("CREATE TRIGGER books_fts_delete AFTER DELETE ON " + BookEntry.TABLE_NAME + " BEGIN"
+                + " DELETE FROM " + TABLE_BOOKS_FTS + " WHERE docid = old." + BookEntry._ID + ";"
+                + " END;");
+    }
+
+    /**
+     * Version 4: the inventory statistics, a single row computed from the existing books once
+     * and then adjusted by triggers by the difference each inserted, updated or deleted book
+     * makes. Updates of other columns than price and quantity don't touch it.
+     */
+    private static void migrateToVersion4(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + StatsEntry.TABLE_NAME + " ("
+                + StatsEntry._ID + " INTEGER PRIMARY KEY CHECK (" + StatsEntry._ID + " = 0), "
+                + StatsEntry.COLUMN_TITLE_COUNT + " INTEGER NOT NULL, "
+                + StatsEntry.COLUMN_TOTAL_QUANTITY + " INTEGER NOT NULL, "
+                + StatsEntry.COLUMN_TOTAL_VALUE + " INTEGER NOT NULL, "
+                + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " INTEGER NOT NULL, "
+                + StatsEntry.COLUMN_LOW_STOCK_COUNT + " INTEGER NOT NULL);");
+        db.execSQL("INSERT INTO " + StatsEntry.TABLE_NAME + " SELECT 0, COUNT(*), "
+                + "IFNULL(SUM(" + BookEntry.COLUMN_QUANTITY + "), 0), "
+                + "IFNULL(SUM(" + BookEntry.COLUMN_PRICE + " * " + BookEntry.COLUMN_QUANTITY + "), 0), "
+                + "IFNULL(SUM(" + isOutOfStock("") + "), 0), "
+                + "IFNULL(SUM(" + isLowOnStock("") + "), 0)"
+                + " FROM " + BookEntry.TABLE_NAME + ";");
+        createStatsTriggers(db);
+    }
+
+    /**
+     * Create the triggers that adjust the statistics by the books inserted, updated or deleted.
+     */
+    private static void createStatsTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER book_stats_insert AFTER INSERT ON " + BookEntry.TABLE_NAME + " BEGIN"
+                + " UPDATE " + StatsEntry.TABLE_NAME + " SET " + statsDelta("+", "new.") + ";"
+                + " END;");
+        db.execSQL("CREATE TRIGGER book_stats_update AFTER UPDATE OF "
+                + BookEntry.COLUMN_PRICE + ", " + BookEntry.COLUMN_QUANTITY
+                + " ON " + BookEntry.TABLE_NAME + " BEGIN"
+                + " UPDATE " + StatsEntry.TABLE_NAME + " SET " + statsDelta("-", "old.") + ";"
+                + " UPDATE " + StatsEntry.TABLE_NAME + " SET " + statsDelta("+", "new.") + ";"
+                + " END;");
+        db.execSQL("CREATE TRIGGER book_stats_delete AFTER DELETE ON " + BookEntry.TABLE_NAME + " BEGIN"
+                + " UPDATE " + StatsEntry.TABLE_NAME + " SET " + statsDelta("-", "old.") + ";"
+                + " END;");
+    }
+
+    /**
+     * Version 5: the sales ledger. Every book gets an opening balance entry with its quantity at
+     * the time of the migration, then triggers append an entry for every insert and every
+     * change of a quantity, in the same transaction as the change itself.
+     */
+    private static void migrateToVersion5(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + LedgerEntry.TABLE_NAME + " ("
+                + LedgerEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + LedgerEntry.COLUMN_BOOK_ID + " INTEGER NOT NULL, "
+                + LedgerEntry.COLUMN_DELTA + " INTEGER NOT NULL, "
+                + LedgerEntry.COLUMN_PRICE + " INTEGER NOT NULL, "
+                + LedgerEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL, "
+                + LedgerEntry.COLUMN_REASON + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX " + INDEX_LEDGER_BOOK + " ON " + LedgerEntry.TABLE_NAME
+                + " (" + LedgerEntry.COLUMN_BOOK_ID + ");");
+        db.execSQL("INSERT INTO " + LedgerEntry.TABLE_NAME + " (" + ledgerColumns() + ")"
+                + " SELECT " + BookEntry._ID + ", " + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_PRICE + ", " + NOW_MILLIS + ", " + LedgerEntry.REASON_OPENING_BALANCE
+                + " FROM " + BookEntry.TABLE_NAME + ";");
+        createLedgerTriggers(db);
+    }
+
+    /**
+     * Create the triggers that append a ledger entry for every inserted book and every change
+     * of a quantity.
+     */
+    private static void createLedgerTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER sales_ledger_insert AFTER INSERT ON " + BookEntry.TABLE_NAME + " BEGIN"
+                + " INSERT INTO " + LedgerEntry.TABLE_NAME + " (" + ledgerColumns() + ")"
+                + " VALUES (new." + BookEntry._ID + ", new." + BookEntry.COLUMN_QUANTITY
+                + ", new." + BookEntry.COLUMN_PRICE + ", " + NOW_MILLIS
+                + ", " + LedgerEntry.REASON_OPENING_BALANCE + ");"
+                + " END;");
+        db.execSQL("CREATE TRIGGER sales_ledger_update AFTER UPDATE OF " + BookEntry.COLUMN_QUANTITY
+                + " ON " + BookEntry.TABLE_NAME
+                + " WHEN new." + BookEntry.COLUMN_QUANTITY + " <> old." + BookEntry.COLUMN_QUANTITY + " BEGIN"
+                + " INSERT INTO " + LedgerEntry.TABLE_NAME + " (" + ledgerColumns() + ")"
+                + " VALUES (new." + BookEntry._ID
+                + ", new." + BookEntry.COLUMN_QUANTITY + " - old." + BookEntry.COLUMN_QUANTITY
+                + ", new." + BookEntry.COLUMN_PRICE + ", " + NOW_MILLIS
+                + ", " + LedgerEntry.REASON_CHANGE + ");"
+                + " END;");
+    }
+
+    /**
+     * Version 6: the suppliers get a table of their own, so a supplier name and phone number are
+     * stored once instead of in every book, and renaming a supplier changes a single row. Every
+     * distinct name and phone number pair of the existing books becomes a supplier, then the
+     * books table is rebuilt with a reference to its supplier in place of the two columns.
+     * Dropping the old table drops its indexes and triggers, which are created again on the new
+     * one. The view {@link #VIEW_BOOKS} joins the two tables back into the old shape.
+     */
+    private static void migrateToVersion6(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SupplierEntry.COLUMN_NAME + " TEXT NOT NULL, "
+                + SupplierEntry.COLUMN_PHONE_NUMBER + " TEXT NOT NULL, "
+                + "UNIQUE (" + SupplierEntry.COLUMN_NAME + ", " + SupplierEntry.COLUMN_PHONE_NUMBER + "));");
+        db.execSQL("INSERT INTO " + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry.COLUMN_NAME + ", " + SupplierEntry.COLUMN_PHONE_NUMBER + ")"
+                + " SELECT DISTINCT " + BookEntry.COLUMN_SUPPLIER_NAME + ", " + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+                + " FROM " + BookEntry.TABLE_NAME + ";");
+
+        String newTable = BookEntry.TABLE_NAME + "_new";
+        db.execSQL("CREATE TABLE " + newTable + " ("
+                + BookEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + BookEntry.COLUMN_NAME + " TEXT NOT NULL, "
+                + BookEntry.COLUMN_PRICE + " INTEGER NOT NULL DEFAULT 0, "
+                + BookEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                + BookEntry.COLUMN_SUPPLIER_ID + " INTEGER NOT NULL REFERENCES "
+                + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + "));");
+        db.execSQL("INSERT INTO " + newTable + " (" + BookEntry._ID + ", " + BookEntry.COLUMN_NAME + ", "
+                + BookEntry.COLUMN_PRICE + ", " + BookEntry.COLUMN_QUANTITY + ", " + BookEntry.COLUMN_SUPPLIER_ID + ")"
+                + " SELECT b." + BookEntry._ID + ", b." + BookEntry.COLUMN_NAME + ", b." + BookEntry.COLUMN_PRICE
+                + ", b." + BookEntry.COLUMN_QUANTITY + ", s." + SupplierEntry._ID
+                + " FROM " + BookEntry.TABLE_NAME + " AS b JOIN " + SupplierEntry.TABLE_NAME + " AS s"
+                + " ON s." + SupplierEntry.COLUMN_NAME + " = b." + BookEntry.COLUMN_SUPPLIER_NAME
+                + " AND s." + SupplierEntry.COLUMN_PHONE_NUMBER + " = b." + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ";");
+        // Carry the AUTOINCREMENT counter over, so the _IDs of deleted books, which the ledger
+        // still refers to, are never given to new books
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + newTable + "';");
+        db.execSQL("UPDATE sqlite_sequence SET name = '" + newTable + "'"
+                + " WHERE name = '" + BookEntry.TABLE_NAME + "';");
+        db.execSQL("DROP TABLE " + BookEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + BookEntry.TABLE_NAME + ";");
+
+        db.execSQL("CREATE INDEX " + INDEX_BOOKS_NAME + " ON " + BookEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_NAME + ");");
+        db.execSQL("CREATE INDEX " + INDEX_BOOKS_SUPPLIER + " ON " + BookEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_SUPPLIER_ID + ");");
+        db.execSQL("CREATE INDEX " + INDEX_BOOKS_QUANTITY + " ON " + BookEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_QUANTITY + ");");
+
+        // The full-text index keeps its rows, only its triggers read the supplier name from
+        // the suppliers table now
+        String supplierName = "(SELECT " + SupplierEntry.COLUMN_NAME + " FROM " + SupplierEntry.TABLE_NAME
+                + " WHERE " + SupplierEntry._ID + " = new." + BookEntry.COLUMN_SUPPLIER_ID + ")";
+        db.execSQL("CREATE TRIGGER books_fts_insert AFTER INSERT ON " + BookEntry.TABLE_NAME + " BEGIN"
+                + " INSERT INTO " + TABLE_BOOKS_FTS + " (docid, "
+                + BookEntry.COLUMN_NAME + ", " + BookEntry.COLUMN_SUPPLIER_NAME + ")"
+                + " VALUES (new." + BookEntry._ID + ", new." + BookEntry.COLUMN_NAME + ", " + supplierName + ");"
+                + " END;");
+        db.execSQL("CREATE TRIGGER books_fts_update AFTER UPDATE OF "
+                + BookEntry.COLUMN_NAME + ", " + BookEntry.COLUMN_SUPPLIER_ID
+                + " ON " + BookEntry.TABLE_NAME + " BEGIN"
+                + " UPDATE " + TABLE_BOOKS_FTS + " SET "
+                + BookEntry.COLUMN_NAME + " = new." + BookEntry.COLUMN_NAME + ", "
+                + BookEntry.COLUMN_SUPPLIER_NAME + " = " + supplierName
+                + " WHERE docid = new." + BookEntry._ID + ";"
+                + " END;");
+        db.execSQL("CREATE TRIGGER books_fts_delete AFTER DELETE ON " + BookEntry.TABLE_NAME + " BEGIN"
+                + " DELETE FROM " + TABLE_BOOKS_FTS + " WHERE docid = old." + BookEntry._ID + ";"
+                + " END;");
+        db.execSQL("CREATE TRIGGER suppliers_fts_update AFTER UPDATE OF " + SupplierEntry.COLUMN_NAME
+                + " ON " + SupplierEntry.TABLE_NAME + " BEGIN"
+                + " UPDATE " + TABLE_BOOKS_FTS + " SET "
+                + BookEntry.COLUMN_SUPPLIER_NAME + " = new." + SupplierEntry.COLUMN_NAME
+                + " WHERE docid IN (SELECT " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME
+                + " WHERE " + BookEntry.COLUMN_SUPPLIER_ID + " = new." + SupplierEntry._ID + ");"
+                + " END;");
+
+        createStatsTriggers(db);
+        createLedgerTriggers(db);
+
+        // A supplier goes away with its last book
+        String removeUnusedSupplier = " DELETE FROM " + SupplierEntry.TABLE_NAME
+                + " WHERE " + SupplierEntry._ID + " = old." + BookEntry.COLUMN_SUPPLIER_ID
+                + " AND NOT EXISTS (SELECT 1 FROM " + BookEntry.TABLE_NAME
+                + " WHERE " + BookEntry.COLUMN_SUPPLIER_ID + " = old." + BookEntry.COLUMN_SUPPLIER_ID + ");";
+        db.execSQL("CREATE TRIGGER suppliers_delete_unused AFTER DELETE ON " + BookEntry.TABLE_NAME
+                + " BEGIN" + removeUnusedSupplier + " END;");
+        db.execSQL("CREATE TRIGGER suppliers_delete_replaced AFTER UPDATE OF " + BookEntry.COLUMN_SUPPLIER_ID
+                + " ON " + BookEntry.TABLE_NAME
+                + " WHEN new." + BookEntry.COLUMN_SUPPLIER_ID + " <> old." + BookEntry.COLUMN_SUPPLIER_ID
+                + " BEGIN" + removeUnusedSupplier + " END;");
+
+        db.execSQL("CREATE VIEW " + VIEW_BOOKS + " AS SELECT "
+                + "b." + BookEntry._ID + " AS " + BookEntry._ID + ", "
+                + "b." + BookEntry.COLUMN_NAME + " AS " + BookEntry.COLUMN_NAME + ", "
+                + "b." + BookEntry.COLUMN_PRICE + " AS " + BookEntry.COLUMN_PRICE + ", "
+                + "b." + BookEntry.COLUMN_QUANTITY + " AS " + BookEntry.COLUMN_QUANTITY + ", "
+                + "b." + BookEntry.COLUMN_SUPPLIER_ID + " AS " + BookEntry.COLUMN_SUPPLIER_ID + ", "
+                + "s." + SupplierEntry.COLUMN_NAME + " AS " + BookEntry.COLUMN_SUPPLIER_NAME + ", "
+                + "s." + SupplierEntry.COLUMN_PHONE_NUMBER + " AS " + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+                + " FROM " + BookEntry.TABLE_NAME + " AS b JOIN " + SupplierEntry.TABLE_NAME + " AS s"
+                + " ON s." + SupplierEntry._ID + " = b." + BookEntry.COLUMN_SUPPLIER_ID + ";");
+    }
+
+    /**
+     * Version 7: what the catalog needs to sort by price or supplier and filter by a price
+     * range without scanning every book: an index on the price and {@link #VIEW_BOOKS_BY_SUPPLIER}.
+     */
+    private static void migrateToVersion7(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_BOOKS_PRICE + " ON " + BookEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_PRICE + ");");
+        // CROSS JOIN makes SQLite keep the suppliers as the outer loop
+        db.execSQL("CREATE VIEW " + VIEW_BOOKS_BY_SUPPLIER + " AS SELECT "
+                + "b." + BookEntry._ID + " AS " + BookEntry._ID + ", "
+                + "b." + BookEntry.COLUMN_NAME + " AS " + BookEntry.COLUMN_NAME + ", "
+                + "b." + BookEntry.COLUMN_PRICE + " AS " + BookEntry.COLUMN_PRICE + ", "
+                + "b." + BookEntry.COLUMN_QUANTITY + " AS " + BookEntry.COLUMN_QUANTITY + ", "
+                + "b." + BookEntry.COLUMN_SUPPLIER_ID + " AS " + BookEntry.COLUMN_SUPPLIER_ID + ", "
+                + "s." + SupplierEntry.COLUMN_NAME + " AS " + BookEntry.COLUMN_SUPPLIER_NAME + ", "
+                + "s." + SupplierEntry.COLUMN_PHONE_NUMBER + " AS " + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+                + " FROM " + SupplierEntry.TABLE_NAME + " AS s CROSS JOIN " + BookEntry.TABLE_NAME + " AS b"
+                + " ON b." + BookEntry.COLUMN_SUPPLIER_ID + " = s." + SupplierEntry._ID + ";");
+    }
+
+    /**
+     * Version 8: a version number on every book for conditional updates, see
+     * {@link BookEntry#COLUMN_VERSION}. Existing books start at 0. Both views of the books are
+     * created again to add it, SQLite doesn't let a view be altered.
+     */
+    private static void migrateToVersion8(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0;");
+        db.execSQL("DROP VIEW " + VIEW_BOOKS + ";");
+        db.execSQL("DROP VIEW " + VIEW_BOOKS_BY_SUPPLIER + ";");
+        db.execSQL("CREATE VIEW " + VIEW_BOOKS + " AS SELECT " + bookViewColumns()
+                + " FROM " + BookEntry.TABLE_NAME + " AS b JOIN " + SupplierEntry.TABLE_NAME + " AS s"
+                + " ON s." + SupplierEntry._ID + " = b." + BookEntry.COLUMN_SUPPLIER_ID + ";");
+        // CROSS JOIN makes SQLite keep the suppliers as the outer loop
+        db.execSQL("CREATE VIEW " + VIEW_BOOKS_BY_SUPPLIER + " AS SELECT " + bookViewColumns()
+                + " FROM " + SupplierEntry.TABLE_NAME + " AS s CROSS JOIN " + BookEntry.TABLE_NAME + " AS b"
+                + " ON b." + BookEntry.COLUMN_SUPPLIER_ID + " = s." + SupplierEntry._ID + ";");
+    }
+
+    /**
+     * Version 9: {@link #INDEX_BOOKS_SUPPLIER} covers the book columns of the views. Filtering
+     * by supplier went from one index entry to one books table lookup per book, on top of the
+     * join, which made it slower than before the suppliers table; now it reads a range of the
+     * index instead.
+     */
+    private static void migrateToVersion9(SQLiteDatabase db) {
+        db.execSQL("DROP INDEX " + INDEX_BOOKS_SUPPLIER + ";");
+        db.execSQL("CREATE INDEX " + INDEX_BOOKS_SUPPLIER + " ON " + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_SUPPLIER_ID + ", " + BookEntry.COLUMN_NAME + ", "
+                + BookEntry.COLUMN_PRICE + ", " + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_VERSION + ");");
+    }
+
+    /**
+     * @return the columns of {@link BookEntry} selected by the views of the books from the books
+     * table "b" and the suppliers table "s", as of version 8
+     */
+    private static String bookViewColumns() {
+        return "b." + BookEntry._ID + " AS " + BookEntry._ID + ", "
+                + "b." + BookEntry.COLUMN_NAME + " AS " + BookEntry.COLUMN_NAME + ", "
+                + "b." + BookEntry.COLUMN_PRICE + " AS " + BookEntry.COLUMN_PRICE + ", "
+                + "b." + BookEntry.COLUMN_QUANTITY + " AS " + BookEntry.COLUMN_QUANTITY + ", "
+                + "b." + BookEntry.COLUMN_SUPPLIER_ID + " AS " + BookEntry.COLUMN_SUPPLIER_ID + ", "
+                + "s." + SupplierEntry.COLUMN_NAME + " AS " + BookEntry.COLUMN_SUPPLIER_NAME + ", "
+                + "s." + SupplierEntry.COLUMN_PHONE_NUMBER + " AS " + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ", "
+                + "b." + BookEntry.COLUMN_VERSION + " AS " + BookEntry.COLUMN_VERSION;
+    }
+
+    /**
+     * @return the columns of a ledger entry without its _ID, in the order the migration uses
+     */
+    static String ledgerColumns() {
+        return LedgerEntry.COLUMN_BOOK_ID + ", " + LedgerEntry.COLUMN_DELTA + ", "
+                + LedgerEntry.COLUMN_PRICE + ", " + LedgerEntry.COLUMN_TIMESTAMP + ", "
+                + LedgerEntry.COLUMN_REASON;
+    }
+
+    /**
+     * @return the assignments adding (operator "+") or subtracting (operator "-") the book given
+     * by the row prefix ("new." or "old.") to or from the statistics
+     */
+    private static String statsDelta(String operator, String row) {
+        return StatsEntry.COLUMN_TITLE_COUNT + " = " + StatsEntry.COLUMN_TITLE_COUNT + " " + operator + " 1, "
+                + StatsEntry.COLUMN_TOTAL_QUANTITY + " = " + StatsEntry.COLUMN_TOTAL_QUANTITY + " " + operator
+                + " " + row + BookEntry.COLUMN_QUANTITY + ", "
+                + StatsEntry.COLUMN_TOTAL_VALUE + " = " + StatsEntry.COLUMN_TOTAL_VALUE + " " + operator
+                + " " + row + BookEntry.COLUMN_PRICE + " * " + row + BookEntry.COLUMN_QUANTITY + ", "
+                + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " = " + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " " + operator
+                + " " + isOutOfStock(row) + ", "
+                + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT + " " + operator
+                + " " + isLowOnStock(row);
+    }
+
+    /**
+     * @return an expression that is 1 if the book given by the row prefix is out of stock, 0 if not
+     */
+    private static String isOutOfStock(String row) {
+        return "(" + row + BookEntry.COLUMN_QUANTITY + " = 0)";
+    }
+
+    /**
+     * @return an expression that is 1 if the book given by the row prefix is low on stock, 0 if not
+     */
+    private static String isLowOnStock(String row) {
+        return "(" + row + BookEntry.COLUMN_QUANTITY + " BETWEEN 1 AND " + StatsEntry.LOW_STOCK_THRESHOLD + ")";
     }
 }
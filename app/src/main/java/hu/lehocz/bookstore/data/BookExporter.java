@@ -0,0 +1,170 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.util.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+/**
+ * Writes the books to a CSV or JSON stream that {@link BookImporter} can read back. Books are
+ * written straight from the cursor as it is read, so the memory used doesn't depend on the
+ * number of books. Run exports on a background thread.
+ */
+public class BookExporter {
+
+    /**
+     * Columns of the exported books, in the order they are written. The _ID isn't exported,
+     * imported books get new ones.
+     */
+    public static final String[] COLUMNS = {
+            BookEntry.COLUMN_NAME,
+            BookEntry.COLUMN_PRICE,
+            BookEntry.COLUMN_QUANTITY,
+            BookEntry.COLUMN_SUPPLIER_NAME,
+            BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
+
+    private BookExporter() {
+    }
+
+    /**
+     * Export every book, in _ID order, as a UTF-8 CSV file with a header. The stream isn't
+     * closed.
+     *
+     * @return the number of books written
+     */
+    public static long exportCsv(ContentResolver contentResolver, OutputStream out) throws IOException {
+        Cursor cursor = queryBooks(contentResolver);
+        try {
+            return writeCsv(cursor, out);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Export every book, in _ID order, as a UTF-8 JSON array of objects. The stream isn't closed.
+     *
+     * @return the number of books written
+     */
+    public static long exportJson(ContentResolver contentResolver, OutputStream out) throws IOException {
+        Cursor cursor = queryBooks(contentResolver);
+        try {
+            return writeJson(cursor, out);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Write the rows of the cursor, which must hold the {@link #COLUMNS}, as CSV. Fields are
+     * quoted when they contain a comma, a quote or a line break.
+     *
+     * @return the number of books written
+     */
+    public static long writeCsv(Cursor cursor, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        int[] columnIndices = columnIndices(cursor);
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write("\r\n");
+
+        long count = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < columnIndices.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeCsvField(writer, cursor.getString(columnIndices[i]));
+            }
+            writer.write("\r\n");
+            count++;
+        }
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * Write the rows of the cursor, which must hold the {@link #COLUMNS}, as a JSON array of
+     * objects with the price and quantity as numbers.
+     *
+     * @return the number of books written
+     */
+    public static long writeJson(Cursor cursor, OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+        int[] columnIndices = columnIndices(cursor);
+        long count = 0;
+        writer.beginArray();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            writer.beginObject();
+            for (int i = 0; i < columnIndices.length; i++) {
+                writer.name(COLUMNS[i]);
+                if (cursor.isNull(columnIndices[i])) {
+                    writer.nullValue();
+                } else if (BookEntry.COLUMN_PRICE.equals(COLUMNS[i])
+                        || BookEntry.COLUMN_QUANTITY.equals(COLUMNS[i])) {
+                    writer.value(cursor.getLong(columnIndices[i]));
+                } else {
+                    writer.value(cursor.getString(columnIndices[i]));
+                }
+            }
+            writer.endObject();
+            count++;
+        }
+        writer.endArray();
+        writer.flush();
+        return count;
+    }
+
+    private static Cursor queryBooks(ContentResolver contentResolver) throws IOException {
+        Cursor cursor = contentResolver.query(BookEntry.CONTENT_URI, COLUMNS, null, null, BookEntry._ID);
+        if (cursor == null) {
+            throw new IOException("Books can't be queried");
+        }
+        return cursor;
+    }
+
+    private static int[] columnIndices(Cursor cursor) {
+        int[] columnIndices = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            columnIndices[i] = cursor.getColumnIndexOrThrow(COLUMNS[i]);
+        }
+        return columnIndices;
+    }
+
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+}
@@ -0,0 +1,285 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+/**
+ * Imports books from a CSV or JSON file, in the format written by {@link BookExporter}. The file
+ * is streamed: only the current record and one chunk of valid books are held in memory, so the
+ * memory used doesn't depend on the size of the file.
+ * <p>
+ * Every book is validated with the rules of the provider, and must have all of the
+ * {@link BookExporter#COLUMNS}. Invalid books are reported to the listener and skipped, the
+ * valid ones are inserted in chunks of a fixed size, each chunk in a single transaction. If the
+ * file turns out to be malformed, the chunks inserted up to that point stay in the database.
+ * Run imports on a background thread.
+ */
+public class BookImporter {
+
+    private static final String LOG_TAG = BookImporter.class.getSimpleName();
+
+    /**
+     * Number of books inserted in one transaction by default
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /**
+     * Follows the progress of an import.
+     */
+    public interface Listener {
+
+        /**
+         * Called after every chunk has been inserted.
+         *
+         * @param recordsRead   number of records read so far
+         * @param booksImported number of books inserted so far
+         */
+        void onProgress(long recordsRead, long booksImported);
+
+        /**
+         * Called for every record that isn't a valid book.
+         *
+         * @param position the line the record starts on in a CSV file, or the number of the
+         *                 object in a JSON file (starting at 1)
+         * @param reason   why the record has been rejected
+         */
+        void onRecordRejected(long position, String reason);
+    }
+
+    /**
+     * Counts of an import.
+     */
+    public static class Result {
+
+        public final long recordsRead;
+        public final long booksImported;
+        public final long recordsRejected;
+
+        Result(long recordsRead, long booksImported, long recordsRejected) {
+            this.recordsRead = recordsRead;
+            this.booksImported = booksImported;
+            this.recordsRejected = recordsRejected;
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+
+    private final int mChunkSize;
+
+    public BookImporter(ContentResolver contentResolver) {
+        this(contentResolver, DEFAULT_CHUNK_SIZE);
+    }
+
+    public BookImporter(ContentResolver contentResolver, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        mContentResolver = contentResolver;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Import a UTF-8 CSV file whose first record is a header naming the columns of the
+     * following records. Columns other than {@link BookExporter#COLUMNS} are ignored, empty
+     * lines are skipped. The stream isn't closed.
+     *
+     * @throws IOException if the file can't be read, its header lacks a column of a book or a
+     *                     quote isn't closed
+     */
+    public Result importCsv(InputStream in, Listener listener) throws IOException {
+        CsvReader reader = new CsvReader(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+        String[] header = reader.readRecord();
+        if (header == null) {
+            throw new IOException("Missing header");
+        }
+        // Position of every column of a book in the records
+        int[] fieldIndices = new int[BookExporter.COLUMNS.length];
+        for (int i = 0; i < fieldIndices.length; i++) {
+            fieldIndices[i] = Arrays.asList(header).indexOf(BookExporter.COLUMNS[i]);
+            if (fieldIndices[i] == -1) {
+                throw new IOException("Missing column " + BookExporter.COLUMNS[i] + " in header");
+            }
+        }
+
+        Chunk chunk = new Chunk(listener);
+        String[] record;
+        while ((record = reader.readRecord()) != null) {
+            if (record.length == 1 && record[0].isEmpty()) {
+                continue;
+            }
+            long line = reader.getRecordLine();
+            ContentValues values = new ContentValues();
+            String error = null;
+            for (int i = 0; i < fieldIndices.length && error == null; i++) {
+                int fieldIndex = fieldIndices[i];
+                String value = fieldIndex < record.length ? record[fieldIndex] : null;
+                error = put(values, BookExporter.COLUMNS[i], value);
+            }
+            chunk.add(line, values, error);
+        }
+        return chunk.finish();
+    }
+
+    /**
+     * Import a UTF-8 JSON file holding either an array of book objects or book objects one
+     * after the other (for instance one per line). The members of an object are the
+     * {@link BookExporter#COLUMNS}, others are ignored. The stream isn't closed.
+     *
+     * @throws IOException if the file can't be read or isn't valid JSON
+     */
+    public Result importJson(InputStream in, Listener listener) throws IOException {
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+        // Lenient, so a sequence of top level objects is accepted as well
+        reader.setLenient(true);
+
+        Chunk chunk = new Chunk(listener);
+        boolean array = reader.peek() == JsonToken.BEGIN_ARRAY;
+        if (array) {
+            reader.beginArray();
+        }
+        long position = 0;
+        while (array ? reader.hasNext() : reader.peek() != JsonToken.END_DOCUMENT) {
+            position++;
+            ContentValues values = new ContentValues();
+            String error = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (!Arrays.asList(BookExporter.COLUMNS).contains(name)) {
+                    reader.skipValue();
+                    continue;
+                }
+                String value;
+                switch (reader.peek()) {
+                    case STRING:
+                    case NUMBER:
+                        value = reader.nextString();
+                        break;
+                    case NULL:
+                        reader.nextNull();
+                        value = null;
+                        break;
+                    default:
+                        reader.skipValue();
+                        if (error == null) {
+                            error = "Invalid " + name;
+                        }
+                        continue;
+                }
+                String valueError = put(values, name, value);
+                if (error == null) {
+                    error = valueError;
+                }
+            }
+            reader.endObject();
+            for (String column : BookExporter.COLUMNS) {
+                if (error == null && !values.containsKey(column)) {
+                    error = "Missing " + column;
+                }
+            }
+            chunk.add(position, values, error);
+        }
+        if (array) {
+            reader.endArray();
+        }
+        return chunk.finish();
+    }
+
+    /**
+     * Put the value of a column read from the file into the values of a book, parsing the
+     * numeric columns.
+     *
+     * @return the reason the value is invalid, or null
+     */
+    private static String put(ContentValues values, String column, String value) {
+        if (value == null) {
+            return "Missing " + column;
+        }
+        if (BookEntry.COLUMN_PRICE.equals(column) || BookEntry.COLUMN_QUANTITY.equals(column)) {
+            try {
+                values.put(column, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                return "Invalid " + column + ": " + value;
+            }
+        } else {
+            values.put(column, value);
+        }
+        return null;
+    }
+
+    /**
+     * Collects the valid books and inserts them a chunk at a time.
+     */
+    private class Chunk {
+
+        private final Listener mListener;
+
+        private final ContentValues[] mBooks = new ContentValues[mChunkSize];
+        private int mSize;
+
+        private long mRecordsRead;
+        private long mBooksImported;
+        private long mRecordsRejected;
+
+        Chunk(Listener listener) {
+            mListener = listener;
+        }
+
+        /**
+         * Add a book read from the file, inserting the chunk once it's full.
+         *
+         * @param error the reason the book couldn't be read, or null
+         */
+        void add(long position, ContentValues values, String error) {
+            mRecordsRead++;
+            if (error == null) {
+                error = BookValidator.validateInsert(values);
+            }
+            if (error != null) {
+                mRecordsRejected++;
+                mListener.onRecordRejected(position, error);
+                return;
+            }
+            mBooks[mSize++] = values;
+            if (mSize == mBooks.length) {
+                insert();
+            }
+        }
+
+        Result finish() {
+            if (mSize > 0) {
+                insert();
+            }
+            return new Result(mRecordsRead, mBooksImported, mRecordsRejected);
+        }
+
+        private void insert() {
+            ContentValues[] books = mSize == mBooks.length ? mBooks : Arrays.copyOf(mBooks, mSize);
+            int inserted;
+            try {
+                inserted = mContentResolver.bulkInsert(BookEntry.CONTENT_URI, books);
+            } catch (SQLException e) {
+                // Refused by the database, which rolled back the whole chunk
+                Log.w(LOG_TAG, mSize + " books of a chunk couldn't be inserted", e);
+                inserted = 0;
+            }
+            mRecordsRejected += mSize - inserted;
+            mBooksImported += inserted;
+            Arrays.fill(mBooks, null);
+            mSize = 0;
+            mListener.onProgress(mRecordsRead, mBooksImported);
+        }
+    }
+}
@@ -1,14 +1,29 @@
 package hu.lehocz.bookstore.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.support.v4.os.TraceCompat;
+import android.text.TextUtils;
 import android.util.Log;
 
+import java.util.ArrayList;
+
 /**
  * {@link ContentProvider} for Pets app.
  */
@@ -19,6 +34,21 @@ public class BookProvider extends ContentProvider {
      */
     private BookDbHelper mDbHelper;
 
+    /**
+     * Precompiled statements of the most frequent writes
+     */
+    private BookStatementCache mStatements;
+
+    /**
+     * Group commits the quantity adjustments
+     */
+    private SalesLedger mLedger;
+
+    /**
+     * Recently read single books, invalidated by every write
+     */
+    private final BookRowCache mRowCache = new BookRowCache(BookRowCache.DEFAULT_MAX_SIZE);
+
     /**
      * Tag for the log messages
      */
@@ -35,6 +65,31 @@ public class BookProvider extends ContentProvider {
      */
     private static final int BOOK_ID = 101;
 
+    /**
+     * URI matcher code for the full-text search URI of the books table
+     */
+    private static final int SEARCH = 102;
+
+    /**
+     * URI matcher code for the inventory statistics
+     */
+    private static final int STATS = 103;
+
+    /**
+     * URI matcher code for the sales ledger
+     */
+    private static final int LEDGER = 104;
+
+    /**
+     * URI matcher code for the content URI for the suppliers table
+     */
+    private static final int SUPPLIERS = 105;
+
+    /**
+     * URI matcher code for the content URI for a single supplier in the suppliers table
+     */
+    private static final int SUPPLIER_ID = 106;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -42,6 +97,30 @@ public class BookProvider extends ContentProvider {
      */
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
+    /**
+     * Names of the URIs in the operation metrics, by URI matcher code minus {@link #BOOKS}
+     */
+    private static final String[] URI_NAMES = {
+            "books", "book", "search", "stats", "ledger", "suppliers", "supplier"};
+
+    /**
+     * Order of the search results of the same rank, which the page keys follow
+     */
+    private static final String SEARCH_ORDER =
+            BookContract.BookEntry.COLUMN_NAME + ", " + BookContract.BookEntry._ID;
+
+    /**
+     * Counts and latencies of the operations by URI
+     */
+    private final ProviderMetrics mMetrics = new ProviderMetrics(URI_NAMES);
+
+    /**
+     * Set while {@link #applyBatch(ArrayList)} runs on the current thread. Null outside a batch,
+     * FALSE inside a batch that hasn't changed anything yet and TRUE once a change notification
+     * has been held back, so that the batch can send a single notification at the end.
+     */
+    private final ThreadLocal<Boolean> mBatchChanged = new ThreadLocal<>();
+
     // Static initializer. This is run the first time anything is called from this class.
     static {
         // The calls to addURI() go here, for all of the content URI patterns that the provider
@@ -51,6 +130,13 @@ public class BookProvider extends ContentProvider {
         // TODO: Add 2 content URIs to URI matcher
         sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKS, BOOKS);
         sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKS + "/#", BOOK_ID);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_SEARCH, SEARCH);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_STATS, STATS);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_LEDGER, LEDGER);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_SUPPLIERS, SUPPLIERS);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_SUPPLIERS + "/#", SUPPLIER_ID);
     }
 
     /**
@@ -64,12 +150,26 @@ public class BookProvider extends ContentProvider {
         // Make sure the variable is a global variable, so it can be referenced from other
         // ContentProvider methods.
         mDbHelper = new BookDbHelper(getContext());
+        mStatements = new BookStatementCache(mDbHelper);
+        mLedger = new SalesLedger(mDbHelper, mStatements);
         return true;
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * From Jelly Bean the resolver calls this with the cancellation signal of the caller, which
+     * aborts a search inside SQLite once the caller has lost interest in its results, like when
+     * the search terms have been typed further. Before Jelly Bean it's only called by the
+     * method above, without a signal.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -78,75 +178,465 @@ public class BookProvider extends ContentProvider {
 
         // Figure out if the URI matcher can match the URI to a specific code
         int match = sUriMatcher.match(uri);
-        Log.i("match", String.valueOf(match));
+        long start = System.nanoTime();
         switch (match) {
             case BOOKS:
-                // For the PETS code, query the books table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the books table.
-                cursor = database.query(BookContract.BookEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // For the PETS code, query the books joined with their suppliers with the given
+                // projection, selection, selection arguments, and sort order, narrowed and
+                // ordered by the query parameters. The cursor could contain multiple rows of
+                // the books table.
+                cursor = queryBooks(database, uri, projection, selection, selectionArgs, sortOrder);
+                uri = BookContract.BookEntry.CONTENT_URI;
                 break;
             case BOOK_ID:
-                selection = BookContract.BookEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-
-                // This will perform a query on the books table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(BookContract.BookEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                long id = ContentUris.parseId(uri);
+                cursor = mRowCache.get(id, projection);
+                if (cursor == null) {
+                    cursor = queryBook(database, id, projection);
+                }
+                // A single book is notified through its change URI
+                uri = rowChangeUri(id);
+                break;
+            case SEARCH:
+                cursor = searchBooks(database, uri, projection, cancellationSignal);
+                // Search results change whenever any book changes
+                uri = BookContract.BookEntry.CONTENT_URI;
+                break;
+            case STATS:
+                // A single row kept up to date by triggers, no need to look at the books
+                cursor = database.query(BookContract.StatsEntry.TABLE_NAME, projection, null, null,
+                        null, null, null);
+                // Every change of the stock is notified on a row change URI, while the list
+                // URI isn't notified for quantity changes
+                uri = BookContract.BookEntry.ROW_CHANGES_URI;
+                break;
+            case LEDGER:
+                if (sortOrder == null) {
+                    sortOrder = BookContract.LedgerEntry._ID;
+                }
+                cursor = database.query(BookContract.LedgerEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                // Entries are only appended along with a change of a book
+                uri = BookContract.BookEntry.ROW_CHANGES_URI;
+                break;
+            case SUPPLIERS:
+                cursor = database.query(BookContract.SupplierEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                // Suppliers come and go with the books naming them, which notify the list
+                uri = BookContract.BookEntry.CONTENT_URI;
+                break;
+            case SUPPLIER_ID:
+                cursor = database.query(BookContract.SupplierEntry.TABLE_NAME, projection,
+                        BookContract.SupplierEntry._ID + "=?",
+                        new String[]{String.valueOf(ContentUris.parseId(uri))}, null, null, null);
+                uri = BookContract.BookEntry.CONTENT_URI;
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // Counting fills the cursor window, so the time covers running the query. The loaders
+        // and the binder transport count the cursor right away anyway.
+        mMetrics.record(ProviderMetrics.QUERY, match - BOOKS, cursor.getCount(),
+                System.nanoTime() - start);
         return cursor;
     }
 
     /**
-     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     * Query a single book from the database, caching its row if the projection can be served
+     * from the row cache later.
      */
-    @Override
-    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
-        return updateBook(uri, contentValues, selection, selectionArgs);
+    private Cursor queryBook(SQLiteDatabase database, long id, String[] projection) {
+        String selection = BookContract.BookEntry._ID + "=?";
+        String[] selectionArgs = new String[]{String.valueOf(id)};
+        if (!BookRowCache.isCacheable(projection)) {
+            return database.query(BookDbHelper.VIEW_BOOKS, projection, selection, selectionArgs,
+                    null, null, null);
+        }
+
+        // Read before the query, so a write committed meanwhile keeps the row out of the cache
+        long generation = mRowCache.getGeneration();
+        Cursor cursor = database.query(BookDbHelper.VIEW_BOOKS, BookRowCache.COLUMNS,
+                selection, selectionArgs, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return new MatrixCursor(projection == null ? BookRowCache.COLUMNS : projection, 0);
+            }
+            Object[] row = BookRowCache.readRow(cursor);
+            mRowCache.put(id, row, generation);
+            return BookRowCache.toCursor(row, projection);
+        } finally {
+            cursor.close();
+        }
     }
 
+    /**
+     * Query the books in the order and within the price and quantity ranges given by the query
+     * parameters of the URI, only a single page of them if the URI asks for one. The parameters
+     * are validated and turned into bound arguments, callers never get to pass SQL through
+     * them.
+     */
+    private Cursor queryBooks(SQLiteDatabase database, Uri uri, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder) {
+        String sort = uri.getQueryParameter(BookContract.QUERY_PARAMETER_SORT);
+        if (sort != null && sortOrder != null) {
+            throw new IllegalArgumentException("Sort order and sort parameter can't be combined " + uri);
+        }
+        String sortColumn = parseSortColumn(uri, sort);
+        // Sorting by supplier reads the suppliers in the order of their name index first
+        String table = BookContract.SORT_SUPPLIER.equals(sort)
+                ? BookDbHelper.VIEW_BOOKS_BY_SUPPLIER : BookDbHelper.VIEW_BOOKS;
+
+        Selection where = new Selection(selection, selectionArgs);
+        where.andRange(uri, BookContract.BookEntry.COLUMN_PRICE,
+                BookContract.QUERY_PARAMETER_MIN_PRICE, BookContract.QUERY_PARAMETER_MAX_PRICE);
+        where.andRange(uri, BookContract.BookEntry.COLUMN_QUANTITY,
+                BookContract.QUERY_PARAMETER_MIN_QUANTITY, BookContract.QUERY_PARAMETER_MAX_QUANTITY);
+
+        if (uri.getQueryParameter(BookContract.QUERY_PARAMETER_LIMIT) == null) {
+            if (sort != null) {
+                sortOrder = sortColumn + ", " + BookContract.BookEntry._ID;
+            }
+            return database.query(table, projection, where.clause, where.args, null, null, sortOrder);
+        }
+        return queryPage(database, uri, table, sortColumn, projection, where);
+    }
 
     /**
-     * Update books in the database with the given content values. Apply the changes to the rows
-     * specified in the selection and selection arguments (which could be 0 or 1 or more books).
-     * Return the number of rows that were successfully updated.
+     * Query a single page of books, ordered by the sort column and _ID. The page starts after
+     * the key given in the URI, which the index of the sort column can seek to directly instead
+     * of skipping the rows of the previous pages like an OFFSET would.
      */
+    private Cursor queryPage(SQLiteDatabase database, Uri uri, String table, String sortColumn,
+                             String[] projection, Selection where) {
+        int pageSize = parsePositiveInt(uri, BookContract.QUERY_PARAMETER_LIMIT);
+        String afterValue = uri.getQueryParameter(BookContract.QUERY_PARAMETER_AFTER_VALUE);
+        String afterId = uri.getQueryParameter(BookContract.QUERY_PARAMETER_AFTER_ID);
 
-    private int updateBook(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        if (afterValue != null || afterId != null) {
+            if (afterValue == null || afterId == null) {
+                throw new IllegalArgumentException("Page key requires both value and id " + uri);
+            }
+            if (!BookContract.BookEntry.COLUMN_NAME.equals(sortColumn)
+                    && !BookContract.BookEntry.COLUMN_SUPPLIER_NAME.equals(sortColumn)) {
+                // Numeric column, compared as a number
+                afterValue = String.valueOf(parseLong(uri, afterValue));
+            }
+            // column >= ? lets the index seek to the key, the rest skips the books up to and
+            // including the last one of the previous page
+            where.and(sortColumn + " >= ? AND (" + sortColumn + " > ? OR "
+                            + BookContract.BookEntry._ID + " > ?)",
+                    afterValue, afterValue, String.valueOf(parseLong(uri, afterId)));
+        }
+
+        return database.query(table, projection, where.clause, where.args,
+                null, null, sortColumn + ", " + BookContract.BookEntry._ID,
+                String.valueOf(pageSize));
+    }
 
-        // If the {@link PetEntry#COLUMN_PET_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey(BookContract.BookEntry.COLUMN_NAME)) {
-            String name = values.getAsString(BookContract.BookEntry.COLUMN_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Book requires a name");
+    /**
+     * @return the column the given value of the sort parameter orders the books by
+     */
+    private static String parseSortColumn(Uri uri, String sort) {
+        if (sort == null || BookContract.SORT_NAME.equals(sort)) {
+            return BookContract.BookEntry.COLUMN_NAME;
+        } else if (BookContract.SORT_PRICE.equals(sort)) {
+            return BookContract.BookEntry.COLUMN_PRICE;
+        } else if (BookContract.SORT_QUANTITY.equals(sort)) {
+            return BookContract.BookEntry.COLUMN_QUANTITY;
+        } else if (BookContract.SORT_SUPPLIER.equals(sort)) {
+            return BookContract.BookEntry.COLUMN_SUPPLIER_NAME;
+        }
+        throw new IllegalArgumentException("Invalid " + BookContract.QUERY_PARAMETER_SORT + " in " + uri);
+    }
+
+    /**
+     * A selection and its arguments, which further conditions can be added to.
+     */
+    private static class Selection {
+
+        String clause;
+        String[] args;
+
+        Selection(String clause, String[] args) {
+            this.clause = TextUtils.isEmpty(clause) ? null : clause;
+            this.args = args;
+        }
+
+        /**
+         * Add a condition that has to hold as well.
+         */
+        void and(String condition, String... conditionArgs) {
+            if (clause == null) {
+                clause = condition;
+                args = conditionArgs;
+            } else {
+                clause = "(" + clause + ") AND " + condition;
+                args = concat(args, conditionArgs);
+            }
+        }
+
+        /**
+         * Add the range of the given column limited by the given minimum and maximum query
+         * parameters of the URI, if they are present.
+         */
+        void andRange(Uri uri, String column, String minParameter, String maxParameter) {
+            if (uri.getQueryParameter(minParameter) != null) {
+                and(column + " >= ?", String.valueOf(parseNonNegativeInt(uri, minParameter)));
+            }
+            if (uri.getQueryParameter(maxParameter) != null) {
+                and(column + " <= ?", String.valueOf(parseNonNegativeInt(uri, maxParameter)));
+            }
+        }
+    }
+
+    private static int parsePositiveInt(Uri uri, String parameter) {
+        try {
+            int value = Integer.parseInt(uri.getQueryParameter(parameter));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid " + parameter + " in " + uri);
+    }
+
+    private static int parseNonNegativeInt(Uri uri, String parameter) {
+        try {
+            int value = Integer.parseInt(uri.getQueryParameter(parameter));
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid " + parameter + " in " + uri);
+    }
+
+    private static long parseLong(Uri uri, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number " + value + " in " + uri);
+        }
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        if (first == null) {
+            return second;
+        }
+        String[] result = new String[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    /**
+     * Find the books whose name or supplier name contains words starting with every word of
+     * the search terms, using the full-text index. Books matching by name are ranked before
+     * the ones matching only by supplier, then they are ordered by name and _ID.
+     * Empty search terms return every book.
+     * <p>
+     * With a {@link BookContract#QUERY_PARAMETER_LIMIT} only a page of the results is returned,
+     * starting after the book given by the name and _ID of the page key, as on the books URI.
+     * Each rank is queried on its own, in a compound statement that stops once the page is
+     * full, so a short prefix matching most of the books only sorts the books matching by name,
+     * without ranking every match first, and only the page fills the cursor. Every row ends
+     * with its rank, which the page key of the next page takes.
+     */
+    private Cursor searchBooks(SQLiteDatabase database, Uri uri, String[] projection,
+                               CancellationSignal cancellationSignal) {
+        String columns = projection == null ? "*" : TextUtils.join(", ", projection);
+        String matchExpression = buildMatchExpression(
+                uri.getQueryParameter(BookContract.QUERY_PARAMETER_SEARCH));
+        String limit = uri.getQueryParameter(BookContract.QUERY_PARAMETER_LIMIT) == null ? null
+                : String.valueOf(parsePositiveInt(uri, BookContract.QUERY_PARAMETER_LIMIT));
+        String afterValue = uri.getQueryParameter(BookContract.QUERY_PARAMETER_AFTER_VALUE);
+        String afterId = uri.getQueryParameter(BookContract.QUERY_PARAMETER_AFTER_ID);
+        if ((afterValue == null) != (afterId == null)) {
+            throw new IllegalArgumentException("Page key requires both value and id " + uri);
+        }
+        Long lastId = afterId == null ? null : parseLong(uri, afterId);
+        Integer lastRank = null;
+        if (uri.getQueryParameter(BookContract.QUERY_PARAMETER_AFTER_RANK) != null) {
+            lastRank = parseNonNegativeInt(uri, BookContract.QUERY_PARAMETER_AFTER_RANK);
+            if (lastRank > 1) {
+                throw new IllegalArgumentException("Invalid "
+                        + BookContract.QUERY_PARAMETER_AFTER_RANK + " in " + uri);
             }
         }
 
-        // If the {@link PetEntry#COLUMN_PET_WEIGHT} key is present,
-        // check that the weight value is valid.
-        if (values.containsKey(BookContract.BookEntry.COLUMN_PRICE)) {
-            // Check that the price is greater than or equal to 0
-            Integer price = values.getAsInteger(BookContract.BookEntry.COLUMN_PRICE);
-            if (price != null && price < 0) {
-                throw new IllegalArgumentException("Book requires valid price");
+        if (matchExpression == null) {
+            Selection page = searchPage(null, null, afterValue, lastId);
+            return rawQuery(database, searchSelect(columns, 0)
+                            + (page.clause == null ? "" : " WHERE " + page.clause)
+                            + " ORDER BY " + SEARCH_ORDER + (limit == null ? "" : " LIMIT " + limit),
+                    page.args, cancellationSignal);
+        }
+
+        String nameMatches = BookContract.BookEntry._ID + " IN (SELECT docid FROM "
+                + BookDbHelper.TABLE_BOOKS_FTS + " WHERE " + BookContract.BookEntry.COLUMN_NAME
+                + " MATCH ?)";
+        String anyMatches = BookContract.BookEntry._ID + " IN (SELECT docid FROM "
+                + BookDbHelper.TABLE_BOOKS_FTS + " WHERE " + BookDbHelper.TABLE_BOOKS_FTS
+                + " MATCH ?)";
+        if (lastId != null && lastRank == null) {
+            lastRank = searchRank(database, lastId, matchExpression);
+        }
+        ArrayList<Selection> ranks = new ArrayList<>(2);
+        if (lastId == null || lastRank == 0) {
+            ranks.add(searchPage(nameMatches, new String[]{matchExpression}, afterValue, lastId));
+            // The books matching only by supplier follow from the first one
+            afterValue = null;
+            lastId = null;
+        }
+        ranks.add(searchPage(anyMatches + " AND NOT " + nameMatches,
+                new String[]{matchExpression, matchExpression}, afterValue, lastId));
+
+        StringBuilder sql = new StringBuilder();
+        String[] args = null;
+        for (int i = 0; i < ranks.size(); i++) {
+            Selection rank = ranks.get(i);
+            if (sql.length() > 0) {
+                sql.append(" UNION ALL ");
+            }
+            // Without an ORDER BY of its own, the compound returns its parts one after the
+            // other and doesn't start the second one once the first has filled the page. The
+            // name matches are left out when the page starts among the other matches.
+            sql.append("SELECT * FROM (").append(searchSelect(columns, i + 2 - ranks.size()))
+                    .append(" WHERE ").append(rank.clause)
+                    .append(" ORDER BY ").append(SEARCH_ORDER);
+            if (limit != null) {
+                sql.append(" LIMIT ").append(limit);
             }
+            sql.append(")");
+            args = concat(args, rank.args);
+        }
+        if (limit != null) {
+            sql.append(" LIMIT ").append(limit);
+        }
+        return rawQuery(database, sql.toString(), args, cancellationSignal);
+    }
+
+    /**
+     * @return the start of a query of the given columns of the books, followed by the given
+     * rank as {@link BookContract.BookEntry#COLUMN_SEARCH_RANK}
+     */
+    private static String searchSelect(String columns, int rank) {
+        return "SELECT " + columns + ", " + rank + " AS " + BookContract.BookEntry.COLUMN_SEARCH_RANK
+                + " FROM " + BookDbHelper.VIEW_BOOKS;
+    }
+
+    /**
+     * @return the given condition, and the books after the given page key if there is one
+     */
+    private static Selection searchPage(String condition, String[] conditionArgs,
+                                        String afterValue, Long lastId) {
+        Selection selection = new Selection(condition, conditionArgs);
+        if (lastId != null) {
+            // As on the books URI, name >= ? lets the index seek to the key
+            selection.and(BookContract.BookEntry.COLUMN_NAME + " >= ? AND ("
+                            + BookContract.BookEntry.COLUMN_NAME + " > ? OR "
+                            + BookContract.BookEntry._ID + " > ?)",
+                    afterValue, afterValue, String.valueOf(lastId));
+        }
+        return selection;
+    }
+
+    /**
+     * @return the rank of the given book among the search results of the match expression:
+     * 0 if its name matches, 1 otherwise. A book that no longer exists gets 0, so a page
+     * starting after it can at worst repeat books, and never skips the name matches after it.
+     */
+    private static int searchRank(SQLiteDatabase database, long id, String matchExpression) {
+        if (DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM "
+                + BookDbHelper.TABLE_BOOKS_FTS + " WHERE docid = " + id, null) == 0) {
+            return 0;
         }
+        // +docid keeps the index from looking the row up by docid instead of matching. Having
+        // no affinity, it has to be compared with a number rather than a bound string.
+        long count = DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM "
+                        + BookDbHelper.TABLE_BOOKS_FTS + " WHERE " + BookContract.BookEntry.COLUMN_NAME
+                        + " MATCH ? AND +docid = " + id,
+                new String[]{matchExpression});
+        return count > 0 ? 0 : 1;
+    }
 
-        // If the {@link PetEntry#COLUMN_PET_WEIGHT} key is present,
-        // check that the weight value is valid.
-        if (values.containsKey(BookContract.BookEntry.COLUMN_QUANTITY)) {
-            // Check that the price is greater than or equal to 0
-            Integer quantity = values.getAsInteger(BookContract.BookEntry.COLUMN_QUANTITY);
-            if (quantity != null && quantity < 0) {
-                throw new IllegalArgumentException("Book requires valid quantity");
+    /**
+     * Run the query, which stops with an {@link android.os.OperationCanceledException} once
+     * the signal is canceled, if there is one.
+     */
+    private static Cursor rawQuery(SQLiteDatabase database, String sql, String[] selectionArgs,
+                                   CancellationSignal cancellationSignal) {
+        // There is only a signal from Jelly Bean on anyway
+        if (cancellationSignal != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return database.rawQuery(sql, selectionArgs, cancellationSignal);
+        }
+        return database.rawQuery(sql, selectionArgs);
+    }
+
+    /**
+     * Turn the search terms typed by the user into a full-text match expression that matches
+     * every word as a prefix. Each word is quoted, so characters with a meaning in the query
+     * syntax (like OR or -) are searched for as they are.
+     *
+     * @return the match expression, or null if there is nothing to search for
+     */
+    private static String buildMatchExpression(String searchTerms) {
+        StringBuilder expression = new StringBuilder();
+        for (String word : BookSearch.words(searchTerms)) {
+            if (expression.length() > 0) {
+                expression.append(' ');
             }
+            expression.append('"').append(word).append("*\"");
+        }
+        return expression.length() == 0 ? null : expression.toString();
+    }
+
+    /**
+     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     */
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        int rowsUpdated;
+        switch (match) {
+            case BOOK_ID:
+                rowsUpdated = updateBook(uri, contentValues);
+                break;
+            case SUPPLIER_ID:
+                rowsUpdated = updateSupplier(uri, contentValues);
+                break;
+            default:
+                throw new IllegalArgumentException("Update is not supported for " + uri);
+        }
+        mMetrics.record(ProviderMetrics.UPDATE, match - BOOKS, rowsUpdated, System.nanoTime() - start);
+        return rowsUpdated;
+    }
+
+
+    /**
+     * Update a book in the database with the given content values. If they hold the version of
+     * the book (see {@link BookContract.BookEntry#COLUMN_VERSION}), the book is only updated if
+     * it still has that version. Every update increments the version in the same statement.
+     * Return the number of rows that were successfully updated, 0 if the book doesn't exist or
+     * has another version.
+     */
+    private int updateBook(Uri uri, ContentValues values) {
+
+        // Check that the name isn't removed and the price and quantity are valid
+        String error = BookValidator.validateUpdate(values);
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+
+        // The version is the condition of the update, not one of its values
+        Long expectedVersion = values.getAsLong(BookContract.BookEntry.COLUMN_VERSION);
+        if (expectedVersion != null) {
+            values = new ContentValues(values);
+            values.remove(BookContract.BookEntry.COLUMN_VERSION);
         }
 
         // If there are no values to update, then don't try to update the database
@@ -157,20 +647,157 @@ public class BookProvider extends ContentProvider {
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // TODO: Update the selected books in the books database table with the given ContentValues
-        selection = BookContract.BookEntry._ID + "=?";
-        selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-        int update = database.update(BookContract.BookEntry.TABLE_NAME, values, selection, selectionArgs);
-
-        // TODO: Return the number of rows that were affected
+        long id = ContentUris.parseId(uri);
+        int update;
+        if (values.size() == 1 && values.getAsInteger(BookContract.BookEntry.COLUMN_QUANTITY) != null) {
+            // Setting the quantity alone is the most frequent update, use its compiled statement
+            update = mStatements.updateQuantity(database, id,
+                    values.getAsInteger(BookContract.BookEntry.COLUMN_QUANTITY), expectedVersion);
+        } else {
+            // Resolving the supplier and updating the book commit together
+            database.beginTransaction();
+            try {
+                update = updateBookRow(database, toBookRow(database, values, id), id, expectedVersion);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
 
         if (update > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            mRowCache.invalidate(id);
+            // Changing the name or supplier may move the book in the list and in the search
+            // results, other changes only concern the book itself
+            if (values.containsKey(BookContract.BookEntry.COLUMN_NAME)
+                    || values.containsKey(BookContract.BookEntry.COLUMN_SUPPLIER_NAME)
+                    || values.containsKey(BookContract.BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER)) {
+                notifyChange(BookContract.BookEntry.CONTENT_URI);
+            }
+            notifyChange(rowChangeUri(id));
         }
 
         return update;
     }
 
+    /**
+     * Update the columns of the books table given by the row and increment the version of the
+     * book, only if it still has the expected version, if given. SQLiteDatabase.update() can
+     * only set values, not increment a column, so the statement is built here.
+     *
+     * @return the number of rows updated
+     */
+    private static int updateBookRow(SQLiteDatabase database, ContentValues row, long id,
+                                     Long expectedVersion) {
+        StringBuilder sql = new StringBuilder("UPDATE " + BookContract.BookEntry.TABLE_NAME + " SET ");
+        Object[] bindArgs = new Object[row.size() + 2];
+        int i = 0;
+        for (String column : row.keySet()) {
+            sql.append(column).append(" = ?, ");
+            bindArgs[i++] = row.get(column);
+        }
+        sql.append(BookContract.BookEntry.COLUMN_VERSION).append(" = ")
+                .append(BookContract.BookEntry.COLUMN_VERSION).append(" + 1 WHERE ")
+                .append(BookContract.BookEntry._ID).append(" = ?");
+        bindArgs[i++] = id;
+        if (expectedVersion != null) {
+            sql.append(" AND ").append(BookContract.BookEntry.COLUMN_VERSION).append(" = ?");
+            bindArgs[i++] = expectedVersion;
+        }
+
+        SQLiteStatement statement = database.compileStatement(sql.toString());
+        try {
+            for (int j = 0; j < i; j++) {
+                DatabaseUtils.bindObjectToProgram(statement, j + 1, bindArgs[j]);
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Replace the supplier name and phone number in the values of a book with the _ID of the
+     * supplier, which is added if it's new. When only one of them is given, the other one is
+     * taken from the current supplier of the book. Values without either are returned as they
+     * are.
+     *
+     * @param id of the book being updated, or -1 for a new book
+     */
+    private ContentValues toBookRow(SQLiteDatabase database, ContentValues values, long id) {
+        boolean hasName = values.containsKey(BookContract.BookEntry.COLUMN_SUPPLIER_NAME);
+        boolean hasPhoneNumber = values.containsKey(BookContract.BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+        if (!hasName && !hasPhoneNumber) {
+            return values;
+        }
+
+        ContentValues row = new ContentValues(values);
+        String name = row.getAsString(BookContract.BookEntry.COLUMN_SUPPLIER_NAME);
+        String phoneNumber = row.getAsString(BookContract.BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+        row.remove(BookContract.BookEntry.COLUMN_SUPPLIER_NAME);
+        row.remove(BookContract.BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+        if ((!hasName || !hasPhoneNumber) && id != -1) {
+            Cursor cursor = database.query(BookDbHelper.VIEW_BOOKS, new String[]{
+                            BookContract.BookEntry.COLUMN_SUPPLIER_NAME,
+                            BookContract.BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER},
+                    BookContract.BookEntry._ID + "=?", new String[]{String.valueOf(id)}, null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    name = hasName ? name : cursor.getString(0);
+                    phoneNumber = hasPhoneNumber ? phoneNumber : cursor.getString(1);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        long supplierId = mStatements.getSupplierId(database, name, phoneNumber);
+        if (supplierId == -1) {
+            // Refused by the NOT NULL constraint, like a missing supplier column used to be
+            row.putNull(BookContract.BookEntry.COLUMN_SUPPLIER_ID);
+        } else {
+            row.put(BookContract.BookEntry.COLUMN_SUPPLIER_ID, supplierId);
+        }
+        return row;
+    }
+
+    /**
+     * Update the name or phone number of a supplier, which changes them for every book of the
+     * supplier with a single row write.
+     *
+     * @return the number of rows updated
+     */
+    private int updateSupplier(Uri uri, ContentValues values) {
+        if (values.containsKey(BookContract.SupplierEntry.COLUMN_NAME)
+                && values.getAsString(BookContract.SupplierEntry.COLUMN_NAME) == null) {
+            throw new IllegalArgumentException("Supplier requires a name");
+        }
+        if (values.containsKey(BookContract.SupplierEntry.COLUMN_PHONE_NUMBER)
+                && values.getAsString(BookContract.SupplierEntry.COLUMN_PHONE_NUMBER) == null) {
+            throw new IllegalArgumentException("Supplier requires a phone number");
+        }
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int update;
+        try {
+            update = database.update(BookContract.SupplierEntry.TABLE_NAME, values,
+                    BookContract.SupplierEntry._ID + "=?",
+                    new String[]{String.valueOf(ContentUris.parseId(uri))});
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("Supplier already exists: " + values, e);
+        }
+
+        if (update > 0) {
+            // Every book of the supplier changed
+            mRowCache.invalidateAll();
+            notifyChange(BookContract.BookEntry.CONTENT_URI);
+            notifyChange(BookContract.BookEntry.ROW_CHANGES_URI);
+        }
+        return update;
+    }
+
 
     /**
      * Insert new data into the provider with the given ContentValues.
@@ -180,7 +807,11 @@ public class BookProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
-                return insertBook(uri, contentValues);
+                long start = System.nanoTime();
+                Uri bookUri = insertBook(uri, contentValues);
+                mMetrics.record(ProviderMetrics.INSERT, match - BOOKS, bookUri == null ? 0 : 1,
+                        System.nanoTime() - start);
+                return bookUri;
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -191,26 +822,11 @@ public class BookProvider extends ContentProvider {
      * for that specific row in the database.
      */
     private Uri insertBook(Uri uri, ContentValues values) {
-
-        // TODO: Insert a new book into the books database table with the given ContentValues
-
-        // Check that the name is not null
-        String name = values.getAsString(BookContract.BookEntry.COLUMN_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Book requires a name");
-        }
-
-        // If the price is provided, check that it's greater than or equal to 0 kg
-        Integer price = values.getAsInteger(BookContract.BookEntry.COLUMN_PRICE);
-        if (price != null && price < 0) {
-            throw new IllegalArgumentException("Book requires valid price");
-        }
-
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Insert the new book with the given values
-        long id = database.insert(BookContract.BookEntry.TABLE_NAME, null, values);
+        long id = insertBook(database, values);
 
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
@@ -220,9 +836,130 @@ public class BookProvider extends ContentProvider {
 
         // Once we know the ID of the new row in the table,
         // return the new URI with the ID appended to the end of it
-        getContext().getContentResolver().notifyChange(uri, null);
+        mRowCache.invalidate(id);
+        notifyChange(uri);
+        notifyChange(rowChangeUri(id));
         return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Validate the given content values and insert them as a new book. Does not send any change
+     * notification, so it can be shared by single and batched inserts.
+     *
+     * @return the ID of the new row, or -1 if the insertion failed
+     */
+    private long insertBook(SQLiteDatabase database, ContentValues values) {
+        // Check that the name is not null and the price and quantity are valid
+        String error = BookValidator.validateInsert(values);
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
 
+        if (BookStatementCache.isFullRow(values)) {
+            return mStatements.insertBook(database, values);
+        }
+        database.beginTransaction();
+        try {
+            long id = database.insert(BookContract.BookEntry.TABLE_NAME, null, toBookRow(database, values, -1));
+            database.setTransactionSuccessful();
+            return id;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Insert a batch of books inside a single transaction. Either every row is inserted or, if
+     * one of them fails validation (IllegalArgumentException) or is refused by the database
+     * ({@link SQLException}), none of them is. Observers are notified once at the end instead
+     * of once per row. A single commit also means a single sync of the journal, which dominates
+     * the cost of a row inserted on its own.
+     *
+     * @return the number of rows inserted, which is every row
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        if (match != BOOKS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        long start = System.nanoTime();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsInserted = 0;
+        database.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (insertBook(database, value) == -1) {
+                    // Rolls back the rows inserted before it
+                    throw new SQLException("Failed to insert row " + rowsInserted + " for " + uri);
+                }
+                rowsInserted++;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mMetrics.record(ProviderMetrics.BULK_INSERT, match - BOOKS, rowsInserted, System.nanoTime() - start);
+
+        if (rowsInserted > 0) {
+            notifyChange(uri);
+            notifyChange(BookContract.BookEntry.ROW_CHANGES_URI);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Apply a batch of insert, update and delete operations inside a single transaction, so the
+     * whole batch is committed (or rolled back) at once. The individual operations go through
+     * the regular insert/update/delete paths and therefore share their validation, but their
+     * change notifications are collapsed into a single one sent after the commit.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+        boolean changed;
+        mBatchChanged.set(Boolean.FALSE);
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            changed = Boolean.TRUE.equals(mBatchChanged.get());
+            mBatchChanged.remove();
+        }
+
+        // Only reached when the batch was committed
+        if (changed) {
+            // The operations invalidated their rows before the commit, when other threads could
+            // still read and cache the old values
+            mRowCache.invalidateAll();
+            notifyChange(BookContract.BookEntry.CONTENT_URI);
+            notifyChange(BookContract.BookEntry.ROW_CHANGES_URI);
+        }
+        return results;
+    }
+
+    /**
+     * @return the URI notified when the given book changes
+     */
+    private static Uri rowChangeUri(long id) {
+        return ContentUris.withAppendedId(BookContract.BookEntry.ROW_CHANGES_URI, id);
+    }
+
+    /**
+     * Notify observers of a change at the given URI. While a batch is being applied on the
+     * current thread the notification is held back and sent once when the batch finishes.
+     */
+    private void notifyChange(Uri uri) {
+        if (mBatchChanged.get() != null) {
+            mBatchChanged.set(Boolean.TRUE);
+            return;
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
     }
 
     @Override
@@ -231,27 +968,178 @@ public class BookProvider extends ContentProvider {
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
         int rowsDeleted;
 
+        Uri rowChangeUri;
         final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
         switch (match) {
             case BOOKS:
-                // Delete all rows that match the selection and selection args
+                // Delete all rows that match the selection and selection args. The selection may
+                // name the supplier columns, which only the view has
+                if (!TextUtils.isEmpty(selection)) {
+                    selection = BookContract.BookEntry._ID + " IN (SELECT " + BookContract.BookEntry._ID
+                            + " FROM " + BookDbHelper.VIEW_BOOKS + " WHERE " + selection + ")";
+                }
                 rowsDeleted = database.delete(BookContract.BookEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    mRowCache.invalidateAll();
+                }
+                rowChangeUri = BookContract.BookEntry.ROW_CHANGES_URI;
                 break;
             case BOOK_ID:
                 // Delete a single row given by the ID in the URI
-                selection = BookContract.BookEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(BookContract.BookEntry.TABLE_NAME, selection, selectionArgs);
+                long id = ContentUris.parseId(uri);
+                rowsDeleted = mStatements.deleteBook(database, id);
+                mRowCache.invalidate(id);
+                rowChangeUri = rowChangeUri(id);
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
+        mMetrics.record(ProviderMetrics.DELETE, match - BOOKS, rowsDeleted, System.nanoTime() - start);
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(BookContract.BookEntry.CONTENT_URI);
+            notifyChange(rowChangeUri);
         }
         return rowsDeleted;
     }
 
+    /**
+     * Entry point for the provider methods that don't fit insert/update/delete.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (BookContract.METHOD_ADJUST_QUANTITY.equals(method)) {
+            return adjustQuantity(extras.getLong(BookContract.EXTRA_BOOK_ID),
+                    extras.getInt(BookContract.EXTRA_DELTA));
+        }
+        if (BookContract.METHOD_ADJUST_QUANTITIES.equals(method)) {
+            long[] ids = extras.getLongArray(BookContract.EXTRA_BOOK_IDS);
+            int[] deltas = extras.getIntArray(BookContract.EXTRA_DELTAS);
+            if (ids == null || deltas == null) {
+                throw new IllegalArgumentException("Books and deltas are required");
+            }
+            return adjustQuantities(ids, deltas);
+        }
+        if (BookContract.METHOD_ROW_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(BookContract.EXTRA_HIT_COUNT, mRowCache.getHitCount());
+            result.putLong(BookContract.EXTRA_MISS_COUNT, mRowCache.getMissCount());
+            result.putInt(BookContract.EXTRA_SIZE, mRowCache.size());
+            result.putInt(BookContract.EXTRA_MAX_SIZE, mRowCache.maxSize());
+            return result;
+        }
+        if (BookContract.METHOD_WARM_UP.equals(method)) {
+            return warmUp();
+        }
+        if (BookContract.METHOD_PROVIDER_STATS.equals(method)) {
+            Bundle result = mMetrics.snapshot();
+            if (extras != null && extras.getBoolean(BookContract.EXTRA_RESET)) {
+                mMetrics.reset();
+            }
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Open the database and read the statistics row, which the catalog shows first. Opening it
+     * writable runs a pending creation or migration now instead of in the first query, and
+     * reading through a query connection makes it parse the schema and pull the first pages of
+     * the file into the cache.
+     */
+    private Bundle warmUp() {
+        long start = System.nanoTime();
+        TraceCompat.beginSection("BookProvider.warmUp");
+        try {
+            mDbHelper.getWritableDatabase();
+            Cursor cursor = mDbHelper.getReadableDatabase().query(BookContract.StatsEntry.TABLE_NAME,
+                    null, null, null, null, null, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
+        Bundle result = new Bundle();
+        result.putLong(BookContract.EXTRA_TOTAL_NANOS, System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Add delta to the quantity of the given book as a single atomic statement, so concurrent
+     * sales can't overwrite each other. The statement only matches while the resulting quantity
+     * stays zero or above, so negative stock is rejected by the database itself. Adjustments
+     * from concurrent callers are committed together by the {@link SalesLedger}, which returns
+     * once the adjustment has been committed.
+     *
+     * @return bundle holding the new quantity, or -1 if the book doesn't exist or the
+     * adjustment would make its quantity negative
+     */
+    private Bundle adjustQuantity(long id, int delta) {
+        int quantity = mLedger.adjustQuantity(id, delta);
+
+        if (quantity != -1) {
+            mRowCache.invalidate(id);
+            notifyChange(rowChangeUri(id));
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(BookContract.EXTRA_QUANTITY, quantity);
+        return result;
+    }
+
+    /**
+     * Add every delta to the quantity of the book at the same index, like
+     * {@link #adjustQuantity} does for a single book. The {@link SalesLedger} commits them in a
+     * single transaction.
+     *
+     * @return bundle holding the new quantity of every book, -1 for those refused
+     */
+    private Bundle adjustQuantities(long[] ids, int[] deltas) {
+        int[] quantities = mLedger.adjustQuantities(ids, deltas);
+
+        for (int i = 0; i < ids.length; i++) {
+            if (quantities[i] != -1) {
+                mRowCache.invalidate(ids[i]);
+                notifyChange(rowChangeUri(ids[i]));
+            }
+        }
+
+        Bundle result = new Bundle();
+        result.putIntArray(BookContract.EXTRA_QUANTITIES, quantities);
+        return result;
+    }
+
+    /**
+     * Shrink the row cache while memory is low.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mRowCache.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mRowCache.invalidateAll();
+    }
+
+    /**
+     * Release the compiled statements and close the database. Only called by unit tests,
+     * the system never shuts a provider down.
+     */
+    @Override
+    public void shutdown() {
+        mLedger.shutdown();
+        mStatements.invalidate();
+        mRowCache.invalidateAll();
+        mDbHelper.close();
+        super.shutdown();
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -260,9 +1148,18 @@ public class BookProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
+            case SEARCH:
                 return BookContract.BookEntry.CONTENT_LIST_TYPE;
             case BOOK_ID:
                 return BookContract.BookEntry.CONTENT_ITEM_TYPE;
+            case STATS:
+                return BookContract.StatsEntry.CONTENT_ITEM_TYPE;
+            case LEDGER:
+                return BookContract.LedgerEntry.CONTENT_LIST_TYPE;
+            case SUPPLIERS:
+                return BookContract.SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return BookContract.SupplierEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
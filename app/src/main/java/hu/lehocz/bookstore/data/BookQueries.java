@@ -0,0 +1,557 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.ContentResolverCompat;
+import android.support.v4.os.CancellationSignal;
+import android.support.v7.util.DiffUtil;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Live queries of books. A subscriber gets the books of its query as an immutable list, and
+ * again every time the provider reports that they may have changed, together with the diff from
+ * the list it got before, so a list only has to redraw the books that were inserted, removed or
+ * changed. The inventory statistics are followed the same way with {@link #subscribeStats}.
+ * <p>
+ * Queries run, and their diffs are computed, on a background thread; subscribers are called on
+ * the UI thread. Every query is run once for all of the subscribers of equal
+ * {@link BookQuery}s. A query is released once the UI thread has finished the message in which
+ * its last subscriber unsubscribed, so an activity recreated for a configuration change
+ * subscribes to the same query again instead of running it anew, while a query released
+ * before it has finished loading is canceled, so a search that has been typed further doesn't
+ * keep the thread from running the next one. Subscribe and unsubscribe on the UI thread.
+ */
+public class BookQueries {
+
+    private static final String LOG_TAG = BookQueries.class.getSimpleName();
+
+    private static BookQueries sInstance;
+
+    /**
+     * Receives the books of a query on the UI thread.
+     */
+    public interface Observer {
+
+        /**
+         * Called with the books of the query, first when they have been loaded and then after
+         * every change.
+         *
+         * @param books the books, which must not be modified
+         * @param diff  from the books of the previous call to these, or null on the first call
+         */
+        void onBooksChanged(List<Book> books, DiffUtil.DiffResult diff);
+    }
+
+    /**
+     * Receives the inventory statistics on the UI thread.
+     */
+    public interface StatsObserver {
+
+        /**
+         * Called with the statistics, first when they have been loaded and then after every
+         * change of them.
+         *
+         * @param stats the statistics, null if they can't be read
+         */
+        void onStatsChanged(InventoryStats stats);
+    }
+
+    /**
+     * Subscription of an observer to a query, which keeps the query running until it is
+     * unsubscribed.
+     */
+    public final class Subscription {
+
+        private final LiveQuery mLiveQuery;
+
+        /**
+         * The observer of the books, or of the statistics, the other one is null
+         */
+        private final Observer mObserver;
+        private final StatsObserver mStatsObserver;
+
+        /**
+         * The books or statistics the observer got last, null before the first call
+         */
+        private Object mValue;
+
+        private boolean mSubscribed = true;
+
+        private Subscription(LiveQuery liveQuery, Observer observer, StatsObserver statsObserver) {
+            mLiveQuery = liveQuery;
+            mObserver = observer;
+            mStatsObserver = statsObserver;
+        }
+
+        /**
+         * Stop getting the books of the query. Does nothing if already unsubscribed.
+         */
+        public void unsubscribe() {
+            if (!mSubscribed) {
+                return;
+            }
+            mSubscribed = false;
+            mLiveQuery.remove(this);
+        }
+
+        /**
+         * Run the query again, for changes the provider can't tell which URI of, like the ones
+         * reported without a URI before Jelly Bean.
+         */
+        public void reload() {
+            if (mSubscribed) {
+                mLiveQuery.load();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void deliver(Object value, DiffUtil.DiffResult diff) {
+            if (!mSubscribed) {
+                return;
+            }
+            if (mObserver != null) {
+                // A diff is only valid from the books this observer has
+                mObserver.onBooksChanged((List<Book>) value, diff);
+            } else {
+                mStatsObserver.onStatsChanged((InventoryStats) value);
+            }
+            mValue = value;
+        }
+    }
+
+    /**
+     * A query read once, see {@link #read}.
+     */
+    public final class Read {
+
+        private final CancellationSignal mCancellationSignal = new CancellationSignal();
+
+        private Observer mObserver;
+
+        private Read(Observer observer) {
+            mObserver = observer;
+        }
+
+        /**
+         * Stop the query if it's still running, the observer won't be called. Does nothing if
+         * already canceled or delivered.
+         */
+        public void cancel() {
+            mObserver = null;
+            mCancellationSignal.cancel();
+        }
+
+        private void deliver(List<Book> books) {
+            Observer observer = mObserver;
+            if (observer != null) {
+                mObserver = null;
+                observer.onBooksChanged(books, null);
+            }
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+
+    private final ExecutorService mExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The running queries, only touched on the UI thread
+     */
+    private final HashMap<BookQuery, LiveQuery> mLiveQueries = new HashMap<>();
+
+    private BookQueries(Context context) {
+        this(context.getContentResolver(), Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, LOG_TAG);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        }));
+    }
+
+    /**
+     * Live queries running on the given executor instead of a thread of their own, which
+     * tests run by hand.
+     */
+    BookQueries(ContentResolver contentResolver, ExecutorService executor) {
+        mContentResolver = contentResolver;
+        mExecutor = executor;
+    }
+
+    /**
+     * @return the live queries of the app
+     */
+    public static synchronized BookQueries getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookQueries(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Subscribe the observer to the books of the query. If the query is already running for
+     * another subscriber, the observer gets its current books right after this call returns.
+     */
+    public Subscription subscribe(BookQuery query, Observer observer) {
+        return subscribe(query, false, observer, null);
+    }
+
+    /**
+     * Subscribe the observer to the inventory statistics, see {@link #subscribe}. They are
+     * loaded again every time a book changes.
+     */
+    public Subscription subscribeStats(StatsObserver observer) {
+        return subscribe(new BookQuery(BookContract.StatsEntry.CONTENT_URI, InventoryStats.PROJECTION),
+                true, null, observer);
+    }
+
+    private Subscription subscribe(BookQuery query, boolean stats, Observer observer,
+                                   StatsObserver statsObserver) {
+        LiveQuery liveQuery = mLiveQueries.get(query);
+        if (liveQuery == null) {
+            liveQuery = new LiveQuery(query, stats);
+            mLiveQueries.put(query, liveQuery);
+            liveQuery.load();
+        }
+        Subscription subscription = new Subscription(liveQuery, observer, statsObserver);
+        liveQuery.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Read the books of the query once, on the background thread of the live queries, without
+     * following their changes. The observer is called once, with an empty list if the query
+     * failed, unless the read is canceled before. Call on the UI thread.
+     */
+    public Read read(final BookQuery query, Observer observer) {
+        final Read read = new Read(observer);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Book> books;
+                Cursor cursor = null;
+                try {
+                    cursor = ContentResolverCompat.query(mContentResolver, query.uri,
+                            query.projection, query.selection, query.selectionArgs,
+                            query.sortOrder, read.mCancellationSignal);
+                    books = read(cursor);
+                } catch (RuntimeException e) {
+                    if (!read.mCancellationSignal.isCanceled()) {
+                        Log.e(LOG_TAG, "Query of " + query + " failed", e);
+                    }
+                    books = Collections.emptyList();
+                } finally {
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                }
+                final List<Book> loadedBooks = books;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        read.deliver(loadedBooks);
+                    }
+                });
+            }
+        });
+        return read;
+    }
+
+    /**
+     * Have the provider open and warm up the database (see {@link BookContract#METHOD_WARM_UP})
+     * on the background thread, ahead of the queries subscribed after this call.
+     */
+    public void warmUp() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Bundle result = mContentResolver.call(BookContract.BookEntry.CONTENT_URI,
+                            BookContract.METHOD_WARM_UP, null, null);
+                    if (result != null) {
+                        Log.i(LOG_TAG, "Database warmed up in "
+                                + result.getLong(BookContract.EXTRA_TOTAL_NANOS) / 1000000 + " ms");
+                    }
+                } catch (RuntimeException e) {
+                    // The first query reports it again if the database can't be opened
+                    Log.e(LOG_TAG, "Warming up the database failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Start loading the query before anyone subscribes to it, like the first screen while the
+     * process is still starting. The query is kept for the given time, so a subscriber arriving
+     * meanwhile gets the books already loaded, or at least doesn't wait for the query to start.
+     */
+    public void prefetch(BookQuery query, long keepMillis) {
+        final Subscription subscription = subscribe(query, new Observer() {
+            @Override
+            public void onBooksChanged(List<Book> books, DiffUtil.DiffResult diff) {
+                // Only kept for the subscribers to come
+            }
+        });
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                subscription.unsubscribe();
+            }
+        }, keepMillis);
+    }
+
+    /**
+     * A query run for all of its subscribers, whose cursor is kept open to be notified of the
+     * changes of its books.
+     */
+    private class LiveQuery {
+
+        private final BookQuery mQuery;
+
+        /**
+         * True if the query reads the statistics row instead of books
+         */
+        private final boolean mStats;
+
+        private final ArrayList<Subscription> mSubscriptions = new ArrayList<>();
+
+        /**
+         * The books (or statistics) of the last load, null before the first one
+         */
+        private Object mValue;
+
+        private Cursor mCursor;
+
+        private boolean mLoading;
+
+        /**
+         * Signal of the running load, null if none is running
+         */
+        private CancellationSignal mCancellationSignal;
+
+        /**
+         * Set when a change is reported while loading, to load again once done
+         */
+        private boolean mStale;
+
+        private boolean mReleased;
+
+        private final ContentObserver mObserver = new ContentObserver(mMainHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                if (!mReleased) {
+                    load();
+                }
+            }
+        };
+
+        LiveQuery(BookQuery query, boolean stats) {
+            mQuery = query;
+            mStats = stats;
+        }
+
+        void add(final Subscription subscription) {
+            mSubscriptions.add(subscription);
+            if (mValue == null) {
+                return;
+            }
+            // Not from within subscribe(), the caller may not be ready for it yet
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (subscription.mValue == null) {
+                        subscription.deliver(mValue, null);
+                    }
+                }
+            });
+        }
+
+        void remove(Subscription subscription) {
+            mSubscriptions.remove(subscription);
+            if (!mSubscriptions.isEmpty()) {
+                return;
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mSubscriptions.isEmpty() && !mReleased) {
+                        mReleased = true;
+                        mLiveQueries.remove(mQuery);
+                        if (mCancellationSignal != null) {
+                            mCancellationSignal.cancel();
+                        }
+                        setCursor(null);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Run the query on the background thread, or once more after the running one.
+         */
+        void load() {
+            if (mLoading) {
+                mStale = true;
+                return;
+            }
+            mLoading = true;
+            final Object oldValue = mValue;
+            final CancellationSignal cancellationSignal = new CancellationSignal();
+            mCancellationSignal = cancellationSignal;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Cursor cursor = null;
+                    Object value;
+                    try {
+                        // The signal reaches the provider from Jelly Bean, before that a
+                        // canceled load is only skipped if it hasn't started yet
+                        cursor = ContentResolverCompat.query(mContentResolver, mQuery.uri,
+                                mQuery.projection, mQuery.selection, mQuery.selectionArgs,
+                                mQuery.sortOrder, cancellationSignal);
+                        value = mStats ? InventoryStats.read(cursor) : read(cursor);
+                        if (cursor != null) {
+                            cursor.registerContentObserver(mObserver);
+                        }
+                    } catch (RuntimeException e) {
+                        // Either kind of OperationCanceledException, the one of the platform is
+                        // thrown when reading the rows
+                        if (!cancellationSignal.isCanceled()) {
+                            Log.e(LOG_TAG, "Query of " + mQuery + " failed", e);
+                        }
+                        if (cursor != null) {
+                            cursor.close();
+                            cursor = null;
+                        }
+                        value = mStats ? null : Collections.<Book>emptyList();
+                    }
+
+                    DiffUtil.DiffResult diff = null;
+                    if (oldValue != null) {
+                        if (oldValue.equals(value)) {
+                            // Keep the values the subscribers have, nothing to tell them
+                            value = oldValue;
+                        } else if (!mStats) {
+                            diff = diff(oldValue, value);
+                        }
+                    }
+                    final Cursor loadedCursor = cursor;
+                    final Object loadedValue = value;
+                    final DiffUtil.DiffResult loadedDiff = diff;
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onLoaded(loadedCursor, loadedValue, loadedDiff);
+                        }
+                    });
+                }
+            });
+        }
+
+        private void onLoaded(Cursor cursor, Object value, DiffUtil.DiffResult diff) {
+            mLoading = false;
+            mCancellationSignal = null;
+            if (mReleased) {
+                if (cursor != null) {
+                    cursor.unregisterContentObserver(mObserver);
+                    cursor.close();
+                }
+                return;
+            }
+            setCursor(cursor);
+            Object oldValue = mValue;
+            mValue = value;
+            if (value != oldValue) {
+                // Copied, as observers may unsubscribe while being called
+                for (Subscription subscription : new ArrayList<>(mSubscriptions)) {
+                    subscription.deliver(value, subscription.mValue == oldValue ? diff : null);
+                }
+            }
+            if (mStale) {
+                mStale = false;
+                load();
+            }
+        }
+
+        private void setCursor(Cursor cursor) {
+            if (mCursor != null) {
+                mCursor.unregisterContentObserver(mObserver);
+                mCursor.close();
+            }
+            mCursor = cursor;
+        }
+    }
+
+    /**
+     * @return the books of the cursor
+     */
+    private static List<Book> read(Cursor cursor) {
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        BookCursor books = BookCursor.wrap(cursor);
+        ArrayList<Book> list = new ArrayList<>(books.getCount());
+        while (books.moveToNext()) {
+            list.add(books.getBook());
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * @return the diff between two lists of books
+     */
+    @SuppressWarnings("unchecked")
+    private static DiffUtil.DiffResult diff(Object oldBooks, Object newBooks) {
+        return DiffUtil.calculateDiff(new BookDiffCallback((List<Book>) oldBooks, (List<Book>) newBooks), false);
+    }
+
+    /**
+     * Compares two lists of books: items are the same book if they have the same _ID.
+     */
+    private static class BookDiffCallback extends DiffUtil.Callback {
+
+        private final List<Book> mOldBooks;
+        private final List<Book> mNewBooks;
+
+        BookDiffCallback(List<Book> oldBooks, List<Book> newBooks) {
+            mOldBooks = oldBooks;
+            mNewBooks = newBooks;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldBooks.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewBooks.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldBooks.get(oldItemPosition).id == mNewBooks.get(newItemPosition).id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldBooks.get(oldItemPosition).equals(mNewBooks.get(newItemPosition));
+        }
+    }
+}
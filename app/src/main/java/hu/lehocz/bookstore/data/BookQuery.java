@@ -0,0 +1,66 @@
+package hu.lehocz.bookstore.data;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import java.util.Arrays;
+
+/**
+ * Arguments of a query of books, see {@link android.content.ContentResolver#query}. Queries
+ * with equal arguments are run once for all of their subscribers by {@link BookQueries}.
+ */
+public final class BookQuery {
+
+    final Uri uri;
+    final String[] projection;
+    final String selection;
+    final String[] selectionArgs;
+    final String sortOrder;
+
+    public BookQuery(Uri uri, String[] projection) {
+        this(uri, projection, null, null, null);
+    }
+
+    public BookQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                     String sortOrder) {
+        if (uri == null) {
+            throw new IllegalArgumentException("Query requires a URI");
+        }
+        this.uri = uri;
+        this.projection = projection == null ? null : projection.clone();
+        this.selection = selection;
+        this.selectionArgs = selectionArgs == null ? null : selectionArgs.clone();
+        this.sortOrder = sortOrder;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BookQuery)) {
+            return false;
+        }
+        BookQuery query = (BookQuery) o;
+        return uri.equals(query.uri)
+                && Arrays.equals(projection, query.projection)
+                && TextUtils.equals(selection, query.selection)
+                && Arrays.equals(selectionArgs, query.selectionArgs)
+                && TextUtils.equals(sortOrder, query.sortOrder);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = uri.hashCode();
+        result = 31 * result + Arrays.hashCode(projection);
+        result = 31 * result + (selection == null ? 0 : selection.hashCode());
+        result = 31 * result + Arrays.hashCode(selectionArgs);
+        result = 31 * result + (sortOrder == null ? 0 : sortOrder.hashCode());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return uri.toString();
+    }
+}
@@ -0,0 +1,228 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ComponentCallbacks2;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+/**
+ * Bounded in-memory cache of recently read book rows by _ID, kept in least recently used order,
+ * so opening a book the catalog has just shown doesn't have to go to SQLite again.
+ * <p>
+ * Whole rows (every column of {@link #COLUMNS}) are cached, and any projection of their columns
+ * can be served from them. Every write of a book must invalidate it. To keep a read that raced
+ * with a write from putting back the old row, a row is only added if nothing was invalidated
+ * since the read began (see {@link #getGeneration()}).
+ */
+class BookRowCache {
+
+    /**
+     * Number of rows kept without memory pressure
+     */
+    static final int DEFAULT_MAX_SIZE = 64;
+
+    /**
+     * Columns of a cached row, in the order {@link #readRow} expects them. The same columns in
+     * the same order as the view of the books, so a null projection gets the same cursor from
+     * the cache as from the database.
+     */
+    static final String[] COLUMNS = {
+            BookEntry._ID,
+            BookEntry.COLUMN_NAME,
+            BookEntry.COLUMN_PRICE,
+            BookEntry.COLUMN_QUANTITY,
+            BookEntry.COLUMN_SUPPLIER_ID,
+            BookEntry.COLUMN_SUPPLIER_NAME,
+            BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+            BookEntry.COLUMN_VERSION};
+
+    private final int mDefaultMaxSize;
+
+    private int mMaxSize;
+
+    /**
+     * Values of the cached rows by _ID, the least recently used first
+     */
+    private final LinkedHashMap<Long, Object[]> mRows = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Incremented on every invalidation
+     */
+    private long mGeneration;
+
+    private long mHitCount;
+    private long mMissCount;
+
+    BookRowCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Invalid cache size " + maxSize);
+        }
+        mDefaultMaxSize = maxSize;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Build a cursor with the given projection from the cached row of a book.
+     *
+     * @param projection columns of the cursor, null for every column
+     * @return the cursor, or null if the book isn't cached or the projection can't be served
+     * from the cache (a miss is counted in both cases)
+     */
+    synchronized Cursor get(long id, String[] projection) {
+        Object[] row = mRows.get(id);
+        Cursor cursor = row == null ? null : toCursor(row, projection);
+        if (cursor == null) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        return cursor;
+    }
+
+    /**
+     * Cache the row of a book read by {@link #readRow}. Nothing is cached if the cache has been
+     * invalidated since generation was read.
+     */
+    synchronized void put(long id, Object[] row, long generation) {
+        if (generation != mGeneration || mMaxSize == 0) {
+            return;
+        }
+        mRows.put(id, row);
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * @return the current generation, to be read before querying a row that may be added
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Drop the row of the given book.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Drop every row.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.clear();
+    }
+
+    /**
+     * Adapt the size limit to the memory level reported by the system: halve it while memory
+     * runs low and keep only a quarter of it when it is critical or the process is about to be
+     * killed. Lighter levels restore the full size.
+     *
+     * @param level one of the TRIM_MEMORY_ levels of {@link ComponentCallbacks2}
+     */
+    synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mMaxSize = mDefaultMaxSize / 4;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mMaxSize = mDefaultMaxSize / 2;
+        } else {
+            mMaxSize = mDefaultMaxSize;
+        }
+        trimToSize(mMaxSize);
+    }
+
+    synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    synchronized int size() {
+        return mRows.size();
+    }
+
+    synchronized int maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return true if every column of the projection can be served from a cached row
+     */
+    static boolean isCacheable(String[] projection) {
+        return projection == null || columnIndices(projection) != null;
+    }
+
+    /**
+     * Read the current row of a cursor queried with the {@link #COLUMNS} projection.
+     */
+    static Object[] readRow(Cursor cursor) {
+        return new Object[]{
+                cursor.getLong(0),
+                cursor.getString(1),
+                cursor.isNull(2) ? null : cursor.getLong(2),
+                cursor.isNull(3) ? null : cursor.getLong(3),
+                cursor.isNull(4) ? null : cursor.getLong(4),
+                cursor.getString(5),
+                cursor.getString(6),
+                cursor.isNull(7) ? null : cursor.getLong(7)};
+    }
+
+    /**
+     * @return a cursor holding the given columns of the row, or null if one of them isn't a
+     * cached column
+     */
+    static Cursor toCursor(Object[] row, String[] projection) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        int[] columnIndices = columnIndices(projection);
+        if (columnIndices == null) {
+            return null;
+        }
+        Object[] values = new Object[columnIndices.length];
+        for (int i = 0; i < columnIndices.length; i++) {
+            values[i] = row[columnIndices[i]];
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    /**
+     * @return the index in {@link #COLUMNS} of every column of the projection, or null if one
+     * of them isn't there
+     */
+    private static int[] columnIndices(String[] projection) {
+        int[] indices = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            indices[i] = -1;
+            for (int j = 0; j < COLUMNS.length; j++) {
+                if (COLUMNS[j].equalsIgnoreCase(projection[i])) {
+                    indices[i] = j;
+                    break;
+                }
+            }
+            if (indices[i] == -1) {
+                return null;
+            }
+        }
+        return indices;
+    }
+
+    private void trimToSize(int maxSize) {
+        Iterator<Long> eldest = mRows.keySet().iterator();
+        while (mRows.size() > maxSize) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+}
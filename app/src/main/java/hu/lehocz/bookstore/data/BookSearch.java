@@ -0,0 +1,271 @@
+package hu.lehocz.bookstore.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Matches search terms against books in memory the way the full-text index of
+ * {@link BookContract.BookEntry#SEARCH_URI} matches them, so the results of a search can be
+ * narrowed down to longer search terms without querying again.
+ * <p>
+ * The index uses the simple tokenizer of SQLite: ASCII letters and digits and every non-ASCII
+ * character make up the tokens, everything else separates them, and ASCII letters are folded
+ * to lower case. Every word of the search terms is searched for as a phrase of such tokens, the
+ * last of which matches as a prefix unless the word ends with a separator.
+ */
+public final class BookSearch {
+
+    private BookSearch() {
+    }
+
+    /**
+     * A word of the search terms, split into tokens the way the index splits text.
+     */
+    private static class Phrase {
+
+        final String[] tokens;
+
+        /**
+         * Whether the last token matches any token it's a prefix of
+         */
+        final boolean prefix;
+
+        Phrase(String word) {
+            ArrayList<String> tokens = new ArrayList<>();
+            int i = 0;
+            while (i < word.length()) {
+                int start = skipSeparators(word, i);
+                i = skipToken(word, start);
+                if (i > start) {
+                    tokens.add(fold(word.substring(start, i)));
+                }
+            }
+            this.tokens = tokens.toArray(new String[tokens.size()]);
+            prefix = isTokenChar(word.charAt(word.length() - 1));
+        }
+
+        /**
+         * @return whether every text containing the given phrase contains this one as well
+         */
+        boolean isImpliedBy(Phrase phrase) {
+            if (tokens.length > phrase.tokens.length) {
+                return false;
+            }
+            int last = tokens.length - 1;
+            for (int i = 0; i < last; i++) {
+                if (!tokens[i].equals(phrase.tokens[i])) {
+                    return false;
+                }
+            }
+            if (prefix) {
+                return phrase.tokens[last].startsWith(tokens[last]);
+            }
+            // An exact token is only implied by an exact one
+            return tokens[last].equals(phrase.tokens[last])
+                    && (last < phrase.tokens.length - 1 || !phrase.prefix);
+        }
+
+        /**
+         * @return whether the text contains the tokens of the phrase one after the other
+         */
+        boolean isFoundIn(String text) {
+            if (text == null) {
+                return false;
+            }
+            int i = skipSeparators(text, 0);
+            while (i < text.length()) {
+                if (matchesAt(text, i)) {
+                    return true;
+                }
+                i = skipSeparators(text, skipToken(text, i));
+            }
+            return false;
+        }
+
+        private boolean matchesAt(String text, int start) {
+            int position = start;
+            for (int i = 0; i < tokens.length; i++) {
+                if (i > 0) {
+                    position = skipSeparators(text, position);
+                }
+                int end = skipToken(text, position);
+                String token = tokens[i];
+                int length = end - position;
+                if (length < token.length() || (length > token.length()
+                        && (i < tokens.length - 1 || !prefix))) {
+                    return false;
+                }
+                for (int j = 0; j < token.length(); j++) {
+                    if (fold(text.charAt(position + j)) != token.charAt(j)) {
+                        return false;
+                    }
+                }
+                position = end;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A book and its rank among the search results.
+     */
+    private static class Match {
+
+        final Book book;
+
+        /**
+         * 0 if the book matches by name, 1 if only by name and supplier name together
+         */
+        final int rank;
+
+        Match(Book book, int rank) {
+            this.book = book;
+            this.rank = rank;
+        }
+    }
+
+    private static final Comparator<Match> RESULT_ORDER = new Comparator<Match>() {
+        @Override
+        public int compare(Match first, Match second) {
+            if (first.rank != second.rank) {
+                return first.rank < second.rank ? -1 : 1;
+            }
+            return first.book.name.compareTo(second.book.name);
+        }
+    };
+
+    /**
+     * @return the words of the search terms, without the characters that have a meaning in the
+     * query syntax of the index
+     */
+    static List<String> words(String terms) {
+        ArrayList<String> words = new ArrayList<>();
+        if (terms == null) {
+            return words;
+        }
+        for (String word : terms.trim().split("\\s+")) {
+            word = word.replace("\"", "").replace("*", "");
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * @return whether every book matching the narrower terms matches the terms as well, so the
+     * search results of the narrower terms can be filtered from the results of the terms with
+     * {@link #filter}. False if either terms are empty, which list every book.
+     */
+    public static boolean narrows(String terms, String narrowerTerms) {
+        List<Phrase> phrases = phrases(terms);
+        List<Phrase> narrowerPhrases = phrases(narrowerTerms);
+        if (phrases == null || narrowerPhrases == null) {
+            return false;
+        }
+        for (Phrase phrase : phrases) {
+            boolean implied = false;
+            for (Phrase narrowerPhrase : narrowerPhrases) {
+                if (phrase.isImpliedBy(narrowerPhrase)) {
+                    implied = true;
+                    break;
+                }
+            }
+            if (!implied) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Filter search results, which need the name and supplier name of the books, down to the
+     * books matching the given terms.
+     *
+     * @return the matching books in the order of the search URI: the ones matching by name
+     * before the ones matching only with their supplier name, each ordered by name
+     */
+    public static List<Book> filter(List<Book> books, String terms) {
+        List<Phrase> phrases = phrases(terms);
+        if (phrases == null) {
+            throw new IllegalArgumentException("Nothing to search for in " + terms);
+        }
+        ArrayList<Match> matches = new ArrayList<>();
+        for (Book book : books) {
+            int rank = 0;
+            for (Phrase phrase : phrases) {
+                if (!phrase.isFoundIn(book.name)) {
+                    if (!phrase.isFoundIn(book.supplierName)) {
+                        rank = -1;
+                        break;
+                    }
+                    rank = 1;
+                }
+            }
+            if (rank >= 0) {
+                matches.add(new Match(book, rank));
+            }
+        }
+        // Stable, books of the same name stay in the order the database returned them
+        Collections.sort(matches, RESULT_ORDER);
+        ArrayList<Book> result = new ArrayList<>(matches.size());
+        for (Match match : matches) {
+            result.add(match.book);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @return the phrases of the search terms, or null if there are none or a word has no
+     * tokens, whose matches are left to the index
+     */
+    private static List<Phrase> phrases(String terms) {
+        List<String> words = words(terms);
+        if (words.isEmpty()) {
+            return null;
+        }
+        ArrayList<Phrase> phrases = new ArrayList<>(words.size());
+        for (String word : words) {
+            Phrase phrase = new Phrase(word);
+            if (phrase.tokens.length == 0) {
+                return null;
+            }
+            phrases.add(phrase);
+        }
+        return phrases;
+    }
+
+    private static boolean isTokenChar(char c) {
+        return c >= 0x80 || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static String fold(String token) {
+        StringBuilder folded = new StringBuilder(token.length());
+        for (int i = 0; i < token.length(); i++) {
+            folded.append(fold(token.charAt(i)));
+        }
+        return folded.toString();
+    }
+
+    private static int skipSeparators(String text, int start) {
+        int i = start;
+        while (i < text.length() && !isTokenChar(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipToken(String text, int start) {
+        int i = start;
+        while (i < text.length() && isTokenChar(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,292 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+import hu.lehocz.bookstore.data.BookContract.SupplierEntry;
+
+/**
+ * Precompiled statements for the fixed-shape writes of {@link BookProvider}, so their SQL is
+ * parsed and planned once instead of on every call. Values are bound straight into the
+ * statements.
+ * <p>
+ * A statement holds its bound values, so each one is used by a single thread at a time. Every
+ * method begins a transaction before taking the lock of the cache: the thread holding the lock
+ * always holds the database's write connection too, and a writer waiting for the connection
+ * never holds the lock. The statements are recompiled when the database is reopened or its
+ * schema changes.
+ */
+class BookStatementCache {
+
+    private static final String LOG_TAG = BookStatementCache.class.getSimpleName();
+
+    private final BookDbHelper mDbHelper;
+
+    /**
+     * Database and schema generation the statements have been compiled for
+     */
+    private SQLiteDatabase mDatabase;
+    private int mSchemaGeneration;
+
+    private SQLiteStatement mInsertBook;
+    private SQLiteStatement mUpdateQuantity;
+    private SQLiteStatement mAdjustQuantity;
+    private SQLiteStatement mSelectQuantity;
+    private SQLiteStatement mDeleteBook;
+    private SQLiteStatement mSelectSupplier;
+    private SQLiteStatement mInsertSupplier;
+
+    BookStatementCache(BookDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * @return true if the values hold every column of a book and nothing else, so they can be
+     * inserted by {@link #insertBook}
+     */
+    static boolean isFullRow(ContentValues values) {
+        return values.size() == 5
+                && values.containsKey(BookEntry.COLUMN_NAME)
+                && values.containsKey(BookEntry.COLUMN_PRICE)
+                && values.containsKey(BookEntry.COLUMN_QUANTITY)
+                && values.containsKey(BookEntry.COLUMN_SUPPLIER_NAME)
+                && values.containsKey(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+    }
+
+    /**
+     * Insert a book given by a full row (see {@link #isFullRow}), adding its supplier if it's new.
+     *
+     * @return the ID of the new row, or -1 if the insertion failed
+     */
+    long insertBook(SQLiteDatabase database, ContentValues values) {
+        database.beginTransaction();
+        try {
+            long id;
+            synchronized (this) {
+                validate(database);
+                if (mInsertBook == null) {
+                    mInsertBook = database.compileStatement("INSERT INTO " + BookEntry.TABLE_NAME + " ("
+                            + BookEntry.COLUMN_NAME + ", "
+                            + BookEntry.COLUMN_PRICE + ", "
+                            + BookEntry.COLUMN_QUANTITY + ", "
+                            + BookEntry.COLUMN_SUPPLIER_ID + ") VALUES (?, ?, ?, ?)");
+                }
+                long supplierId = supplierId(database,
+                        values.getAsString(BookEntry.COLUMN_SUPPLIER_NAME),
+                        values.getAsString(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER));
+                bind(mInsertBook, 1, values.getAsString(BookEntry.COLUMN_NAME));
+                bind(mInsertBook, 2, values.getAsLong(BookEntry.COLUMN_PRICE));
+                bind(mInsertBook, 3, values.getAsLong(BookEntry.COLUMN_QUANTITY));
+                bind(mInsertBook, 4, supplierId == -1 ? null : supplierId);
+                try {
+                    id = mInsertBook.executeInsert();
+                } catch (SQLException e) {
+                    // Same outcome as SQLiteDatabase.insert(), which logs and returns -1
+                    Log.e(LOG_TAG, "Error inserting " + values, e);
+                    id = -1;
+                }
+                mInsertBook.clearBindings();
+            }
+            database.setTransactionSuccessful();
+            return id;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Set the quantity of the given book, only if it still has the expected version, if given.
+     *
+     * @return the number of rows updated
+     */
+    int updateQuantity(SQLiteDatabase database, long id, int quantity, Long expectedVersion) {
+        database.beginTransaction();
+        try {
+            int rowsUpdated;
+            synchronized (this) {
+                validate(database);
+                if (mUpdateQuantity == null) {
+                    // A null version matches any
+                    mUpdateQuantity = database.compileStatement("UPDATE " + BookEntry.TABLE_NAME
+                            + " SET " + BookEntry.COLUMN_QUANTITY + " = ?, "
+                            + BookEntry.COLUMN_VERSION + " = " + BookEntry.COLUMN_VERSION + " + 1"
+                            + " WHERE " + BookEntry._ID + " = ?"
+                            + " AND (?3 IS NULL OR " + BookEntry.COLUMN_VERSION + " = ?3)");
+                }
+                mUpdateQuantity.bindLong(1, quantity);
+                mUpdateQuantity.bindLong(2, id);
+                bind(mUpdateQuantity, 3, expectedVersion);
+                rowsUpdated = mUpdateQuantity.executeUpdateDelete();
+            }
+            database.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Add delta to the quantity of the given book, unless it would become negative.
+     *
+     * @return the new quantity, or -1 if the book doesn't exist or the adjustment was refused
+     */
+    int adjustQuantity(SQLiteDatabase database, long id, int delta) {
+        database.beginTransaction();
+        try {
+            int quantity = -1;
+            synchronized (this) {
+                validate(database);
+                if (mAdjustQuantity == null) {
+                    mAdjustQuantity = database.compileStatement("UPDATE " + BookEntry.TABLE_NAME
+                            + " SET " + BookEntry.COLUMN_QUANTITY + " = " + BookEntry.COLUMN_QUANTITY + " + ?, "
+                            + BookEntry.COLUMN_VERSION + " = " + BookEntry.COLUMN_VERSION + " + 1"
+                            + " WHERE " + BookEntry._ID + " = ?"
+                            + " AND " + BookEntry.COLUMN_QUANTITY + " + ? >= 0");
+                    mSelectQuantity = database.compileStatement("SELECT " + BookEntry.COLUMN_QUANTITY
+                            + " FROM " + BookEntry.TABLE_NAME + " WHERE " + BookEntry._ID + " = ?");
+                }
+                mAdjustQuantity.bindLong(1, delta);
+                mAdjustQuantity.bindLong(2, id);
+                mAdjustQuantity.bindLong(3, delta);
+                if (mAdjustQuantity.executeUpdateDelete() > 0) {
+                    // Read back inside the same transaction, so no other write can slip in between
+                    mSelectQuantity.bindLong(1, id);
+                    quantity = (int) mSelectQuantity.simpleQueryForLong();
+                }
+            }
+            database.setTransactionSuccessful();
+            return quantity;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Delete the given book.
+     *
+     * @return the number of rows deleted
+     */
+    int deleteBook(SQLiteDatabase database, long id) {
+        database.beginTransaction();
+        try {
+            int rowsDeleted;
+            synchronized (this) {
+                validate(database);
+                if (mDeleteBook == null) {
+                    mDeleteBook = database.compileStatement("DELETE FROM " + BookEntry.TABLE_NAME
+                            + " WHERE " + BookEntry._ID + " = ?");
+                }
+                mDeleteBook.bindLong(1, id);
+                rowsDeleted = mDeleteBook.executeUpdateDelete();
+            }
+            database.setTransactionSuccessful();
+            return rowsDeleted;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Find the supplier with the given name and phone number, adding it if there is none yet.
+     *
+     * @return the _ID of the supplier, or -1 if the name or the phone number is missing
+     */
+    long getSupplierId(SQLiteDatabase database, String name, String phoneNumber) {
+        database.beginTransaction();
+        try {
+            long supplierId;
+            synchronized (this) {
+                validate(database);
+                supplierId = supplierId(database, name, phoneNumber);
+            }
+            database.setTransactionSuccessful();
+            return supplierId;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * See {@link #getSupplierId}. Must be called inside a transaction while holding the lock.
+     */
+    private long supplierId(SQLiteDatabase database, String name, String phoneNumber) {
+        if (name == null || phoneNumber == null) {
+            return -1;
+        }
+        if (mSelectSupplier == null) {
+            // Served by the index of the UNIQUE constraint on the name and phone number
+            mSelectSupplier = database.compileStatement("SELECT " + SupplierEntry._ID
+                    + " FROM " + SupplierEntry.TABLE_NAME
+                    + " WHERE " + SupplierEntry.COLUMN_NAME + " = ?"
+                    + " AND " + SupplierEntry.COLUMN_PHONE_NUMBER + " = ?");
+            mInsertSupplier = database.compileStatement("INSERT INTO " + SupplierEntry.TABLE_NAME + " ("
+                    + SupplierEntry.COLUMN_NAME + ", "
+                    + SupplierEntry.COLUMN_PHONE_NUMBER + ") VALUES (?, ?)");
+        }
+        mSelectSupplier.bindString(1, name);
+        mSelectSupplier.bindString(2, phoneNumber);
+        try {
+            return mSelectSupplier.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // No such supplier yet
+            mInsertSupplier.bindString(1, name);
+            mInsertSupplier.bindString(2, phoneNumber);
+            return mInsertSupplier.executeInsert();
+        }
+    }
+
+    /**
+     * Close every statement, they are compiled again on their next use.
+     */
+    synchronized void invalidate() {
+        mInsertBook = close(mInsertBook);
+        mUpdateQuantity = close(mUpdateQuantity);
+        mAdjustQuantity = close(mAdjustQuantity);
+        mSelectQuantity = close(mSelectQuantity);
+        mDeleteBook = close(mDeleteBook);
+        mSelectSupplier = close(mSelectSupplier);
+        mInsertSupplier = close(mInsertSupplier);
+        mDatabase = null;
+    }
+
+    /**
+     * Drop the statements if they were compiled for another database object or schema.
+     * Must be called while holding the lock.
+     */
+    private void validate(SQLiteDatabase database) {
+        int schemaGeneration = mDbHelper.getSchemaGeneration();
+        if (database != mDatabase || schemaGeneration != mSchemaGeneration) {
+            invalidate();
+            mDatabase = database;
+            mSchemaGeneration = schemaGeneration;
+        }
+    }
+
+    private static void bind(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static void bind(SQLiteStatement statement, int index, Long value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+
+    private static SQLiteStatement close(SQLiteStatement statement) {
+        if (statement != null) {
+            statement.close();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentValues;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+/**
+ * The rules the values of a book must follow, shared by {@link BookProvider} and
+ * {@link BookImporter} so a book is accepted or rejected the same way whichever way it comes in.
+ */
+final class BookValidator {
+
+    private BookValidator() {
+    }
+
+    /**
+     * Check the values of a new book: it needs a name, its price and quantity can't be
+     * negative if they are given, and it can't have a version, new books start at 0.
+     *
+     * @return the reason the book is invalid, or null if it is valid
+     */
+    static String validateInsert(ContentValues values) {
+        // Check that the name is not null
+        if (values.getAsString(BookEntry.COLUMN_NAME) == null) {
+            return "Book requires a name";
+        }
+        if (values.containsKey(BookEntry.COLUMN_VERSION)) {
+            return "Book version is set by the provider";
+        }
+        return validateNumbers(values);
+    }
+
+    /**
+     * Check the values of an update of a book: the name can't be removed, the price and
+     * quantity can't be made negative, and the expected version, if given, must be a number.
+     *
+     * @return the reason the update is invalid, or null if it is valid
+     */
+    static String validateUpdate(ContentValues values) {
+        // If the name key is present, check that the name value is not null.
+        if (values.containsKey(BookEntry.COLUMN_NAME)
+                && values.getAsString(BookEntry.COLUMN_NAME) == null) {
+            return "Book requires a name";
+        }
+        if (values.containsKey(BookEntry.COLUMN_VERSION)
+                && values.getAsLong(BookEntry.COLUMN_VERSION) == null) {
+            return "Book requires valid version";
+        }
+        return validateNumbers(values);
+    }
+
+    private static String validateNumbers(ContentValues values) {
+        // If the price is provided, check that it's greater than or equal to 0
+        Integer price = values.getAsInteger(BookEntry.COLUMN_PRICE);
+        if (price != null && price < 0) {
+            return "Book requires valid price";
+        }
+
+        // If the quantity is provided, check that it's greater than or equal to 0
+        Integer quantity = values.getAsInteger(BookEntry.COLUMN_QUANTITY);
+        if (quantity != null && quantity < 0) {
+            return "Book requires valid quantity";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,222 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the writes of the app (insert, update, delete and quantity adjustments) on a background
+ * thread, so the UI thread never waits for the disk, and reports their results back on the UI
+ * thread.
+ * <p>
+ * Writes are executed one at a time in the order they were submitted, so the writes of a book
+ * are always applied in order. A single thread is enough: SQLite only lets one writer in at a
+ * time anyway. The queue is bounded; a write submitted while it is full is rejected and its
+ * callback gets a {@link RejectedExecutionException}.
+ */
+public class BookWriter {
+
+    private static final String LOG_TAG = BookWriter.class.getSimpleName();
+
+    /**
+     * Maximum number of writes waiting to be executed
+     */
+    private static final int QUEUE_CAPACITY = 128;
+
+    private static BookWriter sInstance;
+
+    /**
+     * Receives the result of a write on the UI thread.
+     *
+     * @param <T> type of the result
+     */
+    public interface Callback<T> {
+
+        /**
+         * Called when the write has been executed.
+         */
+        void onSuccess(T result);
+
+        /**
+         * Called when the write failed or has been rejected because too many writes are waiting.
+         */
+        void onFailure(Exception e);
+    }
+
+    private final ContentResolver mContentResolver;
+
+    private final Executor mExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private BookWriter(Context context) {
+        this(context.getContentResolver(), new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, LOG_TAG);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        }));
+    }
+
+    /**
+     * Constructs a writer running the writes on the given executor. Only meant for testing, the
+     * app shares the writer of {@link #getInstance}.
+     */
+    public BookWriter(ContentResolver contentResolver, Executor executor) {
+        mContentResolver = contentResolver;
+        mExecutor = executor;
+    }
+
+    /**
+     * @return the writer of the app
+     */
+    public static synchronized BookWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookWriter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Insert a book, see {@link ContentResolver#insert}. The result is the URI of the new book,
+     * or null if the insertion failed.
+     */
+    public void insert(final Uri uri, final ContentValues values, Callback<Uri> callback) {
+        submit(new Callable<Uri>() {
+            @Override
+            public Uri call() {
+                return mContentResolver.insert(uri, values);
+            }
+        }, callback);
+    }
+
+    /**
+     * Update books, see {@link ContentResolver#update}. The result is the number of rows updated.
+     */
+    public void update(final Uri uri, final ContentValues values, Callback<Integer> callback) {
+        submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mContentResolver.update(uri, values, null, null);
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete books, see {@link ContentResolver#delete}. The result is the number of rows deleted.
+     */
+    public void delete(final Uri uri, Callback<Integer> callback) {
+        submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mContentResolver.delete(uri, null, null);
+            }
+        }, callback);
+    }
+
+    /**
+     * Add delta to the quantity of a book, see {@link BookContract#METHOD_ADJUST_QUANTITY}.
+     * The result is the new quantity, or -1 if the adjustment was refused.
+     */
+    public void adjustQuantity(final long id, final int delta, Callback<Integer> callback) {
+        submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                Bundle extras = new Bundle();
+                extras.putLong(BookContract.EXTRA_BOOK_ID, id);
+                extras.putInt(BookContract.EXTRA_DELTA, delta);
+                Bundle result = mContentResolver.call(BookContract.BookEntry.CONTENT_URI,
+                        BookContract.METHOD_ADJUST_QUANTITY, null, extras);
+                return result == null ? -1 : result.getInt(BookContract.EXTRA_QUANTITY, -1);
+            }
+        }, callback);
+    }
+
+    /**
+     * Add every delta to the quantity of the book at the same index in a single transaction,
+     * see {@link BookContract#METHOD_ADJUST_QUANTITIES}. The result holds the new quantity of
+     * every book, or -1 for those whose adjustment was refused.
+     */
+    public void adjustQuantities(final long[] ids, final int[] deltas, Callback<int[]> callback) {
+        submit(new Callable<int[]>() {
+            @Override
+            public int[] call() {
+                Bundle extras = new Bundle();
+                extras.putLongArray(BookContract.EXTRA_BOOK_IDS, ids);
+                extras.putIntArray(BookContract.EXTRA_DELTAS, deltas);
+                Bundle result = mContentResolver.call(BookContract.BookEntry.CONTENT_URI,
+                        BookContract.METHOD_ADJUST_QUANTITIES, null, extras);
+                int[] quantities = result == null ? null : result.getIntArray(BookContract.EXTRA_QUANTITIES);
+                if (quantities == null) {
+                    // No provider, nothing was adjusted
+                    quantities = new int[ids.length];
+                    Arrays.fill(quantities, -1);
+                }
+                return quantities;
+            }
+        }, callback);
+    }
+
+    /**
+     * Queue the write and post its outcome to the callback, if there is one.
+     */
+    private <T> void submit(final Callable<T> write, final Callback<T> callback) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        deliverSuccess(callback, write.call());
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "Write failed", e);
+                        deliverFailure(callback, e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "Write rejected, " + QUEUE_CAPACITY + " writes are already waiting");
+            deliverFailure(callback, e);
+        }
+    }
+
+    private <T> void deliverSuccess(final Callback<T> callback, final T result) {
+        if (callback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onSuccess(result);
+            }
+        });
+    }
+
+    private <T> void deliverFailure(final Callback<T> callback, final Exception e) {
+        if (callback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onFailure(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,117 @@
+package hu.lehocz.bookstore.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * Reads the records of a CSV file (RFC 4180) one by one, so a file of any size is read with
+ * the memory of a single record. Fields are separated by commas, and may be quoted to contain
+ * commas, line breaks or quotes (written twice). Lines may end with CRLF or LF.
+ */
+class CsvReader {
+
+    private final Reader mReader;
+
+    /**
+     * Character read ahead, or NONE
+     */
+    private int mPeeked = NONE;
+    private static final int NONE = -2;
+
+    /**
+     * Line the next record starts on, and the line the last record returned started on
+     */
+    private long mLine = 1;
+    private long mRecordLine;
+
+    private final StringBuilder mField = new StringBuilder();
+    private final ArrayList<String> mRecord = new ArrayList<>();
+
+    /**
+     * @param reader the file to read, should be buffered
+     */
+    CsvReader(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * @return the fields of the next record, or null at the end of the file
+     * @throws IOException if reading fails or a quoted field is never closed
+     */
+    String[] readRecord() throws IOException {
+        int c = read();
+        if (c == -1) {
+            return null;
+        }
+        if (c == '\uFEFF' && mLine == 1 && mRecordLine == 0) {
+            // Byte order mark written by some spreadsheet applications
+            c = read();
+            if (c == -1) {
+                return null;
+            }
+        }
+        mRecordLine = mLine;
+        mRecord.clear();
+        mField.setLength(0);
+        boolean inQuotes = false;
+        while (true) {
+            if (inQuotes) {
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted field at line " + mRecordLine);
+                } else if (c == '"') {
+                    c = read();
+                    if (c == '"') {
+                        // Escaped quote
+                        mField.append('"');
+                    } else {
+                        inQuotes = false;
+                        // Look at the character after the closing quote as unquoted
+                        continue;
+                    }
+                } else {
+                    if (c == '\n') {
+                        mLine++;
+                    }
+                    mField.append((char) c);
+                }
+            } else if (c == ',') {
+                mRecord.add(mField.toString());
+                mField.setLength(0);
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                if (c == '\r') {
+                    int next = read();
+                    if (next != '\n') {
+                        mPeeked = next;
+                    }
+                }
+                if (c != -1) {
+                    mLine++;
+                }
+                mRecord.add(mField.toString());
+                return mRecord.toArray(new String[mRecord.size()]);
+            } else if (c == '"' && mField.length() == 0) {
+                inQuotes = true;
+            } else {
+                mField.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    /**
+     * @return the line the last record returned by {@link #readRecord()} started on
+     */
+    long getRecordLine() {
+        return mRecordLine;
+    }
+
+    private int read() throws IOException {
+        if (mPeeked != NONE) {
+            int c = mPeeked;
+            mPeeked = NONE;
+            return c;
+        }
+        return mReader.read();
+    }
+}
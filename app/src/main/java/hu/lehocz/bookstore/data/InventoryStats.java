@@ -0,0 +1,74 @@
+package hu.lehocz.bookstore.data;
+
+import android.database.Cursor;
+
+import hu.lehocz.bookstore.data.BookContract.StatsEntry;
+
+/**
+ * Immutable values of the inventory statistics row, see {@link StatsEntry}.
+ */
+public final class InventoryStats {
+
+    /**
+     * Columns read by {@link #read}
+     */
+    static final String[] PROJECTION = {
+            StatsEntry.COLUMN_TITLE_COUNT,
+            StatsEntry.COLUMN_TOTAL_QUANTITY,
+            StatsEntry.COLUMN_TOTAL_VALUE,
+            StatsEntry.COLUMN_OUT_OF_STOCK_COUNT,
+            StatsEntry.COLUMN_LOW_STOCK_COUNT};
+
+    public final long titleCount;
+    public final long totalQuantity;
+    public final long totalValue;
+    public final long outOfStockCount;
+    public final long lowStockCount;
+
+    public InventoryStats(long titleCount, long totalQuantity, long totalValue,
+                          long outOfStockCount, long lowStockCount) {
+        this.titleCount = titleCount;
+        this.totalQuantity = totalQuantity;
+        this.totalValue = totalValue;
+        this.outOfStockCount = outOfStockCount;
+        this.lowStockCount = lowStockCount;
+    }
+
+    /**
+     * @return the statistics of a cursor queried with the {@link #PROJECTION}, or null if it
+     * has no row
+     */
+    static InventoryStats read(Cursor cursor) {
+        if (cursor == null || !cursor.moveToFirst()) {
+            return null;
+        }
+        return new InventoryStats(cursor.getLong(0), cursor.getLong(1), cursor.getLong(2),
+                cursor.getLong(3), cursor.getLong(4));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof InventoryStats)) {
+            return false;
+        }
+        InventoryStats stats = (InventoryStats) o;
+        return titleCount == stats.titleCount
+                && totalQuantity == stats.totalQuantity
+                && totalValue == stats.totalValue
+                && outOfStockCount == stats.outOfStockCount
+                && lowStockCount == stats.lowStockCount;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (titleCount ^ (titleCount >>> 32));
+        result = 31 * result + (int) (totalQuantity ^ (totalQuantity >>> 32));
+        result = 31 * result + (int) (totalValue ^ (totalValue >>> 32));
+        result = 31 * result + (int) (outOfStockCount ^ (outOfStockCount >>> 32));
+        result = 31 * result + (int) (lowStockCount ^ (lowStockCount >>> 32));
+        return result;
+    }
+}
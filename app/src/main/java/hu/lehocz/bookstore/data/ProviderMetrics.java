@@ -0,0 +1,110 @@
+package hu.lehocz.bookstore.data;
+
+import android.os.Bundle;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the provider operations, by operation and URI. Recording
+ * only increments slots of a preallocated {@link AtomicLongArray}, so it neither locks nor
+ * allocates and can be called on every operation from any thread.
+ * <p>
+ * Latencies are counted in power of two buckets of microseconds: bucket 0 counts operations
+ * that took less than 1us, bucket i (i > 0) those that took at least 2^(i-1)us and less than
+ * 2^i us, and the last bucket everything slower. A snapshot taken while operations are being
+ * recorded may be off by the operations in flight.
+ */
+class ProviderMetrics {
+
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+
+    private static final String[] OPERATION_NAMES = {"query", "insert", "bulk_insert", "update", "delete"};
+
+    /**
+     * Number of latency buckets, the last one counts operations of 2^(BUCKET_COUNT - 2)us
+     * (about 4 seconds) and above
+     */
+    static final int BUCKET_COUNT = 24;
+
+    // Slots of one operation on one URI
+    private static final int SLOT_COUNT = 0;
+    private static final int SLOT_ROWS = 1;
+    private static final int SLOT_TOTAL_NANOS = 2;
+    private static final int SLOT_BUCKETS = 3;
+    private static final int SLOTS = SLOT_BUCKETS + BUCKET_COUNT;
+
+    private final String[] mUriNames;
+
+    private final AtomicLongArray mSlots;
+
+    /**
+     * @param uriNames names of the URIs, reported in the keys of {@link #snapshot()} and
+     *                 indexed by the uri argument of {@link #record}
+     */
+    ProviderMetrics(String[] uriNames) {
+        mUriNames = uriNames;
+        mSlots = new AtomicLongArray(OPERATION_NAMES.length * uriNames.length * SLOTS);
+    }
+
+    /**
+     * Record a completed operation.
+     *
+     * @param operation one of {@link #QUERY}, {@link #INSERT}, {@link #BULK_INSERT},
+     *                  {@link #UPDATE} and {@link #DELETE}
+     * @param uri       index of the URI in the names given to the constructor
+     * @param rows      number of rows returned or changed
+     * @param nanos     time the operation took
+     */
+    void record(int operation, int uri, int rows, long nanos) {
+        int base = (operation * mUriNames.length + uri) * SLOTS;
+        long micros = nanos / 1000;
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+        mSlots.incrementAndGet(base + SLOT_COUNT);
+        mSlots.addAndGet(base + SLOT_ROWS, rows);
+        mSlots.addAndGet(base + SLOT_TOTAL_NANOS, nanos);
+        mSlots.incrementAndGet(base + SLOT_BUCKETS + bucket);
+    }
+
+    /**
+     * @return a bundle holding a bundle for every operation and URI that has been recorded,
+     * keyed by the names of the operation and the URI joined by a slash, like "query/books".
+     * These hold {@link BookContract#EXTRA_OPERATION_COUNT}, {@link BookContract#EXTRA_ROW_COUNT},
+     * {@link BookContract#EXTRA_TOTAL_NANOS} and {@link BookContract#EXTRA_LATENCY_HISTOGRAM}.
+     */
+    Bundle snapshot() {
+        Bundle snapshot = new Bundle();
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int uri = 0; uri < mUriNames.length; uri++) {
+                int base = (operation * mUriNames.length + uri) * SLOTS;
+                long count = mSlots.get(base + SLOT_COUNT);
+                if (count == 0) {
+                    continue;
+                }
+                long[] histogram = new long[BUCKET_COUNT];
+                for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                    histogram[bucket] = mSlots.get(base + SLOT_BUCKETS + bucket);
+                }
+                Bundle metrics = new Bundle();
+                metrics.putLong(BookContract.EXTRA_OPERATION_COUNT, count);
+                metrics.putLong(BookContract.EXTRA_ROW_COUNT, mSlots.get(base + SLOT_ROWS));
+                metrics.putLong(BookContract.EXTRA_TOTAL_NANOS, mSlots.get(base + SLOT_TOTAL_NANOS));
+                metrics.putLongArray(BookContract.EXTRA_LATENCY_HISTOGRAM, histogram);
+                snapshot.putBundle(OPERATION_NAMES[operation] + "/" + mUriNames[uri], metrics);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Set every counter back to zero.
+     */
+    void reset() {
+        for (int i = 0; i < mSlots.length(); i++) {
+            mSlots.set(i, 0);
+        }
+    }
+}
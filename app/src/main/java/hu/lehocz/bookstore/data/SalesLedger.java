@@ -0,0 +1,268 @@
+package hu.lehocz.bookstore.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+import hu.lehocz.bookstore.data.BookContract.LedgerEntry;
+
+/**
+ * Applies quantity adjustments (sales and restocks) with group commit: adjustments arriving
+ * within {@link #GROUP_COMMIT_DELAY_MS} of each other are applied in a single transaction, so
+ * they share a single commit instead of paying for one each. The database records every
+ * adjustment in the ledger (see {@link LedgerEntry}) as part of the same transaction.
+ * <p>
+ * Several adjustments known together, like the sales of a flush of the catalog, are handed over
+ * at once with {@link #adjustQuantities}, which commits them without waiting for others: the
+ * app writes one thing at a time, so the adjustments of its own sales never arrive close enough
+ * to be grouped by the delay.
+ * <p>
+ * {@link #adjustQuantity} only returns once its group has been committed, so a caller never
+ * learns about a sale that could still be lost. Every {@link #RECONCILE_INTERVAL_MINUTES}
+ * minutes the quantities of the books are checked against the sums of their ledger entries,
+ * and a correction entry is appended for any book that differs.
+ */
+class SalesLedger {
+
+    private static final String LOG_TAG = SalesLedger.class.getSimpleName();
+
+    /**
+     * How long the first adjustment of a group waits for others to join it
+     */
+    static final long GROUP_COMMIT_DELAY_MS = 5;
+
+    /**
+     * Time between two reconciliations of the quantities with the ledger
+     */
+    static final long RECONCILE_INTERVAL_MINUTES = 15;
+
+    private final BookDbHelper mDbHelper;
+
+    private final BookStatementCache mStatements;
+
+    /**
+     * Runs the group commits and the reconciliations, one at a time
+     */
+    private final ScheduledThreadPoolExecutor mExecutor;
+
+    /**
+     * Adjustments waiting for the next group commit, guarded by this
+     */
+    private ArrayList<Adjustment> mPending = new ArrayList<>();
+
+    private final Runnable mGroupCommit = new Runnable() {
+        @Override
+        public void run() {
+            ArrayList<Adjustment> group;
+            synchronized (SalesLedger.this) {
+                if (mPending.isEmpty()) {
+                    // Already committed with a group that didn't wait
+                    return;
+                }
+                group = mPending;
+                mPending = new ArrayList<>();
+            }
+            commit(group);
+        }
+    };
+
+    SalesLedger(BookDbHelper dbHelper, BookStatementCache statements) {
+        mDbHelper = dbHelper;
+        mStatements = statements;
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, LOG_TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reconcile();
+            }
+        }, RECONCILE_INTERVAL_MINUTES, RECONCILE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Add delta to the quantity of the given book with the next group commit, unless it would
+     * become negative. Blocks until the group has been committed. Must not be called while the
+     * calling thread holds a transaction of the database, the group commit would wait for it.
+     *
+     * @return the new quantity, or -1 if the book doesn't exist or the adjustment was refused
+     */
+    int adjustQuantity(long id, int delta) {
+        Adjustment adjustment = new Adjustment(id, delta);
+        synchronized (this) {
+            mPending.add(adjustment);
+            if (mPending.size() == 1) {
+                // First of a new group
+                mExecutor.schedule(mGroupCommit, GROUP_COMMIT_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        return adjustment.awaitQuantity();
+    }
+
+    /**
+     * Add every delta to the quantity of the book at the same index, unless it would become
+     * negative, in a single transaction committed without delay (together with the adjustments
+     * already waiting). Blocks until it has been committed, see {@link #adjustQuantity}.
+     *
+     * @return the new quantity of every book, or -1 for a book that doesn't exist or whose
+     * adjustment was refused
+     */
+    int[] adjustQuantities(long[] ids, int[] deltas) {
+        if (ids.length != deltas.length) {
+            throw new IllegalArgumentException(ids.length + " books given with " + deltas.length + " deltas");
+        }
+        Adjustment[] adjustments = new Adjustment[ids.length];
+        synchronized (this) {
+            for (int i = 0; i < ids.length; i++) {
+                adjustments[i] = new Adjustment(ids[i], deltas[i]);
+                mPending.add(adjustments[i]);
+            }
+        }
+        mExecutor.execute(mGroupCommit);
+        int[] quantities = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            quantities[i] = adjustments[i].awaitQuantity();
+        }
+        return quantities;
+    }
+
+    /**
+     * Apply a group of adjustments in one transaction and release their callers. If the
+     * transaction fails, every adjustment of the group fails with the same exception.
+     */
+    private void commit(ArrayList<Adjustment> group) {
+        RuntimeException failure = null;
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            database.beginTransaction();
+            try {
+                for (Adjustment adjustment : group) {
+                    adjustment.mQuantity = mStatements.adjustQuantity(database, adjustment.mId,
+                            adjustment.mDelta);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Group commit of " + group.size() + " adjustments failed", e);
+            failure = e;
+        }
+        for (Adjustment adjustment : group) {
+            adjustment.mFailure = failure;
+            adjustment.mCommitted.countDown();
+        }
+    }
+
+    /**
+     * Check the quantity of every book against the sum of its ledger entries, and append a
+     * correction entry for the books that differ, so the ledger accounts for their quantity
+     * again. Differences can only come from writes that bypassed the database triggers.
+     *
+     * @return the number of books corrected
+     */
+    int reconcile() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int corrected = 0;
+        database.beginTransaction();
+        try {
+            Cursor cursor = database.rawQuery("SELECT b." + BookEntry._ID
+                    + ", b." + BookEntry.COLUMN_QUANTITY + " - IFNULL(l.total, 0)"
+                    + ", b." + BookEntry.COLUMN_PRICE
+                    + " FROM " + BookEntry.TABLE_NAME + " AS b LEFT JOIN"
+                    + " (SELECT " + LedgerEntry.COLUMN_BOOK_ID + ", SUM(" + LedgerEntry.COLUMN_DELTA + ") AS total"
+                    + " FROM " + LedgerEntry.TABLE_NAME + " GROUP BY " + LedgerEntry.COLUMN_BOOK_ID + ") AS l"
+                    + " ON l." + LedgerEntry.COLUMN_BOOK_ID + " = b." + BookEntry._ID
+                    + " WHERE b." + BookEntry.COLUMN_QUANTITY + " <> IFNULL(l.total, 0)", null);
+            SQLiteStatement insert = null;
+            try {
+                while (cursor.moveToNext()) {
+                    if (insert == null) {
+                        insert = database.compileStatement("INSERT INTO " + LedgerEntry.TABLE_NAME
+                                + " (" + BookDbHelper.ledgerColumns() + ") VALUES (?, ?, ?, "
+                                + BookDbHelper.NOW_MILLIS + ", " + LedgerEntry.REASON_CORRECTION + ")");
+                    }
+                    Log.w(LOG_TAG, "Quantity of book " + cursor.getLong(0) + " differs from the ledger by "
+                            + cursor.getLong(1));
+                    insert.bindLong(1, cursor.getLong(0));
+                    insert.bindLong(2, cursor.getLong(1));
+                    insert.bindLong(3, cursor.getLong(2));
+                    insert.executeInsert();
+                    corrected++;
+                }
+            } finally {
+                cursor.close();
+                if (insert != null) {
+                    insert.close();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return corrected;
+    }
+
+    /**
+     * Stop the group commits and reconciliations after the pending ones.
+     */
+    void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * A quantity adjustment waiting for its group to be committed.
+     */
+    private static class Adjustment {
+
+        final long mId;
+        final int mDelta;
+        final CountDownLatch mCommitted = new CountDownLatch(1);
+
+        /**
+         * Outcome, written by the group commit before counting down mCommitted
+         */
+        int mQuantity = -1;
+        RuntimeException mFailure;
+
+        Adjustment(long id, int delta) {
+            mId = id;
+            mDelta = delta;
+        }
+
+        /**
+         * Wait for the group commit, even if interrupted: the adjustment is applied anyway.
+         */
+        int awaitQuantity() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    mCommitted.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            return mQuantity;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package hu.lehocz.bookstore;
+
+import android.os.Build;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import hu.lehocz.bookstore.data.Book;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class BookListAdapterTest {
+
+    private BookListAdapter mAdapter;
+
+    @Before
+    public void setUp() {
+        mAdapter = new BookListAdapter(RuntimeEnvironment.application,
+                new BookListAdapter.OnBookClickListener() {
+                    @Override
+                    public void onBookClick(long id) {
+                    }
+                });
+    }
+
+    @Test
+    public void keepsPatchesUntilTheirBookIsLoadedAgain() {
+        Book anna = book(1, "Anna", 3);
+        Book dune = book(2, "Dune", 5);
+        mAdapter.setBooks(Arrays.asList(anna, dune));
+        // A sale, only notified for the row
+        mAdapter.patchBook(book(2, "Dune", 4));
+        assertEquals("4", quantityAt(1));
+
+        // The next page is loaded
+        Book emma = book(3, "Emma", 1);
+        mAdapter.addBooks(Arrays.asList(anna, dune, emma));
+        assertEquals("4", quantityAt(1));
+
+        // Another book changes in a page loaded again
+        mAdapter.setBooks(Arrays.asList(book(1, "Anna", 2), dune, emma));
+        assertEquals("4", quantityAt(1));
+
+        // The page of the book is loaded again, restocked meanwhile
+        mAdapter.setBooks(Arrays.asList(book(1, "Anna", 2), book(2, "Dune", 6), emma));
+        assertEquals("6", quantityAt(1));
+    }
+
+    private String quantityAt(int position) {
+        BookListAdapter.BookViewHolder holder = mAdapter.onCreateViewHolder(
+                new FrameLayout(RuntimeEnvironment.application), 0);
+        mAdapter.onBindViewHolder(holder, position);
+        return ((TextView) holder.itemView.findViewById(R.id.quantity)).getText().toString();
+    }
+
+    private static Book book(long id, String name, int quantity) {
+        return new Book(id, name, 10, quantity, -1, null, null, -1);
+    }
+}
@@ -0,0 +1,160 @@
+package hu.lehocz.bookstore;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import hu.lehocz.bookstore.data.Book;
+import hu.lehocz.bookstore.data.BookContract;
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+import hu.lehocz.bookstore.data.BookCursor;
+import hu.lehocz.bookstore.data.BookProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class CatalogActivityTest {
+
+    private BookProvider mProvider;
+
+    private ContentResolver mContentResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(BookProvider.class, BookContract.CONTENT_AUTHORITY);
+        mContentResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void reloadsAfterSellingFromAQuantitySortedList() {
+        long first = insertBook("First", 1);
+        long second = insertBook("Second", 2);
+        long third = insertBook("Third", 3);
+        Bundle noFilter = new Bundle();
+
+        List<Book> page = queryPage(BookContract.SORT_QUANTITY, null, null);
+        assertEquals(ids(first, second), ids(page));
+        Book shown = page.get(1);
+
+        // Selling out the second book moves it to the front, the sale only notifies its row
+        sell(second, 2);
+        Book sold = queryBook(second);
+        assertTrue(CatalogActivity.movesInCatalog(BookContract.SORT_QUANTITY, noFilter, shown, sold));
+        // Patching in place is fine while the list isn't ordered or filtered by quantity
+        assertFalse(CatalogActivity.movesInCatalog(BookContract.SORT_NAME, noFilter, shown, sold));
+        assertFalse(CatalogActivity.movesInCatalog(BookContract.SORT_PRICE, noFilter, shown, sold));
+        assertFalse(CatalogActivity.movesInCatalog(BookContract.SORT_QUANTITY, noFilter, sold, sold));
+        // A book beyond the loaded pages may move onto them
+        assertTrue(CatalogActivity.movesInCatalog(BookContract.SORT_QUANTITY, noFilter, null, sold));
+        assertFalse(CatalogActivity.movesInCatalog(BookContract.SORT_NAME, noFilter, null, sold));
+
+        // Reloaded, the pages follow each other without skipping or repeating a book
+        page = queryPage(BookContract.SORT_QUANTITY, null, null);
+        assertEquals(ids(second, first), ids(page));
+        Book last = page.get(1);
+        assertEquals(ids(third), ids(queryPage(BookContract.SORT_QUANTITY,
+                String.valueOf(last.quantity), last.id)));
+    }
+
+    @Test
+    public void reloadsAfterSellingOutOfAStockFilter() {
+        long id = insertBook("Last copy", 1);
+        Bundle inStock = new Bundle();
+        inStock.putInt(BookContract.QUERY_PARAMETER_MIN_QUANTITY, 1);
+        Book shown = queryBook(id);
+
+        sell(id, 1);
+        Book sold = queryBook(id);
+        assertTrue(CatalogActivity.movesInCatalog(BookContract.SORT_NAME, inStock, shown, sold));
+        Bundle byPrice = new Bundle();
+        byPrice.putInt(BookContract.QUERY_PARAMETER_MAX_PRICE, 100);
+        assertFalse(CatalogActivity.movesInCatalog(BookContract.SORT_NAME, byPrice, shown, sold));
+    }
+
+    private long insertBook(String name, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_NAME, name);
+        values.put(BookEntry.COLUMN_PRICE, 10);
+        values.put(BookEntry.COLUMN_QUANTITY, quantity);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555");
+        return ContentUris.parseId(mContentResolver.insert(BookEntry.CONTENT_URI, values));
+    }
+
+    private void sell(long id, int copies) {
+        Bundle extras = new Bundle();
+        extras.putLong(BookContract.EXTRA_BOOK_ID, id);
+        extras.putInt(BookContract.EXTRA_DELTA, -copies);
+        mContentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_ADJUST_QUANTITY, null, extras);
+    }
+
+    /**
+     * @return a page of two books in the given order, after the given key if there is one
+     */
+    private List<Book> queryPage(String sort, String afterValue, Long afterId) {
+        Uri.Builder uri = BookEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_SORT, sort)
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_LIMIT, "2");
+        if (afterId != null) {
+            uri.appendQueryParameter(BookContract.QUERY_PARAMETER_AFTER_VALUE, afterValue)
+                    .appendQueryParameter(BookContract.QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+        }
+        return read(uri.build());
+    }
+
+    private Book queryBook(long id) {
+        return read(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id)).get(0);
+    }
+
+    private List<Book> read(Uri uri) {
+        BookCursor cursor = BookCursor.wrap(mContentResolver.query(uri, null, null, null, null));
+        ArrayList<Book> books = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                books.add(cursor.getBook());
+            }
+        } finally {
+            cursor.close();
+        }
+        return books;
+    }
+
+    private static List<Long> ids(long... ids) {
+        ArrayList<Long> list = new ArrayList<>();
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static List<Long> ids(List<Book> books) {
+        ArrayList<Long> ids = new ArrayList<>();
+        for (Book book : books) {
+            ids.add(book.id);
+        }
+        return ids;
+    }
+}
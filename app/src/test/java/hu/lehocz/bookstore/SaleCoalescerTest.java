@@ -0,0 +1,221 @@
+package hu.lehocz.bookstore;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowToast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import hu.lehocz.bookstore.data.BookContract;
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+import hu.lehocz.bookstore.data.BookProvider;
+import hu.lehocz.bookstore.data.BookWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class SaleCoalescerTest {
+
+    private BookProvider mProvider;
+
+    private ContentResolver mContentResolver;
+
+    /**
+     * Runs the writes at once on the test's thread, unless told to reject them
+     */
+    private final CountingExecutor mExecutor = new CountingExecutor();
+
+    private final Recorder mRecorder = new Recorder();
+
+    private SaleCoalescer mSales;
+
+    private static class CountingExecutor implements Executor {
+
+        int writes;
+        boolean rejecting;
+
+        @Override
+        public void execute(Runnable command) {
+            if (rejecting) {
+                throw new RejectedExecutionException();
+            }
+            writes++;
+            command.run();
+        }
+    }
+
+    /**
+     * Records the calls of the listener.
+     */
+    private static class Recorder implements SaleCoalescer.Listener {
+
+        final List<Long> overlayChanges = new ArrayList<>();
+        final List<String> commits = new ArrayList<>();
+
+        @Override
+        public void onOverlayChanged(long id) {
+            overlayChanges.add(id);
+        }
+
+        @Override
+        public void onSaleCommitted(long id, int quantity) {
+            commits.add(id + ": " + quantity);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(BookProvider.class, BookContract.CONTENT_AUTHORITY);
+        mContentResolver = RuntimeEnvironment.application.getContentResolver();
+        mSales = new SaleCoalescer(RuntimeEnvironment.application, mRecorder,
+                new BookWriter(mContentResolver, mExecutor));
+        // The flush and the results of the writes wait for the test to run the UI thread
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void writesTheTapsOfTheWindowAsOneSale() {
+        long id = insertBook(5);
+        mSales.sell(id, 5);
+        mSales.sell(id, 4);
+        ShadowLooper.idleMainLooper(SaleCoalescer.FLUSH_DELAY_MS - 1);
+        mSales.sell(id, 3);
+        assertEquals(-3, mSales.getDelta(id));
+        assertEquals(Arrays.asList(id, id, id), mRecorder.overlayChanges);
+        assertEquals(0, mExecutor.writes);
+        assertEquals(5, queryQuantity(id));
+
+        // The window started with the first tap
+        ShadowLooper.idleMainLooper(1);
+        assertEquals(1, mExecutor.writes);
+        assertEquals(2, queryQuantity(id));
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(0, mSales.getDelta(id));
+        assertEquals(Arrays.asList(id + ": 2"), mRecorder.commits);
+
+        // Taps after the write start a window of their own
+        mSales.sell(id, 2);
+        ShadowLooper.idleMainLooper(SaleCoalescer.FLUSH_DELAY_MS);
+        assertEquals(2, mExecutor.writes);
+        assertEquals(1, queryQuantity(id));
+    }
+
+    @Test
+    public void rollsBackARefusedSale() {
+        long id = insertBook(1);
+        // Both taps were made while the list still showed an older quantity
+        mSales.sell(id, 3);
+        mSales.sell(id, 2);
+        assertEquals(-2, mSales.getDelta(id));
+
+        mSales.flush();
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(0, mSales.getDelta(id));
+        assertEquals(1, queryQuantity(id));
+        assertEquals(Arrays.asList(id, id, id), mRecorder.overlayChanges);
+        assertEquals(Arrays.<String>asList(), mRecorder.commits);
+        assertEquals(RuntimeEnvironment.application.getString(R.string.quantity_can_not_be_negative),
+                ShadowToast.getTextOfLatestToast());
+    }
+
+    @Test
+    public void rollsBackAFailedSale() {
+        long id = insertBook(5);
+        mSales.sell(id, 5);
+        mExecutor.rejecting = true;
+
+        mSales.flush();
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(0, mSales.getDelta(id));
+        assertEquals(5, queryQuantity(id));
+        assertEquals(Arrays.asList(id, id), mRecorder.overlayChanges);
+        assertEquals(RuntimeEnvironment.application.getString(R.string.sale_failed),
+                ShadowToast.getTextOfLatestToast());
+    }
+
+    @Test
+    public void writesTheBooksOfAFlushTogether() {
+        long first = insertBook(5);
+        long second = insertBook(1);
+        mSales.sell(first, 5);
+        mSales.sell(second, 1);
+        mSales.sell(first, 4);
+
+        mSales.flush();
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(1, mExecutor.writes);
+        assertEquals(3, queryQuantity(first));
+        assertEquals(0, queryQuantity(second));
+        assertEquals(Arrays.asList(first + ": 3", second + ": 0"), mRecorder.commits);
+    }
+
+    @Test
+    public void writesButDoesNotReportTheSalesAfterRelease() {
+        long id = insertBook(5);
+        mSales.sell(id, 5);
+        mSales.release();
+        mRecorder.overlayChanges.clear();
+
+        ShadowLooper.idleMainLooper(SaleCoalescer.FLUSH_DELAY_MS);
+        assertEquals(1, mExecutor.writes);
+        assertEquals(4, queryQuantity(id));
+        assertEquals(Arrays.<Long>asList(), mRecorder.overlayChanges);
+        assertEquals(Arrays.<String>asList(), mRecorder.commits);
+    }
+
+    @Test
+    public void refusesTapsWithoutCopiesShown() {
+        long id = insertBook(0);
+        assertFalse(mSales.sell(id, 0));
+        assertEquals(0, mSales.getDelta(id));
+        mSales.flush();
+        assertEquals(0, mExecutor.writes);
+        assertNull(ShadowToast.getTextOfLatestToast());
+    }
+
+    private long insertBook(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_NAME, "Dune");
+        values.put(BookEntry.COLUMN_PRICE, 10);
+        values.put(BookEntry.COLUMN_QUANTITY, quantity);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555");
+        return ContentUris.parseId(mContentResolver.insert(BookEntry.CONTENT_URI, values));
+    }
+
+    private int queryQuantity(long id) {
+        Cursor cursor = mContentResolver.query(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id),
+                new String[]{BookEntry.COLUMN_QUANTITY}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package hu.lehocz.bookstore.data;
+
+import android.database.MatrixCursor;
+import android.os.Build;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class BookCursorTest {
+
+    @Test
+    public void readsColumnsOfAnyProjection() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                BookEntry.COLUMN_QUANTITY, BookEntry.COLUMN_NAME, BookEntry._ID, BookEntry.COLUMN_PRICE});
+        cursor.addRow(new Object[]{3, "Dune", 7L, 12});
+        cursor.addRow(new Object[]{0, "Emma", 8L, 9});
+        BookCursor books = BookCursor.wrap(cursor);
+        assertSame(books, BookCursor.wrap(books));
+
+        books.moveToFirst();
+        assertEquals(7L, books.getId());
+        assertEquals("Dune", books.getName());
+        assertEquals(12, books.getPrice());
+        assertEquals(3, books.getQuantity());
+
+        BookCursor.Holder holder = new BookCursor.Holder();
+        holder.supplierId = 42;
+        books.moveToNext();
+        books.copyTo(holder);
+        assertEquals(8L, holder.id);
+        assertEquals("Emma", new String(holder.name.data, 0, holder.name.sizeCopied));
+        assertEquals(9, holder.price);
+        assertEquals(0, holder.quantity);
+        // Not in the projection
+        assertEquals(42, holder.supplierId);
+        try {
+            books.getSupplierName();
+            fail("Supplier name isn't in the projection");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+}
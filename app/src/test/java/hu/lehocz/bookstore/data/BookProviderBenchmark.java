@@ -0,0 +1,327 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.util.JsonWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Times the operations of {@link BookProvider} against a real SQLite database on the host,
+ * for catalogs of growing size. For every size the catalog is filled with batched inserts,
+ * then single inserts, updates by ID, single book queries, full catalog queries and finally
+ * a delete of every book are timed.
+ * <p>
+ * Only runs when the bookstore.benchmark system property is true, which the build sets for
+ * {@code ./gradlew testDebugUnitTest -Pbenchmark}. The catalog sizes can be given as a comma
+ * separated list in bookstore.benchmark.sizes. Results are written as JSON to the file named
+ * by bookstore.benchmark.output, so runs can be compared to find regressions.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class BookProviderBenchmark {
+
+    private static final String DEFAULT_SIZES = "1000,10000,100000,1000000";
+
+    private static final String DEFAULT_OUTPUT = "build/benchmarks/book-provider.json";
+
+    /**
+     * Number of books in one bulk insert, as imports use
+     */
+    private static final int CHUNK_SIZE = BookImporter.DEFAULT_CHUNK_SIZE;
+
+    /**
+     * Number of timed calls of the operations on a single book
+     */
+    private static final int SINGLE_ITERATIONS = 200;
+
+    /**
+     * Number of timed reads of the whole catalog
+     */
+    private static final int CATALOG_ITERATIONS = 5;
+
+    /**
+     * Number of books in a page of search results, as the catalog loads them
+     */
+    private static final int SEARCH_PAGE_SIZE = 50;
+
+    private static final String[] CATALOG_PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_NAME,
+            BookEntry.COLUMN_PRICE,
+            BookEntry.COLUMN_QUANTITY,
+            BookEntry.COLUMN_SUPPLIER_NAME};
+
+    private final List<Result> mResults = new ArrayList<>();
+
+    private final Random mRandom = new Random(42);
+
+    private BookProvider mProvider;
+
+    private ContentResolver mContentResolver;
+
+    /**
+     * Timing of one operation at one catalog size.
+     */
+    private static class Result {
+
+        final String operation;
+        final int catalogSize;
+        final long[] times;
+        final int rowsPerCall;
+
+        /**
+         * @param times       nanoseconds taken by every timed call
+         * @param rowsPerCall number of books written or read by one call
+         */
+        Result(String operation, int catalogSize, long[] times, int rowsPerCall) {
+            this.operation = operation;
+            this.catalogSize = catalogSize;
+            this.times = times;
+            this.rowsPerCall = rowsPerCall;
+            Arrays.sort(times);
+        }
+
+        long median() {
+            return times[times.length / 2];
+        }
+
+        void write(JsonWriter writer) throws IOException {
+            long total = 0;
+            for (long time : times) {
+                total += time;
+            }
+            writer.beginObject();
+            writer.name("operation").value(operation);
+            writer.name("catalog_size").value(catalogSize);
+            writer.name("calls").value(times.length);
+            writer.name("rows_per_call").value(rowsPerCall);
+            writer.name("min_ns").value(times[0]);
+            writer.name("median_ns").value(median());
+            writer.name("p90_ns").value(times[times.length * 9 / 10]);
+            writer.name("max_ns").value(times[times.length - 1]);
+            writer.name("rows_per_second").value(
+                    (double) rowsPerCall * times.length * 1000000000L / Math.max(total, 1));
+            writer.endObject();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        assumeTrue("Benchmarks are only run with -Pbenchmark", Boolean.getBoolean("bookstore.benchmark"));
+        mProvider = Robolectric.setupContentProvider(BookProvider.class, BookContract.CONTENT_AUTHORITY);
+        mContentResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        if (mProvider != null) {
+            mProvider.shutdown();
+        }
+    }
+
+    @Test
+    public void operationsByCatalogSize() throws IOException {
+        for (String size : System.getProperty("bookstore.benchmark.sizes", DEFAULT_SIZES).split(",")) {
+            benchmarkCatalog(Integer.parseInt(size.trim()));
+        }
+        writeResults(new File(System.getProperty("bookstore.benchmark.output", DEFAULT_OUTPUT)));
+    }
+
+    /**
+     * Time every operation on a catalog of the given size, starting from an empty one and
+     * leaving it empty.
+     */
+    private void benchmarkCatalog(int catalogSize) {
+        // Batched insert: the whole catalog in chunks, as an import does it
+        int chunks = (catalogSize + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        long[] times = new long[chunks];
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int count = Math.min(CHUNK_SIZE, catalogSize - chunk * CHUNK_SIZE);
+            ContentValues[] values = new ContentValues[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = book(chunk * CHUNK_SIZE + i);
+            }
+            long start = System.nanoTime();
+            assertEquals(count, mContentResolver.bulkInsert(BookEntry.CONTENT_URI, values));
+            times[chunk] = System.nanoTime() - start;
+        }
+        mResults.add(new Result("bulk_insert", catalogSize, times, Math.min(CHUNK_SIZE, catalogSize)));
+
+        long[] ids = queryIds();
+        assertEquals(catalogSize, ids.length);
+
+        times = new long[SINGLE_ITERATIONS];
+        for (int i = 0; i < times.length; i++) {
+            ContentValues values = book(catalogSize + i);
+            long start = System.nanoTime();
+            mContentResolver.insert(BookEntry.CONTENT_URI, values);
+            times[i] = System.nanoTime() - start;
+        }
+        mResults.add(new Result("insert", catalogSize, times, 1));
+
+        times = new long[SINGLE_ITERATIONS];
+        for (int i = 0; i < times.length; i++) {
+            Uri uri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, randomId(ids));
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_PRICE, mRandom.nextInt(100));
+            long start = System.nanoTime();
+            mContentResolver.update(uri, values, null, null);
+            times[i] = System.nanoTime() - start;
+        }
+        mResults.add(new Result("update_by_id", catalogSize, times, 1));
+
+        // Random books, so most reads miss the row cache of the provider, as they would when
+        // scrolling a large catalog
+        times = new long[SINGLE_ITERATIONS];
+        for (int i = 0; i < times.length; i++) {
+            Uri uri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, randomId(ids));
+            long start = System.nanoTime();
+            Cursor cursor = mContentResolver.query(uri, null, null, null, null);
+            try {
+                assertEquals(1, readAll(cursor));
+            } finally {
+                cursor.close();
+            }
+            times[i] = System.nanoTime() - start;
+        }
+        mResults.add(new Result("query_by_id", catalogSize, times, 1));
+
+        int booksInCatalog = catalogSize + SINGLE_ITERATIONS;
+        times = new long[CATALOG_ITERATIONS];
+        for (int i = 0; i < times.length; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mContentResolver.query(BookEntry.CONTENT_URI, CATALOG_PROJECTION,
+                    null, null, BookEntry.COLUMN_NAME + ", " + BookEntry._ID);
+            try {
+                assertEquals(booksInCatalog, readAll(cursor));
+            } finally {
+                cursor.close();
+            }
+            times[i] = System.nanoTime() - start;
+        }
+        mResults.add(new Result("query_catalog", catalogSize, times, booksInCatalog));
+
+        // The first keystroke of a search: a single letter the name of every book starts with
+        Uri searchUri = BookEntry.SEARCH_URI.buildUpon()
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_SEARCH, "b")
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_LIMIT,
+                        String.valueOf(SEARCH_PAGE_SIZE))
+                .build();
+        int searchPage = Math.min(SEARCH_PAGE_SIZE, booksInCatalog);
+        times = new long[CATALOG_ITERATIONS];
+        for (int i = 0; i < times.length; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mContentResolver.query(searchUri, CATALOG_PROJECTION, null, null, null);
+            try {
+                assertEquals(searchPage, readAll(cursor));
+            } finally {
+                cursor.close();
+            }
+            times[i] = System.nanoTime() - start;
+        }
+        mResults.add(new Result("search_short_prefix", catalogSize, times, searchPage));
+
+        long start = System.nanoTime();
+        assertEquals(booksInCatalog, mContentResolver.delete(BookEntry.CONTENT_URI, null, null));
+        times = new long[]{System.nanoTime() - start};
+        mResults.add(new Result("delete_all", catalogSize, times, booksInCatalog));
+    }
+
+    /**
+     * @return the values of the i-th book of the catalog, one of 100 suppliers
+     */
+    private static ContentValues book(int i) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_NAME, "Book " + i);
+        values.put(BookEntry.COLUMN_PRICE, i % 100);
+        values.put(BookEntry.COLUMN_QUANTITY, i % 20);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier " + i % 100);
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "+36 20 " + (1000000 + i % 100));
+        return values;
+    }
+
+    private long[] queryIds() {
+        Cursor cursor = mContentResolver.query(BookEntry.CONTENT_URI, new String[]{BookEntry._ID},
+                null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long randomId(long[] ids) {
+        return ids[mRandom.nextInt(ids.length)];
+    }
+
+    /**
+     * Read every column of every row, as the catalog would when binding them.
+     *
+     * @return the number of rows read
+     */
+    private static int readAll(Cursor cursor) {
+        int count = 0;
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < cursor.getColumnCount(); i++) {
+                cursor.getString(i);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private void writeResults(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.setIndent("  ");
+            writer.beginObject();
+            writer.name("benchmark").value(BookProviderBenchmark.class.getSimpleName());
+            writer.name("timestamp").value(System.currentTimeMillis());
+            writer.name("java_version").value(System.getProperty("java.version"));
+            writer.name("os").value(System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+            writer.name("results");
+            writer.beginArray();
+            for (Result result : mResults) {
+                result.write(writer);
+            }
+            writer.endArray();
+            writer.endObject();
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class BookProviderNotificationTest {
+
+    private BookProvider mProvider;
+
+    private ContentResolver mContentResolver;
+
+    /**
+     * URIs notified since the last check, in order
+     */
+    private final List<Uri> mNotified = new ArrayList<>();
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mNotified.add(uri);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(BookProvider.class, BookContract.CONTENT_AUTHORITY);
+        mContentResolver = RuntimeEnvironment.application.getContentResolver();
+        mContentResolver.registerContentObserver(BookContract.BASE_CONTENT_URI, true, mObserver);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.unregisterContentObserver(mObserver);
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void insertNotifiesTheListAndTheRow() {
+        long id = insertBook("Dune");
+        assertNotified(BookEntry.CONTENT_URI, rowChangeUri(id));
+    }
+
+    @Test
+    public void updateNotifiesTheListOnlyWhenTheBookMayMove() {
+        long id = insertBook("Dune");
+        mNotified.clear();
+        Uri uri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, id);
+
+        ContentValues quantity = new ContentValues();
+        quantity.put(BookEntry.COLUMN_QUANTITY, 5);
+        assertEquals(1, mContentResolver.update(uri, quantity, null, null));
+        assertNotified(rowChangeUri(id));
+
+        ContentValues name = new ContentValues();
+        name.put(BookEntry.COLUMN_NAME, "Emma");
+        assertEquals(1, mContentResolver.update(uri, name, null, null));
+        assertNotified(BookEntry.CONTENT_URI, rowChangeUri(id));
+
+        assertEquals(0, mContentResolver.update(
+                ContentUris.withAppendedId(BookEntry.CONTENT_URI, id + 1), quantity, null, null));
+        assertNotified();
+    }
+
+    @Test
+    public void adjustmentNotifiesOnlyTheRow() {
+        long id = insertBook("Dune");
+        mNotified.clear();
+
+        assertEquals(0, adjustQuantity(id, -1));
+        assertNotified(rowChangeUri(id));
+
+        // Refused, nothing changed
+        assertEquals(-1, adjustQuantity(id, -1));
+        assertNotified();
+    }
+
+    @Test
+    public void adjustmentOfSeveralBooksNotifiesTheRowsChanged() {
+        long first = insertBook("Dune");
+        long second = insertBook("Emma");
+        mNotified.clear();
+
+        Bundle extras = new Bundle();
+        extras.putLongArray(BookContract.EXTRA_BOOK_IDS, new long[]{first, second, second + 1});
+        extras.putIntArray(BookContract.EXTRA_DELTAS, new int[]{-1, -2, -1});
+        Bundle result = mContentResolver.call(BookEntry.CONTENT_URI,
+                BookContract.METHOD_ADJUST_QUANTITIES, null, extras);
+        // The second would become negative, the third doesn't exist
+        assertArrayEquals(new int[]{0, -1, -1}, result.getIntArray(BookContract.EXTRA_QUANTITIES));
+        assertNotified(rowChangeUri(first));
+    }
+
+    @Test
+    public void batchNotifiesOnceAfterTheCommit() throws OperationApplicationException {
+        long id = insertBook("Dune");
+        mNotified.clear();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(BookEntry.CONTENT_URI)
+                .withValues(book("Emma")).build());
+        operations.add(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id))
+                .withValue(BookEntry.COLUMN_QUANTITY, 5).build());
+        mProvider.applyBatch(operations);
+        assertNotified(BookEntry.CONTENT_URI, BookEntry.ROW_CHANGES_URI);
+
+        // Changed nothing
+        operations.clear();
+        operations.add(ContentProviderOperation.newDelete(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id + 10))
+                .build());
+        mProvider.applyBatch(operations);
+        assertNotified();
+
+        // Rolled back by the failed assertion at its end
+        operations.clear();
+        operations.add(ContentProviderOperation.newInsert(BookEntry.CONTENT_URI)
+                .withValues(book("Anna Karenina")).build());
+        operations.add(ContentProviderOperation.newAssertQuery(BookEntry.CONTENT_URI)
+                .withExpectedCount(0).build());
+        try {
+            mProvider.applyBatch(operations);
+            fail();
+        } catch (OperationApplicationException expected) {
+            // Expected
+        }
+        assertNotified();
+    }
+
+    @Test
+    public void bulkInsertNotifiesOnceOrRollsBackEveryRow() {
+        assertEquals(2, mContentResolver.bulkInsert(BookEntry.CONTENT_URI,
+                new ContentValues[]{book("Dune"), book("Emma")}));
+        assertNotified(BookEntry.CONTENT_URI, BookEntry.ROW_CHANGES_URI);
+
+        ContentValues invalid = book("Anna Karenina");
+        invalid.remove(BookEntry.COLUMN_NAME);
+        try {
+            mContentResolver.bulkInsert(BookEntry.CONTENT_URI,
+                    new ContentValues[]{book("Anna Karenina"), invalid});
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        assertNotified();
+        Cursor cursor = mContentResolver.query(BookEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void deleteNotifiesTheListAndTheRows() {
+        long id = insertBook("Dune");
+        insertBook("Emma");
+        mNotified.clear();
+
+        assertEquals(1, mContentResolver.delete(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id), null, null));
+        assertNotified(BookEntry.CONTENT_URI, rowChangeUri(id));
+
+        assertEquals(0, mContentResolver.delete(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id), null, null));
+        assertNotified();
+
+        assertEquals(1, mContentResolver.delete(BookEntry.CONTENT_URI, null, null));
+        assertNotified(BookEntry.CONTENT_URI, BookEntry.ROW_CHANGES_URI);
+    }
+
+    /**
+     * Check the URIs notified since the last check.
+     */
+    private void assertNotified(Uri... uris) {
+        assertEquals(Arrays.asList(uris), mNotified);
+        mNotified.clear();
+    }
+
+    private static Uri rowChangeUri(long id) {
+        return ContentUris.withAppendedId(BookEntry.ROW_CHANGES_URI, id);
+    }
+
+    private int adjustQuantity(long id, int delta) {
+        Bundle extras = new Bundle();
+        extras.putLong(BookContract.EXTRA_BOOK_ID, id);
+        extras.putInt(BookContract.EXTRA_DELTA, delta);
+        return mContentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_ADJUST_QUANTITY, null, extras)
+                .getInt(BookContract.EXTRA_QUANTITY);
+    }
+
+    private long insertBook(String name) {
+        return ContentUris.parseId(mContentResolver.insert(BookEntry.CONTENT_URI, book(name)));
+    }
+
+    private static ContentValues book(String name) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_NAME, name);
+        values.put(BookEntry.COLUMN_PRICE, 10);
+        values.put(BookEntry.COLUMN_QUANTITY, 1);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555");
+        return values;
+    }
+}
@@ -0,0 +1,184 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class BookProviderSearchTest {
+
+    private static final String[] PROJECTION = {BookEntry._ID, BookEntry.COLUMN_NAME};
+
+    private BookProvider mProvider;
+
+    private ContentResolver mContentResolver;
+
+    /**
+     * _ID of the first book, the first result of "har"
+     */
+    private long mFirstId;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(BookProvider.class, BookContract.CONTENT_AUTHORITY);
+        mContentResolver = RuntimeEnvironment.application.getContentResolver();
+        mFirstId = insertBook("Harry Potter", "Bloomsbury");
+        insertBook("Dune", "Harper");
+        insertBook("The Harrowing", "Penguin");
+        insertBook("Anna Karenina", "Harper");
+        insertBook("Harry Potter", "Scholastic");
+        insertBook("Emma", "Penguin");
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void ranksNameMatchesFirst() {
+        assertEquals(Arrays.asList("Harry Potter", "Harry Potter", "The Harrowing",
+                "Anna Karenina", "Dune"), names(read(searchUri("har"))));
+        assertEquals(Arrays.asList("Anna Karenina", "Dune", "Emma", "Harry Potter",
+                "Harry Potter", "The Harrowing"), names(read(searchUri(""))));
+    }
+
+    @Test
+    public void pagesFollowEachOtherAcrossTheRanks() {
+        for (String terms : new String[]{"har", "pen", ""}) {
+            List<String[]> all = read(searchUri(terms));
+            for (int pageSize = 1; pageSize <= all.size() + 1; pageSize++) {
+                assertEquals(terms + " by " + pageSize, rows(all), rows(readPages(terms, pageSize)));
+            }
+        }
+    }
+
+    @Test
+    public void pageAfterADeletedBookKeepsTheNameMatches() {
+        assertEquals(1, mContentResolver.delete(
+                ContentUris.withAppendedId(BookEntry.CONTENT_URI, mFirstId), null, null));
+
+        // Not in the index any more, the book counts as a name match
+        assertEquals(Arrays.asList("Harry Potter", "The Harrowing"),
+                names(read(pageUri("har", 2, "Harry Potter", mFirstId, null))));
+        assertEquals(Arrays.asList("Harry Potter", "The Harrowing"),
+                names(read(pageUri("har", 2, "Harry Potter", mFirstId, 0))));
+    }
+
+    @Test
+    public void pageAfterARenamedBookTakesTheRankOfTheKey() {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_NAME, "Zebra");
+        assertEquals(1, mContentResolver.update(
+                ContentUris.withAppendedId(BookEntry.CONTENT_URI, mFirstId), values, null, null));
+
+        assertEquals(Arrays.asList("Harry Potter", "The Harrowing"),
+                names(read(pageUri("har", 2, "Harry Potter", mFirstId, 0))));
+    }
+
+    /**
+     * @return every result of the search, read a page of the given size at a time
+     */
+    private List<String[]> readPages(String terms, int pageSize) {
+        ArrayList<String[]> books = new ArrayList<>();
+        while (true) {
+            String[] last = books.isEmpty() ? null : books.get(books.size() - 1);
+            List<String[]> page = last == null ? read(pageUri(terms, pageSize, null, null, null))
+                    : read(pageUri(terms, pageSize, last[1], Long.valueOf(last[0]), Integer.valueOf(last[2])));
+            books.addAll(page);
+            if (page.size() < pageSize) {
+                return books;
+            }
+        }
+    }
+
+    /**
+     * @return the URI of a page of the search, after the given key if there is one
+     */
+    private static Uri pageUri(String terms, int pageSize, String afterValue, Long afterId,
+                               Integer afterRank) {
+        Uri.Builder uri = searchUri(terms).buildUpon()
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_LIMIT, String.valueOf(pageSize));
+        if (afterId != null) {
+            uri.appendQueryParameter(BookContract.QUERY_PARAMETER_AFTER_VALUE, afterValue)
+                    .appendQueryParameter(BookContract.QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+        }
+        if (afterRank != null) {
+            uri.appendQueryParameter(BookContract.QUERY_PARAMETER_AFTER_RANK, String.valueOf(afterRank));
+        }
+        return uri.build();
+    }
+
+    private static Uri searchUri(String terms) {
+        return BookEntry.SEARCH_URI.buildUpon()
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_SEARCH, terms).build();
+    }
+
+    /**
+     * @return the _ID, the name and the search rank of the books of the cursor
+     */
+    private List<String[]> read(Uri uri) {
+        Cursor cursor = mContentResolver.query(uri, PROJECTION, null, null, null);
+        ArrayList<String[]> books = new ArrayList<>();
+        try {
+            int rankIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_SEARCH_RANK);
+            while (cursor.moveToNext()) {
+                books.add(new String[]{cursor.getString(0), cursor.getString(1),
+                        cursor.getString(rankIndex)});
+            }
+        } finally {
+            cursor.close();
+        }
+        return books;
+    }
+
+    private static List<String> names(List<String[]> books) {
+        ArrayList<String> names = new ArrayList<>();
+        for (String[] book : books) {
+            names.add(book[1]);
+        }
+        return names;
+    }
+
+    /**
+     * @return the _ID and the name of each book, to tell apart the books of the same name
+     */
+    private static List<String> rows(List<String[]> books) {
+        ArrayList<String> rows = new ArrayList<>();
+        for (String[] book : books) {
+            rows.add(book[0] + " " + book[1]);
+        }
+        return rows;
+    }
+
+    private long insertBook(String name, String supplierName) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_NAME, name);
+        values.put(BookEntry.COLUMN_PRICE, 10);
+        values.put(BookEntry.COLUMN_QUANTITY, 1);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, supplierName);
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555");
+        return ContentUris.parseId(mContentResolver.insert(BookEntry.CONTENT_URI, values));
+    }
+}
@@ -0,0 +1,104 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class BookProviderVersionTest {
+
+    private BookProvider mProvider;
+
+    private ContentResolver mContentResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(BookProvider.class, BookContract.CONTENT_AUTHORITY);
+        mContentResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void updatesOnlyTheExpectedVersion() {
+        Uri uri = insertBook();
+        assertEquals(0, version(uri));
+
+        // A sale made while the book was being edited
+        Bundle extras = new Bundle();
+        extras.putLong(BookContract.EXTRA_BOOK_ID, ContentUris.parseId(uri));
+        extras.putInt(BookContract.EXTRA_DELTA, -1);
+        mContentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_ADJUST_QUANTITY, null, extras);
+        assertEquals(1, version(uri));
+
+        ContentValues edit = new ContentValues();
+        edit.put(BookEntry.COLUMN_NAME, "Edited");
+        edit.put(BookEntry.COLUMN_QUANTITY, 10);
+        edit.put(BookEntry.COLUMN_VERSION, 0L);
+        assertEquals(0, mContentResolver.update(uri, edit, null, null));
+
+        ContentValues quantity = new ContentValues();
+        quantity.put(BookEntry.COLUMN_QUANTITY, 10);
+        quantity.put(BookEntry.COLUMN_VERSION, 0L);
+        assertEquals(0, mContentResolver.update(uri, quantity, null, null));
+        assertEquals(4, quantity(uri));
+
+        edit.put(BookEntry.COLUMN_VERSION, 1L);
+        assertEquals(1, mContentResolver.update(uri, edit, null, null));
+        assertEquals(2, version(uri));
+        assertEquals(10, quantity(uri));
+
+        // Without a version the update isn't conditional, but still increments it
+        quantity.remove(BookEntry.COLUMN_VERSION);
+        assertEquals(1, mContentResolver.update(uri, quantity, null, null));
+        assertEquals(3, version(uri));
+    }
+
+    private Uri insertBook() {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_NAME, "Book");
+        values.put(BookEntry.COLUMN_PRICE, 10);
+        values.put(BookEntry.COLUMN_QUANTITY, 5);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555");
+        return mContentResolver.insert(BookEntry.CONTENT_URI, values);
+    }
+
+    private long version(Uri uri) {
+        return read(uri).version;
+    }
+
+    private int quantity(Uri uri) {
+        return read(uri).quantity;
+    }
+
+    private Book read(Uri uri) {
+        BookCursor cursor = BookCursor.wrap(mContentResolver.query(uri, null, null, null, null));
+        try {
+            cursor.moveToFirst();
+            return cursor.getBook();
+        } finally {
+            cursor.close();
+        }
+    }
+}
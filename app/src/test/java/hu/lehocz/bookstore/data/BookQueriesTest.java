@@ -0,0 +1,321 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class BookQueriesTest {
+
+    private static final Uri BOOKS_BY_NAME = BookEntry.CONTENT_URI.buildUpon()
+            .appendQueryParameter(BookContract.QUERY_PARAMETER_SORT, BookContract.SORT_NAME)
+            .build();
+
+    private static final String[] PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_NAME,
+            BookEntry.COLUMN_QUANTITY};
+
+    private BookProvider mProvider;
+
+    private ContentResolver mContentResolver;
+
+    private final ManualExecutor mExecutor = new ManualExecutor();
+
+    private BookQueries mQueries;
+
+    /**
+     * Runs the queries when the test says so, on the test's thread.
+     */
+    private static class ManualExecutor extends AbstractExecutorService {
+
+        private final ArrayList<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        /**
+         * @return the number of tasks run
+         */
+        int runPending() {
+            int count = 0;
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<>(mTasks);
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    /**
+     * Records the calls of a subscriber.
+     */
+    private static class Recorder implements BookQueries.Observer {
+
+        int calls;
+        List<Book> books;
+        DiffUtil.DiffResult diff;
+
+        @Override
+        public void onBooksChanged(List<Book> books, DiffUtil.DiffResult diff) {
+            calls++;
+            this.books = books;
+            this.diff = diff;
+        }
+
+        List<String> names() {
+            ArrayList<String> names = new ArrayList<>();
+            for (Book book : books) {
+                names.add(book.name);
+            }
+            return names;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(BookProvider.class, BookContract.CONTENT_AUTHORITY);
+        mContentResolver = RuntimeEnvironment.application.getContentResolver();
+        mQueries = new BookQueries(mContentResolver, mExecutor);
+        // Deliveries wait for the UI thread to be run by the test
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void runsEqualQueriesOnceForAllSubscribers() {
+        insertBook("Dune", 1);
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        mQueries.subscribe(new BookQuery(BOOKS_BY_NAME, PROJECTION), first);
+        mQueries.subscribe(new BookQuery(BOOKS_BY_NAME, PROJECTION.clone()), second);
+        runAll();
+
+        assertEquals(1, queryCount());
+        assertEquals(1, first.calls);
+        assertEquals(Arrays.asList("Dune"), first.names());
+        assertNull(first.diff);
+        assertEquals(first.books, second.books);
+
+        // A subscriber arriving later gets the books already loaded
+        Recorder third = new Recorder();
+        mQueries.subscribe(new BookQuery(BOOKS_BY_NAME, PROJECTION), third);
+        runAll();
+        assertEquals(1, queryCount());
+        assertEquals(first.books, third.books);
+    }
+
+    @Test
+    public void deliversTheDiffOfAChange() {
+        insertBook("Anna", 1);
+        insertBook("Dune", 1);
+        Recorder recorder = new Recorder();
+        mQueries.subscribe(new BookQuery(BOOKS_BY_NAME, PROJECTION), recorder);
+        runAll();
+
+        insertBook("Emma", 2);
+        runAll();
+        assertEquals(2, recorder.calls);
+        assertEquals(Arrays.asList("Anna", "Dune", "Emma"), recorder.names());
+        assertNotNull(recorder.diff);
+        final ArrayList<String> updates = new ArrayList<>();
+        recorder.diff.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                updates.add("inserted " + position + " " + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                updates.add("removed " + position + " " + count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                updates.add("moved " + fromPosition + " " + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                updates.add("changed " + position + " " + count);
+            }
+        });
+        assertEquals(Arrays.asList("inserted 2 1"), updates);
+
+        // Loading the same books again doesn't bother the subscribers
+        mContentResolver.notifyChange(BookEntry.CONTENT_URI, null);
+        runAll();
+        assertEquals(2, recorder.calls);
+    }
+
+    @Test
+    public void releasesAQueryUnsubscribedBeforeItHasLoaded() {
+        insertBook("Dune", 1);
+        Recorder recorder = new Recorder();
+        BookQueries.Subscription subscription =
+                mQueries.subscribe(new BookQuery(BOOKS_BY_NAME, PROJECTION), recorder);
+        subscription.unsubscribe();
+        // Released, and its load canceled, before the load gets to run
+        ShadowLooper.runUiThreadTasks();
+        runAll();
+        assertEquals(0, recorder.calls);
+
+        // Subscribing again runs the query anew
+        Recorder again = new Recorder();
+        mQueries.subscribe(new BookQuery(BOOKS_BY_NAME, PROJECTION), again);
+        runAll();
+        assertEquals(1, again.calls);
+    }
+
+    @Test
+    public void followsTheStats() {
+        insertBook("Dune", 1);
+        final ArrayList<InventoryStats> stats = new ArrayList<>();
+        BookQueries.StatsObserver observer = new BookQueries.StatsObserver() {
+            @Override
+            public void onStatsChanged(InventoryStats changed) {
+                stats.add(changed);
+            }
+        };
+        BookQueries.Subscription subscription = mQueries.subscribeStats(observer);
+        runAll();
+        assertEquals(Arrays.asList(new InventoryStats(1, 1, 10, 0, 1)), stats);
+
+        // A book without copies
+        insertBook("Emma", 0);
+        runAll();
+        assertEquals(new InventoryStats(2, 1, 10, 1, 1), stats.get(stats.size() - 1));
+        assertEquals(2, stats.size());
+
+        subscription.unsubscribe();
+        ShadowLooper.runUiThreadTasks();
+        insertBook("Anna", 3);
+        runAll();
+        assertEquals(2, stats.size());
+    }
+
+    @Test
+    public void readsOnceUnlessCanceled() {
+        insertBook("Dune", 1);
+        Recorder recorder = new Recorder();
+        mQueries.read(new BookQuery(BOOKS_BY_NAME, PROJECTION), recorder);
+        runAll();
+        assertEquals(1, recorder.calls);
+        assertEquals(Arrays.asList("Dune"), recorder.names());
+        assertNull(recorder.diff);
+
+        // Not followed
+        insertBook("Emma", 1);
+        runAll();
+        assertEquals(1, recorder.calls);
+
+        // Canceled before it runs
+        Recorder canceled = new Recorder();
+        mQueries.read(new BookQuery(BOOKS_BY_NAME, PROJECTION), canceled).cancel();
+        runAll();
+        assertEquals(0, canceled.calls);
+
+        // Canceled once it has run, the books aren't delivered
+        BookQueries.Read read = mQueries.read(new BookQuery(BOOKS_BY_NAME, PROJECTION), canceled);
+        mExecutor.runPending();
+        read.cancel();
+        runAll();
+        assertEquals(0, canceled.calls);
+    }
+
+    @Test(expected = android.os.OperationCanceledException.class)
+    public void canceledSearchIsAbortedInTheDatabase() {
+        insertBook("Dune", 1);
+        android.os.CancellationSignal signal = new android.os.CancellationSignal();
+        signal.cancel();
+        mProvider.query(BookEntry.SEARCH_URI.buildUpon()
+                        .appendQueryParameter(BookContract.QUERY_PARAMETER_SEARCH, "dune").build(),
+                PROJECTION, null, null, null, signal);
+    }
+
+    /**
+     * Run the queries and the deliveries until neither has anything left to do.
+     */
+    private void runAll() {
+        do {
+            ShadowLooper.runUiThreadTasks();
+        } while (mExecutor.runPending() > 0);
+    }
+
+    /**
+     * @return the number of queries of the books URI the provider has run
+     */
+    private long queryCount() {
+        Bundle stats = mContentResolver.call(BookEntry.CONTENT_URI,
+                BookContract.METHOD_PROVIDER_STATS, null, null);
+        Bundle books = stats.getBundle("query/books");
+        return books == null ? 0 : books.getLong(BookContract.EXTRA_OPERATION_COUNT);
+    }
+
+    private void insertBook(String name, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_NAME, name);
+        values.put(BookEntry.COLUMN_PRICE, 10);
+        values.put(BookEntry.COLUMN_QUANTITY, quantity);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555");
+        mContentResolver.insert(BookEntry.CONTENT_URI, values);
+    }
+}
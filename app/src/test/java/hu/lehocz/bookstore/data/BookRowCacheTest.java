@@ -0,0 +1,160 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class BookRowCacheTest {
+
+    private static final String[] NAME = {BookEntry.COLUMN_NAME};
+
+    private final BookRowCache mCache = new BookRowCache(8);
+
+    private BookProvider mProvider;
+
+    @After
+    public void tearDown() {
+        if (mProvider != null) {
+            mProvider.shutdown();
+        }
+    }
+
+    @Test
+    public void keepsOutARowReadBeforeAWrite() {
+        // The read begins, then a write of the book commits before the read caches its row
+        long generation = mCache.getGeneration();
+        mCache.invalidate(1);
+        mCache.put(1, row(1, "Old name"), generation);
+        assertNull(mCache.get(1, NAME));
+
+        // The write of any book keeps the row out, as the read can't tell which book it was
+        generation = mCache.getGeneration();
+        mCache.invalidate(2);
+        mCache.put(1, row(1, "Old name"), generation);
+        assertNull(mCache.get(1, NAME));
+
+        // A read that began after the write caches its row
+        generation = mCache.getGeneration();
+        mCache.put(1, row(1, "New name"), generation);
+        assertEquals("New name", name(mCache.get(1, NAME)));
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    @Test
+    public void invalidateAllDropsEveryRowAndTheReadsInProgress() {
+        long generation = mCache.getGeneration();
+        mCache.put(1, row(1, "Anna"), generation);
+        mCache.put(2, row(2, "Dune"), generation);
+        mCache.invalidateAll();
+        assertEquals(0, mCache.size());
+        assertNull(mCache.get(1, NAME));
+
+        mCache.put(3, row(3, "Emma"), generation);
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void trimsToTheMemoryLevel() {
+        for (long id = 1; id <= 8; id++) {
+            mCache.put(id, row(id, "Book " + id), mCache.getGeneration());
+        }
+        // Used last, so kept when the cache shrinks
+        assertNotNull(mCache.get(1, NAME));
+
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(4, mCache.maxSize());
+        assertEquals(4, mCache.size());
+        assertNotNull(mCache.get(1, NAME));
+        assertNotNull(mCache.get(8, NAME));
+        assertNull(mCache.get(2, NAME));
+
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(2, mCache.maxSize());
+        assertEquals(2, mCache.size());
+        assertNotNull(mCache.get(8, NAME));
+
+        // Hiding the UI restores the full size, the dropped rows stay dropped
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(8, mCache.maxSize());
+        assertEquals(2, mCache.size());
+        mCache.put(9, row(9, "Book 9"), mCache.getGeneration());
+        assertEquals(3, mCache.size());
+    }
+
+    @Test
+    public void cachedRowHasTheColumnsOfTheView() {
+        mProvider = Robolectric.setupContentProvider(BookProvider.class, BookContract.CONTENT_AUTHORITY);
+        ContentResolver contentResolver = RuntimeEnvironment.application.getContentResolver();
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_NAME, "Dune");
+        values.put(BookEntry.COLUMN_PRICE, 10);
+        values.put(BookEntry.COLUMN_QUANTITY, 3);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Chilton");
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555");
+        Uri uri = contentResolver.insert(BookEntry.CONTENT_URI, values);
+
+        String[] view = readAll(contentResolver.query(BookEntry.CONTENT_URI, null, null, null, null));
+        // Read from the database and cached, then read from the cache
+        String[] missed = readAll(contentResolver.query(uri, null, null, null, null));
+        String[] hit = readAll(contentResolver.query(uri, null, null, null, null));
+        assertArrayEquals(view, missed);
+        assertArrayEquals(view, hit);
+        // The _ID is the first column
+        assertEquals(String.valueOf(ContentUris.parseId(uri)), view[view.length / 2]);
+    }
+
+    /**
+     * @return the column names of the cursor followed by the values of its single row
+     */
+    private static String[] readAll(Cursor cursor) {
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            String[] names = cursor.getColumnNames();
+            String[] all = Arrays.copyOf(names, names.length * 2);
+            for (int i = 0; i < names.length; i++) {
+                all[names.length + i] = cursor.getString(i);
+            }
+            return all;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Object[] row(long id, String name) {
+        return new Object[]{id, name, 10L, 1L, 1L, "Supplier", "555", 0L};
+    }
+
+    private static String name(Cursor cursor) {
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
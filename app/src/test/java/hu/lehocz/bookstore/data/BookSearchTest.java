@@ -0,0 +1,67 @@
+package hu.lehocz.bookstore.data;
+
+import android.os.Build;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class BookSearchTest {
+
+    private static final List<Book> BOOKS = Arrays.asList(
+            book(1, "Harry Potter", "Bloomsbury"),
+            book(2, "The Harrowing", "Harper"),
+            book(3, "Dune", "Harper"),
+            book(4, "O'Brien's X-ray", "Penguin"),
+            book(5, "Ünnep", "Magvető"));
+
+    @Test
+    public void narrowsLongerWordsAndMoreWords() {
+        assertTrue(BookSearch.narrows("har", "harr"));
+        assertTrue(BookSearch.narrows("har", "potter har"));
+        assertTrue(BookSearch.narrows("o'b", "o'brien"));
+        assertFalse(BookSearch.narrows("harr", "har"));
+        assertFalse(BookSearch.narrows("har", "pot"));
+        // The last token of a word ending with a separator has to match exactly
+        assertFalse(BookSearch.narrows("har-", "harry"));
+        assertTrue(BookSearch.narrows("har", "har-"));
+        // Empty terms list every book rather than searching
+        assertFalse(BookSearch.narrows("", "har"));
+        assertFalse(BookSearch.narrows("har", " "));
+    }
+
+    @Test
+    public void filtersInTheOrderOfTheIndex() {
+        assertEquals(Arrays.asList(1L, 2L, 3L), ids(BookSearch.filter(BOOKS, "HAR")));
+        assertEquals(Arrays.asList(2L), ids(BookSearch.filter(BOOKS, "harrow")));
+        assertEquals(Arrays.asList(4L), ids(BookSearch.filter(BOOKS, "o'brien x-r")));
+        // Not a phrase of adjacent tokens
+        assertEquals(Arrays.asList(), ids(BookSearch.filter(BOOKS, "brien-ray")));
+        // Only ASCII letters are folded
+        assertEquals(Arrays.asList(5L), ids(BookSearch.filter(BOOKS, "Ünn")));
+        assertEquals(Arrays.asList(), ids(BookSearch.filter(BOOKS, "ünn")));
+    }
+
+    private static Book book(long id, String name, String supplierName) {
+        return new Book(id, name, 10, 1, id, supplierName, "555");
+    }
+
+    private static List<Long> ids(List<Book> books) {
+        ArrayList<Long> ids = new ArrayList<>();
+        for (Book book : books) {
+            ids.add(book.id);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,145 @@
+package hu.lehocz.bookstore.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import hu.lehocz.bookstore.data.BookContract.BookEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class BookStatementCacheTest {
+
+    private static final String DATABASE_NAME = "statements_test.db";
+
+    private Context mContext;
+
+    private BookDbHelper mDbHelper;
+
+    private BookStatementCache mStatements;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, DATABASE_NAME, new BookDbHelper.Options());
+        mStatements = new BookStatementCache(mDbHelper);
+    }
+
+    @After
+    public void tearDown() {
+        mStatements.invalidate();
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void recompilesAfterTheDatabaseIsReopened() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id = writeThroughEveryStatement(database);
+        mDbHelper.close();
+
+        // The statements of the closed database can't run any more
+        SQLiteDatabase reopened = mDbHelper.getWritableDatabase();
+        assertNotSame(database, reopened);
+        writeThroughEveryStatement(reopened);
+        assertEquals(-1, mStatements.adjustQuantity(reopened, id, -1));
+    }
+
+    @Test
+    public void recompilesAfterAnUpgrade() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id = writeThroughEveryStatement(database);
+        int schemaGeneration = mDbHelper.getSchemaGeneration();
+        mDbHelper.close();
+
+        // Opened again at the previous version, the helper migrates it to the current one
+        SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(DATABASE_NAME), null);
+        try {
+            old.setVersion(BookDbHelper.DATABASE_VERSION - 1);
+        } finally {
+            old.close();
+        }
+        SQLiteDatabase upgraded = mDbHelper.getWritableDatabase();
+        assertTrue(mDbHelper.getSchemaGeneration() != schemaGeneration);
+        assertEquals(BookDbHelper.DATABASE_VERSION, upgraded.getVersion());
+
+        writeThroughEveryStatement(upgraded);
+        assertEquals(-1, mStatements.adjustQuantity(upgraded, id, -1));
+    }
+
+    @Test
+    public void recompilesAfterAMigrationOfTheSameDatabase() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        writeThroughEveryStatement(database);
+        int schemaGeneration = mDbHelper.getSchemaGeneration();
+
+        // Only the schema generation tells the statements apart, the database object is the same
+        database.beginTransaction();
+        try {
+            mDbHelper.onUpgrade(database, BookDbHelper.DATABASE_VERSION - 1, BookDbHelper.DATABASE_VERSION);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        assertTrue(mDbHelper.getSchemaGeneration() != schemaGeneration);
+
+        writeThroughEveryStatement(database);
+        assertEquals(2, count(database));
+    }
+
+    /**
+     * Insert two books and write them through every other statement of the cache, deleting one
+     * and selling every copy of the other.
+     *
+     * @return the _ID of the book left
+     */
+    private long writeThroughEveryStatement(SQLiteDatabase database) {
+        long kept = mStatements.insertBook(database, book("Dune"));
+        long deleted = mStatements.insertBook(database, book("Emma"));
+        assertTrue(kept != -1 && deleted != -1);
+        assertEquals(mStatements.getSupplierId(database, "Chilton", "555"),
+                mStatements.getSupplierId(database, "Chilton", "555"));
+        assertEquals(1, mStatements.updateQuantity(database, kept, 4, 0L));
+        // The update bumped the version
+        assertEquals(0, mStatements.updateQuantity(database, kept, 1, 0L));
+        assertEquals(0, mStatements.adjustQuantity(database, kept, -4));
+        assertEquals(1, mStatements.deleteBook(database, deleted));
+        return kept;
+    }
+
+    private static ContentValues book(String name) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_NAME, name);
+        values.put(BookEntry.COLUMN_PRICE, 10);
+        values.put(BookEntry.COLUMN_QUANTITY, 1);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Chilton");
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555");
+        return values;
+    }
+
+    private static long count(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery("SELECT COUNT(*) FROM " + BookEntry.TABLE_NAME, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
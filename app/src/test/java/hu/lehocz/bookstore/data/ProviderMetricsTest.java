@@ -0,0 +1,47 @@
+package hu.lehocz.bookstore.data;
+
+import android.os.Build;
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class ProviderMetricsTest {
+
+    @Test
+    public void countsRowsAndLatencyBuckets() {
+        ProviderMetrics metrics = new ProviderMetrics(new String[]{"books", "book"});
+        metrics.record(ProviderMetrics.QUERY, 0, 10, 500);
+        metrics.record(ProviderMetrics.QUERY, 0, 5, 1000);
+        metrics.record(ProviderMetrics.QUERY, 0, 0, 3999);
+        metrics.record(ProviderMetrics.QUERY, 0, 0, 60L * 1000000000L);
+        metrics.record(ProviderMetrics.UPDATE, 1, 1, 1500);
+
+        Bundle snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.size());
+        Bundle query = snapshot.getBundle("query/books");
+        assertEquals(4, query.getLong(BookContract.EXTRA_OPERATION_COUNT));
+        assertEquals(15, query.getLong(BookContract.EXTRA_ROW_COUNT));
+        assertEquals(60L * 1000000000L + 5499, query.getLong(BookContract.EXTRA_TOTAL_NANOS));
+        long[] histogram = query.getLongArray(BookContract.EXTRA_LATENCY_HISTOGRAM);
+        assertEquals(ProviderMetrics.BUCKET_COUNT, histogram.length);
+        // 0us, 1us, 3us and a minute
+        assertEquals(1, histogram[0]);
+        assertEquals(1, histogram[1]);
+        assertEquals(1, histogram[2]);
+        assertEquals(1, histogram[ProviderMetrics.BUCKET_COUNT - 1]);
+        assertEquals(1, snapshot.getBundle("update/book").getLong(BookContract.EXTRA_OPERATION_COUNT));
+        assertNull(snapshot.getBundle("query/book"));
+
+        metrics.reset();
+        assertTrue(metrics.snapshot().isEmpty());
+    }
+}